@@ -0,0 +1,104 @@
+package edu.lispectre.metaphrase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks tokenizing, parsing and evaluating separately, over a fixed set of seeded equations of each
+ * {@link Workload}. Run with {@code mvn -P jmh test-compile exec:exec}, which also reports allocations through the GC
+ * profiler.
+ * <p>Tokenizing includes parsing the equations in parentheses, as the {@link Tokenizer} hands them to the
+ * {@link Parser} as soon as they are closed; parsing covers the rest of the equation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ExpressionBenchmark {
+    private static final int EQUATIONS = 64;
+
+    @Param({"MIXED", "FLAT", "DEEP", "VARIABLES", "EXPONENTS"})
+    public String workload;
+
+    @Param({"50"})
+    public int size;
+
+    @Param({"20"})
+    public int precision;
+
+    @Param({"42"})
+    public long seed;
+
+    private MathContext mathContext;
+    private final ArrayList<String> equations = new ArrayList<>();
+    private final ArrayList<ArrayList<Token>> tokens = new ArrayList<>();
+    private final ArrayList<Expression> expressions = new ArrayList<>();
+    private final ArrayList<Bindings> bindings = new ArrayList<>();
+    private final Tokenizer tokenizer = new Tokenizer();
+
+    @Setup
+    public void generate() {
+        mathContext = new MathContext(precision);
+        final Workload kind = Workload.valueOf(workload);
+        final Random random = new Random(seed);
+        while (equations.size() < EQUATIONS) {
+            final String equation = kind.equation(random, kind == Workload.MIXED ? 3 : size);
+            final Expression expression = Expression.parse(equation, mathContext);
+            final Bindings values = expression.newBindings();
+            for (String variable : expression.getVariables()) {
+                values.set(variable, BigDecimal.valueOf(random.nextInt(1000) + 1, 2));
+            }
+            try {
+                expression.eval(values);
+            } catch (ArithmeticException ex) {
+                continue;                                           // Division by zero.
+            }
+            final Tokenizer equationTokenizer = new Tokenizer();
+            equationTokenizer.tokenizeEquation(equation, mathContext);
+            equations.add(equation);
+            tokens.add(new ArrayList<>(equationTokenizer.getTokens()));
+            expressions.add(expression);
+            bindings.add(values);
+        }
+    }
+
+    @Benchmark
+    public void tokenize(Blackhole blackhole) {
+        for (String equation : equations) {
+            tokenizer.tokenizeEquation(equation, mathContext);
+            blackhole.consume(tokenizer.getTokens());
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for (ArrayList<Token> equationTokens : tokens) {
+            blackhole.consume(Parser.parseTokens(equationTokens, mathContext));
+        }
+    }
+
+    @Benchmark
+    public void eval(Blackhole blackhole) {
+        for (int i = 0; i < EQUATIONS; i++) {
+            blackhole.consume(expressions.get(i).eval(bindings.get(i)));
+        }
+    }
+}
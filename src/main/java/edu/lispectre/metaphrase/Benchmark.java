@@ -4,12 +4,25 @@ package edu.lispectre.metaphrase;
 import java.math.BigDecimal;
 import java.util.Random;
 
+/**
+ * A quick benchmark for the REPL, timing how long random equations take to tokenize, parse and evaluate. The equations
+ * come from a seeded {@link Random}, so every run with the same seed times the very same equations.
+ * <p>For reliable measurements, with warmup, forks and allocation rates, use the JMH benchmarks instead:
+ * {@code mvn -P jmh test-compile exec:exec}.
+ */
 public class Benchmark {
+    static final long DEFAULT_SEED = 42;
+
     public static void startBenchmark(final int numOfEquations, final boolean verbose) {
+        startBenchmark(numOfEquations, verbose, DEFAULT_SEED);
+    }
+
+    public static void startBenchmark(final int numOfEquations, final boolean verbose, final long seed) {
         long timeElapsed = 0;
         Tokenizer tokenizer = new Tokenizer();
+        Random random = new Random(seed);
         for (int i = 0; i < numOfEquations; i++) {
-            String randomEquation = generateRandomEquation(0);
+            String randomEquation = Workload.MIXED.equation(random, 3);
             if (verbose) {
                 System.out.printf("%s%n", randomEquation);
             }
@@ -31,40 +44,6 @@ public class Benchmark {
             }
         }
         double convertedToSeconds = (double) timeElapsed / 1_000_000_000;
-        System.out.printf("Evaluated %d equations in %f seconds. (%fs/equation)%n", numOfEquations, convertedToSeconds, convertedToSeconds / numOfEquations);
-    }
-
-
-    private static String generateRandomEquation(int depth) {
-        if (depth > 3) {
-            return String.valueOf(new Random().nextInt(10) + 1);
-        }
-
-        StringBuilder equation = new StringBuilder();
-        Random random = new Random();
-        int numTerms = random.nextInt(3) + 2;
-
-        for (int i = 0; i < numTerms; i++) {
-            if (i > 0) {
-                char operator = getRandomOperator();
-                equation.append(" ").append(operator).append(" ");
-            }
-
-            if (random.nextBoolean()) {
-                equation.append(random.nextInt(10) + 1);
-            } else {
-                equation.append("(").append(generateRandomEquation(depth + 1)).append(")");
-            }
-        }
-
-        return equation.toString();
-    }
-
-    private static char getRandomOperator() {
-        char[] operators = {'+', '-', '*', '/'};
-        // If you don't mind a lot of -Infinities, Infinities and NaNs, uncomment the line below.
-        //operators = new char[]{'+', '-', '*', '/', '^'};
-        Random random = new Random();
-        return operators[random.nextInt(operators.length)];
+        System.out.printf("Evaluated %d equations (seed %d) in %f seconds. (%fs/equation)%n", numOfEquations, seed, convertedToSeconds, convertedToSeconds / numOfEquations);
     }
 }
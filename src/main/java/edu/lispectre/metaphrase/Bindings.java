@@ -0,0 +1,99 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Values of the variables for one evaluation of an {@link Expression}.
+ * <p>Bindings are created with {@link Expression#newBindings()}. Every variable has a slot (see
+ * {@link Expression#slotOf(String)}), so values can be set either by identifier or, slightly faster, by slot. Bindings
+ * are not thread-safe themselves; each thread evaluating a shared Expression should use its own Bindings.
+ */
+public final class Bindings {
+    private static final BigDecimal[] NO_SHARED_VALUES = new BigDecimal[0];
+    private final Map<String, Integer> slots;
+    final BigDecimal[] values;
+    BigDecimal[] shared = NO_SHARED_VALUES;
+    private BigDecimal[] stack = NO_SHARED_VALUES;
+
+    Bindings(Map<String, Integer> slots) {
+        this.slots = slots;
+        this.values = new BigDecimal[slots.size()];
+    }
+
+    /**
+     * Assigns a value to a variable.
+     *
+     * @param identifier the string of text by which the variable is declared in the equation
+     * @param value      the value which the variable should be assigned
+     * @return these Bindings, so that calls can be chained
+     * @throws IllegalArgumentException if there is no such variable in the Expression
+     */
+    public Bindings set(String identifier, BigDecimal value) {
+        values[slotOf(identifier)] = value;
+        return this;
+    }
+
+    /**
+     * Assigns a value to the variable in the given slot.
+     *
+     * @param slot  slot of the variable
+     * @param value the value which the variable should be assigned
+     * @return these Bindings, so that calls can be chained
+     * @throws IndexOutOfBoundsException if there is no such slot
+     */
+    public Bindings set(int slot, BigDecimal value) {
+        values[slot] = value;
+        return this;
+    }
+
+    /**
+     * @param identifier the string of text by which the variable is declared in the equation
+     * @return the value assigned to the variable, or {@code null} if it has none
+     * @throws IllegalArgumentException if there is no such variable in the Expression
+     */
+    public BigDecimal get(String identifier) {
+        return values[slotOf(identifier)];
+    }
+
+    /**
+     * Removes the values of all variables, so the Bindings can be reused for another evaluation.
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+    }
+
+    /**
+     * Forgets the values of shared tokens computed during the previous evaluation, making room for the given amount.
+     */
+    void resetShared(int sharedTokens) {
+        if (shared.length < sharedTokens) {
+            shared = new BigDecimal[sharedTokens];
+        } else {
+            Arrays.fill(shared, 0, sharedTokens, null);
+        }
+    }
+
+    /**
+     * @return an operand stack for {@link PostfixExpression}, holding at least the given amount of values
+     */
+    BigDecimal[] stack(int size) {
+        if (stack.length < size) {
+            stack = new BigDecimal[size];
+        }
+        return stack;
+    }
+
+    boolean belongsTo(Map<String, Integer> slots) {
+        return this.slots == slots;
+    }
+
+    private int slotOf(String identifier) {
+        final Integer slot = slots.get(identifier);
+        if (slot == null) {
+            throw new IllegalArgumentException("Unknown variable: " + identifier + ".");
+        }
+        return slot;
+    }
+}
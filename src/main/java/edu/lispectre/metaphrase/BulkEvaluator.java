@@ -0,0 +1,165 @@
+package edu.lispectre.metaphrase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Evaluates a stream of independent equations, one per line, on all the threads of a {@link ForkJoinPool}, writing
+ * their results in the order of the input.
+ * <p>The lines are read in chunks, and every chunk is parsed and evaluated as one task of the pool. Only a limited
+ * amount of chunks is read ahead of the one being written, so memory use stays the same however long the input is.
+ * Results are written through one large buffer, one line per line of the input: the value, or {@code ERROR} and the
+ * reason when the equation is malformed, exceeds the {@link EvaluationLimits} or can't be evaluated, e.g. divides by
+ * zero. A failed equation doesn't stop the others. Blank lines are copied as they are.
+ * <p>Unless other limits are given, every equation is held to {@link EvaluationLimits#DEFAULT}, since a stream of
+ * equations usually comes from somewhere else than the program evaluating it.
+ * <p>Equations can't have variables, since there is nothing to take their values from.
+ */
+public final class BulkEvaluator {
+    static final int CHUNK_SIZE = 1024;
+
+    private BulkEvaluator() {
+    }
+
+    /**
+     * Evaluates every line of the input in the common {@code ForkJoinPool}, writing the results into the stream. The
+     * stream is flushed but left open.
+     *
+     * @param input       equations to evaluate, one per line
+     * @param output      stream to write the results into, one per line
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @return the amount of equations evaluated, how many of them failed and how long it took
+     * @throws IOException if the input can't be read or the stream written
+     */
+    public static Summary evaluate(Reader input, OutputStream output, MathContext mathContext) throws IOException {
+        return evaluate(input, output, mathContext, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates every line of the input in the given pool, writing the results into the stream. The stream is
+     * flushed but left open.
+     *
+     * @param input       equations to evaluate, one per line
+     * @param output      stream to write the results into, one per line
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @param pool        pool to evaluate the equations in
+     * @return the amount of equations evaluated, how many of them failed and how long it took
+     * @throws IOException if the input can't be read or the stream written
+     */
+    public static Summary evaluate(Reader input, OutputStream output, MathContext mathContext, ForkJoinPool pool)
+            throws IOException {
+        return evaluate(input, output, mathContext, pool, EvaluationLimits.DEFAULT);
+    }
+
+    /**
+     * Evaluates every line of the input in the given pool with the given limits, writing the results into the
+     * stream. The stream is flushed but left open.
+     *
+     * @param input       equations to evaluate, one per line
+     * @param output      stream to write the results into, one per line
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @param pool        pool to evaluate the equations in
+     * @param limits      limits on the size and the evaluation of every equation, or {@code null} for none
+     * @return the amount of equations evaluated, how many of them failed and how long it took
+     * @throws IOException if the input can't be read or the stream written
+     */
+    public static Summary evaluate(Reader input, OutputStream output, MathContext mathContext, ForkJoinPool pool,
+                                   EvaluationLimits limits) throws IOException {
+        return evaluate(input, output, mathContext, pool, limits, CHUNK_SIZE);
+    }
+
+    static Summary evaluate(Reader input, OutputStream output, MathContext mathContext, ForkJoinPool pool,
+                            EvaluationLimits limits, int chunkSize) throws IOException {
+        final long start = System.nanoTime();
+        final BufferedReader reader = input instanceof BufferedReader buffered ? buffered
+                : new BufferedReader(input, 1 << 16);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+        final int maxPendingChunks = 4 * pool.getParallelism();
+        final ArrayDeque<ForkJoinTask<Chunk>> pending = new ArrayDeque<>();
+        long equations = 0;
+        long failedEquations = 0;
+        try {
+            while (true) {
+                final String[] lines = readChunk(reader, chunkSize);
+                if (lines.length > 0) {
+                    pending.add(pool.submit(() -> evaluateChunk(lines, mathContext, limits)));
+                }
+                if (pending.size() >= maxPendingChunks || lines.length < chunkSize && !pending.isEmpty()) {
+                    final Chunk chunk = pending.poll().join();
+                    for (String result : chunk.results) {
+                        writer.write(result);
+                        writer.write('\n');
+                    }
+                    equations += chunk.equations;
+                    failedEquations += chunk.failedEquations;
+                } else if (lines.length < chunkSize) {
+                    break;
+                }
+            }
+        } finally {
+            for (ForkJoinTask<Chunk> task : pending) {
+                task.cancel(false);
+            }
+        }
+        writer.flush();
+        return new Summary(equations, failedEquations, System.nanoTime() - start);
+    }
+
+    private static String[] readChunk(BufferedReader reader, int chunkSize) throws IOException {
+        final ArrayList<String> lines = new ArrayList<>(chunkSize);
+        for (String line; lines.size() < chunkSize && (line = reader.readLine()) != null; ) {
+            lines.add(line);
+        }
+        return lines.toArray(new String[0]);
+    }
+
+    private static Chunk evaluateChunk(String[] lines, MathContext mathContext, EvaluationLimits limits) {
+        final String[] results = new String[lines.length];
+        int equations = 0;
+        int failedEquations = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isBlank()) {
+                results[i] = lines[i];
+                continue;
+            }
+            equations++;
+            try {
+                results[i] = Expression.parse(lines[i], mathContext, limits).eval().toString();
+            } catch (RuntimeException ex) {
+                failedEquations++;
+                results[i] = "ERROR " + ex.getMessage();
+            }
+        }
+        return new Chunk(results, equations, failedEquations);
+    }
+
+    private record Chunk(String[] results, int equations, int failedEquations) {
+    }
+
+    /**
+     * Outcome of evaluating a stream of equations.
+     *
+     * @param equations       amount of equations evaluated, without blank lines
+     * @param failedEquations amount of equations which were malformed or couldn't be evaluated
+     * @param nanos           time it took, from reading the first line to writing the last result
+     */
+    public record Summary(long equations, long failedEquations, long nanos) {
+        /**
+         * @return the amount of equations evaluated per second
+         */
+        public double getThroughput() {
+            return nanos > 0 ? equations * 1e9 / nanos : 0;
+        }
+    }
+}
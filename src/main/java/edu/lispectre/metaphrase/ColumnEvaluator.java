@@ -0,0 +1,75 @@
+package edu.lispectre.metaphrase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Evaluates a tree of tokens over columns of {@code double} values, one chunk of rows at a time.
+ * <p>Instead of walking the tree once per row, every token is evaluated for the whole chunk before its parent is, so
+ * each operator is a tight loop over arrays (see {@link ColumnKernels}). The left operand of an operator is evaluated
+ * straight into the operator's own buffer and the right one into the buffer one level deeper, then the two are
+ * combined in place; thus only as many buffers are needed as the deepest chain of right operands.
+ * <p>The results are the same as those of {@link Token#evalDouble(double[], DoublePolicy)} with
+ * {@link DoublePolicy#IEEE_754}.
+ */
+final class ColumnEvaluator {
+    static final int CHUNK_SIZE = 1024;
+    private static final ColumnKernels KERNELS = ColumnKernels.load();
+
+    private final ColumnKernels kernels;
+    private final double[][] columns;
+    private final ArrayList<double[]> buffers = new ArrayList<>();
+
+    private ColumnEvaluator(ColumnKernels kernels, double[][] columns) {
+        this.kernels = kernels;
+        this.columns = columns;
+    }
+
+    /**
+     * Evaluates the tree for every row.
+     *
+     * @param root    top of the tree
+     * @param columns values of the variables, one column per slot
+     * @param results array receiving the value of each row; its length is the amount of rows
+     */
+    static void evaluate(Token root, double[][] columns, double[] results) {
+        evaluate(KERNELS, root, columns, results);
+    }
+
+    static void evaluate(ColumnKernels kernels, Token root, double[][] columns, double[] results) {
+        final ColumnEvaluator evaluator = new ColumnEvaluator(kernels, columns);
+        for (int from = 0; from < results.length; from += CHUNK_SIZE) {
+            final int length = Math.min(CHUNK_SIZE, results.length - from);
+            evaluator.evaluate(root, from, length, 0);
+            System.arraycopy(evaluator.buffers.get(0), 0, results, from, length);
+        }
+    }
+
+    private void evaluate(Token token, int from, int length, int depth) {
+        final double[] buffer = buffer(depth);
+        switch (token.getType()) {
+            case VALUE -> Arrays.fill(buffer, 0, length, ((ValueToken) token).doubleVal);
+            case VARIABLE -> System.arraycopy(columns[((VariableToken) token).slot], from, buffer, 0, length);
+            case OPERATOR -> {
+                if (token.operator == Operator.UNARYMINUS) {
+                    evaluate(token.right, from, length, depth);
+                    kernels.negate(buffer, length);
+                } else if (token.operator == Operator.FUNCTION) {
+                    evaluate(token.right, from, length, depth);
+                    kernels.call(((OperatorToken) token).function(), buffer, length);
+                } else {
+                    evaluate(token.left, from, length, depth);
+                    evaluate(token.right, from, length, depth + 1);
+                    kernels.apply(token.operator, buffer, buffers.get(depth + 1), length);
+                }
+            }
+        }
+    }
+
+    private double[] buffer(int depth) {
+        while (buffers.size() <= depth) {
+            buffers.add(new double[CHUNK_SIZE]);
+        }
+        return buffers.get(depth);
+    }
+}
@@ -0,0 +1,93 @@
+package edu.lispectre.metaphrase;
+
+/**
+ * Arithmetic on whole chunks of a column of {@code double}s, used by the {@link ColumnEvaluator}. This implementation
+ * is plain Java loops; {@link VectorColumnKernels} replaces them with SIMD instructions when the
+ * {@code jdk.incubator.vector} module is available.
+ */
+class ColumnKernels {
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    /**
+     * @return kernels using the Vector API if the JVM was started with {@code --add-modules jdk.incubator.vector},
+     * plain loops otherwise
+     */
+    static ColumnKernels load() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                return (ColumnKernels) Class.forName("edu.lispectre.metaphrase.VectorColumnKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // Fall back to plain loops.
+            }
+        }
+        return new ColumnKernels();
+    }
+
+    /**
+     * Applies the operator to the first {@code length} elements of both arrays, storing the results in the first one.
+     *
+     * @param operator binary operator to apply
+     * @param target   left operands, replaced by the results
+     * @param operand  right operands
+     * @param length   amount of elements to process
+     */
+    void apply(Operator operator, double[] target, double[] operand, int length) {
+        apply(operator, target, operand, 0, length);
+    }
+
+    /**
+     * Negates the first {@code length} elements of the array.
+     */
+    void negate(double[] target, int length) {
+        for (int i = 0; i < length; i++) {
+            target[i] = -target[i];
+        }
+    }
+
+    /**
+     * Replaces the first {@code length} elements of the array by the values of the function at them.
+     */
+    void call(MathFunction function, double[] target, int length) {
+        call(function, target, 0, length);
+    }
+
+    final void call(MathFunction function, double[] target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            target[i] = function.applyDouble(target[i]);
+        }
+    }
+
+    final void apply(Operator operator, double[] target, double[] operand, int from, int to) {
+        switch (operator) {
+            case EXPONENT -> {
+                for (int i = from; i < to; i++) {
+                    target[i] = Math.pow(target[i], operand[i]);
+                }
+            }
+            case MULTIPLICATION -> {
+                for (int i = from; i < to; i++) {
+                    target[i] *= operand[i];
+                }
+            }
+            case DIVISION -> {
+                for (int i = from; i < to; i++) {
+                    target[i] /= operand[i];
+                }
+            }
+            case ADDITION -> {
+                for (int i = from; i < to; i++) {
+                    target[i] += operand[i];
+                }
+            }
+            case SUBTRACTION -> {
+                for (int i = from; i < to; i++) {
+                    target[i] -= operand[i];
+                }
+            }
+            case UNARYMINUS, FUNCTION ->
+                    throw new RuntimeException("Something went horribly wrong if you see this error.");
+        }
+    }
+}
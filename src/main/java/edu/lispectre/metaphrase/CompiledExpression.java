@@ -0,0 +1,65 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * An {@link Expression} compiled into a class of its own with {@link Expression#compile()}.
+ * <p>The whole tree of tokens is turned into straight-line bytecode, so there is no virtual call per token and the JIT
+ * is free to inline the equation as a whole. The results are identical to those of {@link Expression#eval(Bindings)}.
+ * The generated class is a hidden class; it is unloaded once the CompiledExpression is no longer referenced.
+ */
+public final class CompiledExpression {
+    private final Expression expression;
+    private final Body body;
+    private final BigDecimal[] constants;
+
+    CompiledExpression(Expression expression, Body body, BigDecimal[] constants) {
+        this.expression = expression;
+        this.body = body;
+        this.constants = constants;
+    }
+
+    /**
+     * Evaluates the compiled Expression with the given values of its variables.
+     *
+     * @param bindings values of the variables, created with {@link Expression#newBindings()} of the compiled Expression
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the bindings belong to another Expression or a variable has no value
+     */
+    public BigDecimal eval(Bindings bindings) {
+        expression.checkBindings(bindings);
+        bindings.resetShared(expression.getSharedTokens());
+        return body.eval(bindings.values, constants, expression.getMathContext(), bindings.shared);
+    }
+
+    /**
+     * Evaluates a compiled Expression without variables.
+     *
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the Expression has variables
+     */
+    public BigDecimal eval() {
+        return eval(expression.newBindings());
+    }
+
+    /**
+     * @return the Expression which was compiled
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+
+    /**
+     * Implemented by the generated classes. The constants are the values of the {@link ValueToken}s, in the order the
+     * generated code expects them; the shared values are filled in by the generated code itself.
+     */
+    interface Body {
+        BigDecimal eval(BigDecimal[] variables, BigDecimal[] constants, MathContext mc, BigDecimal[] shared);
+    }
+}
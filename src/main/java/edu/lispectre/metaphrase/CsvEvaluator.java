@@ -0,0 +1,262 @@
+package edu.lispectre.metaphrase;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Evaluates an {@link Expression} once for every row of a CSV file of variable values, streaming the results out.
+ * <p>The first line of the file names the columns; columns named like variables of the Expression provide their values
+ * and any other columns are ignored. Every following line is one evaluation, and produces one line of output with its
+ * result. Rows whose evaluation throws an {@code ArithmeticException}, like a division by zero, or exceeds one of the
+ * {@link EvaluationLimits} of the Expression produce an empty line, so the lines of the output always match the rows of
+ * the input. Values are plain numbers separated by commas, without quotes; blank lines are skipped.
+ * <p>The file is memory-mapped a window at a time and numbers are parsed straight from the mapped bytes, so memory use
+ * stays the same however large the file is.
+ */
+public final class CsvEvaluator {
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_FAST_DIGITS = 18;
+
+    private final Expression expression;
+    private final Bindings bindings;
+    private final Writer output;
+    private int[] columnSlots;
+    private char[] cellBuffer = new char[32];
+    private long rows;
+    private long failedRows;
+
+    private CsvEvaluator(Expression expression, Writer output) {
+        this.expression = expression;
+        this.bindings = expression.newBindings();
+        this.output = output;
+    }
+
+    /**
+     * Evaluates the Expression for every row of the input file, writing the results into the output file.
+     *
+     * @param expression Expression to evaluate
+     * @param input      CSV file with a header naming the columns
+     * @param output     file to write the results into, one per line; created or overwritten
+     * @return the amount of rows evaluated and how many of them failed
+     * @throws IOException              if the files can't be read or written
+     * @throws IllegalArgumentException if the header lacks a column for a variable or a row lacks a value
+     * @throws NumberFormatException    if a value isn't a number
+     */
+    public static Summary evaluate(Expression expression, Path input, Path output) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(output)) {
+            return evaluate(expression, input, stream);
+        }
+    }
+
+    /**
+     * Evaluates the Expression for every row of the input file, writing the results into the stream. The stream is
+     * flushed but left open.
+     *
+     * @param expression Expression to evaluate
+     * @param input      CSV file with a header naming the columns
+     * @param output     stream to write the results into, one per line
+     * @return the amount of rows evaluated and how many of them failed
+     * @throws IOException              if the file can't be read or the stream written
+     * @throws IllegalArgumentException if the header lacks a column for a variable or a row lacks a value
+     * @throws NumberFormatException    if a value isn't a number
+     */
+    public static Summary evaluate(Expression expression, Path input, OutputStream output) throws IOException {
+        return evaluate(expression, input, output, WINDOW_SIZE);
+    }
+
+    static Summary evaluate(Expression expression, Path input, OutputStream output, int windowSize) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.US_ASCII), 1 << 16);
+        final CsvEvaluator evaluator = new CsvEvaluator(expression, writer);
+        try (FileChannel channel = FileChannel.open(input, StandardOpenOption.READ)) {
+            evaluator.readAll(channel, windowSize);
+        }
+        writer.flush();
+        return new Summary(evaluator.rows, evaluator.failedRows);
+    }
+
+    /**
+     * Maps the file one window at a time. A window ends after its last complete line; the next one starts right
+     * after it, so no line is ever split between two windows. Lines longer than a window get a bigger one.
+     */
+    private void readAll(FileChannel channel, int windowSize) throws IOException {
+        final long size = channel.size();
+        long offset = 0;
+        long window = windowSize;
+        while (offset < size) {
+            final int length = (int) Math.min(window, size - offset);
+            final boolean lastWindow = offset + length == size;
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            int position = 0;
+            while (position < length) {
+                int end = indexOfNewline(buffer, position, length);
+                if (end < 0) {
+                    if (!lastWindow) {
+                        break;
+                    }
+                    end = length;
+                }
+                readLine(buffer, position, end);
+                position = end + 1;
+            }
+            if (position == 0) {
+                if (window >= Integer.MAX_VALUE) {
+                    throw new IOException("A line of the file is longer than " + Integer.MAX_VALUE + " bytes.");
+                }
+                window = Math.min(window * 2, Integer.MAX_VALUE);
+                continue;
+            }
+            offset += Math.min(position, length);
+            window = windowSize;
+        }
+    }
+
+    private static int indexOfNewline(MappedByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void readLine(MappedByteBuffer buffer, int start, int end) throws IOException {
+        if (end > start && buffer.get(end - 1) == '\r') {
+            end--;
+        }
+        if (columnSlots == null) {
+            readHeader(buffer, start, end);
+            return;
+        }
+        if (isBlank(buffer, start, end)) {
+            return;
+        }
+        rows++;
+        int column = 0;
+        int cellStart = start;
+        for (int i = start; i <= end; i++) {
+            if (i < end && buffer.get(i) != ',') {
+                continue;
+            }
+            if (column < columnSlots.length && columnSlots[column] >= 0) {
+                bindings.set(columnSlots[column], parseNumber(buffer, cellStart, i));
+            }
+            column++;
+            cellStart = i + 1;
+        }
+        if (column < columnSlots.length) {
+            throw new IllegalArgumentException("Row " + rows + " has " + column + " columns, expected "
+                    + columnSlots.length + ".");
+        }
+        try {
+            output.write(expression.eval(bindings).toString());
+        } catch (ArithmeticException | LimitExceededException ex) {
+            failedRows++;
+        }
+        output.write('\n');
+    }
+
+    private void readHeader(MappedByteBuffer buffer, int start, int end) {
+        final byte[] header = new byte[end - start];
+        buffer.get(start, header);
+        final String[] names = new String(header, StandardCharsets.UTF_8).split(",", -1);
+        columnSlots = new int[names.length];
+        final boolean[] bound = new boolean[expression.getVariables().size()];
+        for (int column = 0; column < names.length; column++) {
+            columnSlots[column] = expression.slotOf(names[column].strip());
+            if (columnSlots[column] >= 0) {
+                bound[columnSlots[column]] = true;
+            }
+        }
+        for (int slot = 0; slot < bound.length; slot++) {
+            if (!bound[slot]) {
+                throw new IllegalArgumentException("No column for variable " + expression.getVariables().get(slot) + ".");
+            }
+        }
+    }
+
+    private static boolean isBlank(MappedByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!isSpace(buffer.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isSpace(byte symbol) {
+        return symbol == ' ' || symbol == '\t';
+    }
+
+    /**
+     * Parses a number straight from the bytes of a cell. Plain decimals of up to 18 digits are accumulated into a
+     * {@code long}, without creating anything but the {@code BigDecimal} itself; anything else, like an exponent, is
+     * left to the {@code BigDecimal} constructor. Either way the value is the same {@code new BigDecimal(cell)} gives.
+     */
+    private BigDecimal parseNumber(MappedByteBuffer buffer, int start, int end) {
+        while (start < end && isSpace(buffer.get(start))) {
+            start++;
+        }
+        while (end > start && isSpace(buffer.get(end - 1))) {
+            end--;
+        }
+        int i = start;
+        final boolean negative = i < end && buffer.get(i) == '-';
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        for (; i < end; i++) {
+            final byte symbol = buffer.get(i);
+            if (symbol >= '0' && symbol <= '9' && digits < MAX_FAST_DIGITS) {
+                unscaled = unscaled * 10 + (symbol - '0');
+                digits++;
+                if (fraction) {
+                    scale++;
+                }
+            } else if (symbol == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (i == end && digits > 0) {
+            return BigDecimal.valueOf(negative ? -unscaled : unscaled, scale);
+        }
+        final int length = end - start;
+        if (cellBuffer.length < length) {
+            cellBuffer = new char[Math.max(length, cellBuffer.length * 2)];
+        }
+        for (int j = 0; j < length; j++) {
+            cellBuffer[j] = (char) (buffer.get(start + j) & 0xff);
+        }
+        try {
+            return new BigDecimal(cellBuffer, 0, length);
+        } catch (NumberFormatException ex) {
+            throw new NumberFormatException("Row " + rows + " has an invalid value: '"
+                    + new String(Arrays.copyOf(cellBuffer, length)) + "'.");
+        }
+    }
+
+    /**
+     * Outcome of evaluating a file.
+     *
+     * @param rows       amount of rows evaluated
+     * @param failedRows amount of rows whose evaluation threw an {@code ArithmeticException} or exceeded a limit
+     */
+    public record Summary(long rows, long failedRows) {
+    }
+}
@@ -0,0 +1,86 @@
+package edu.lispectre.metaphrase;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link MetricsRegistry} keeping a {@link LatencyHistogram} of every phase, along with totals of what was
+ * tokenized and parsed.
+ */
+public final class DefaultMetricsRegistry implements MetricsRegistry {
+    private final LatencyHistogram tokenizeLatency = new LatencyHistogram();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram evalLatency = new LatencyHistogram();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+    private final LongAdder exponents = new LongAdder();
+    private final LongAdder divisions = new LongAdder();
+    private final LongAccumulator maxNestingDepth = new LongAccumulator(Math::max, 0);
+
+    @Override
+    public void tokenized(long nanos, int tokens, int nestingDepth) {
+        tokenizeLatency.record(nanos);
+        this.tokens.add(tokens);
+        maxNestingDepth.accumulate(nestingDepth);
+    }
+
+    @Override
+    public void parsed(long nanos, int nodes, int exponents, int divisions) {
+        parseLatency.record(nanos);
+        this.nodes.add(nodes);
+        this.exponents.add(exponents);
+        this.divisions.add(divisions);
+    }
+
+    @Override
+    public void evaluated(long nanos) {
+        evalLatency.record(nanos);
+    }
+
+    public LatencyHistogram getTokenizeLatency() {
+        return tokenizeLatency;
+    }
+
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    public LatencyHistogram getEvalLatency() {
+        return evalLatency;
+    }
+
+    /**
+     * @return the amount of tokens created by all tokenized equations
+     */
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    /**
+     * @return the amount of tokens in all parsed trees
+     */
+    public long getNodes() {
+        return nodes.sum();
+    }
+
+    /**
+     * @return the amount of exponentiations in all parsed trees
+     */
+    public long getExponents() {
+        return exponents.sum();
+    }
+
+    /**
+     * @return the amount of divisions in all parsed trees
+     */
+    public long getDivisions() {
+        return divisions.sum();
+    }
+
+    /**
+     * @return the deepest nesting of parentheses among all tokenized equations
+     */
+    public long getMaxNestingDepth() {
+        return maxNestingDepth.get();
+    }
+}
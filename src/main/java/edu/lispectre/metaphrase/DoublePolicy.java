@@ -0,0 +1,18 @@
+package edu.lispectre.metaphrase;
+
+/**
+ * Decides what happens when an evaluation with primitive {@code double}s produces something that isn't a finite
+ * number, e.g. because of a division by zero or an overflow.
+ */
+public enum DoublePolicy {
+    /**
+     * Follows IEEE 754: division by zero results in an infinity (or NaN for {@code 0/0}), overflow results in an
+     * infinity and invalid operations, like a negative number to a fractional power, result in NaN.
+     */
+    IEEE_754,
+    /**
+     * Behaves like the {@code BigDecimal} evaluation: an {@code ArithmeticException} is thrown as soon as an operation
+     * doesn't produce a finite number.
+     */
+    STRICT
+}
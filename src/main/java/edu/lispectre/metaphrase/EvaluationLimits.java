@@ -0,0 +1,122 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+/**
+ * Limits on how much an equation is allowed to cost, for equations which come from untrusted or generated sources.
+ * <p>The size of an equation is limited while it's tokenized: the nesting depth of its parentheses and the amount of
+ * its tokens. Its evaluation is limited while it runs: the magnitude of every exponent is checked before the power is
+ * calculated, the amount of digits of every intermediate result after it's calculated, and the time spent after
+ * every operator. Exceeding any of the limits throws a {@link LimitExceededException}. Evaluations with
+ * {@code double}s only have their size limited, as every operation on {@code double}s takes the same time and memory,
+ * and compiled code doesn't check any limits, so Expressions with limits can't be compiled.
+ * <p>The digits of a value are the digits it takes to write it out without an exponent, leading zeros after the
+ * decimal point included, so {@code 1E+100} has 101 of them. The limit on exponents stops a single power from running
+ * for minutes, which none of the other checks could interrupt.
+ *
+ * @param maxNestingDepth the maximum depth of nested parentheses
+ * @param maxTokens       the maximum amount of tokens of an equation
+ * @param maxExponent     the maximum magnitude of an exponent
+ * @param maxDigits       the maximum amount of digits of an intermediate result or a value of a variable
+ * @param timeout         the maximum time a single evaluation can take
+ */
+public record EvaluationLimits(int maxNestingDepth, int maxTokens, int maxExponent, int maxDigits, Duration timeout) {
+    /**
+     * Limits generous enough for equations written by hand: 256 levels of parentheses, 100000 tokens, exponents up to
+     * 10000, 10000 digits and one second per evaluation.
+     */
+    public static final EvaluationLimits DEFAULT = new EvaluationLimits(256, 100_000, 10_000, 10_000,
+            Duration.ofSeconds(1));
+
+    /**
+     * @throws IllegalArgumentException if any of the limits is zero or lower
+     */
+    public EvaluationLimits {
+        if (maxNestingDepth <= 0 || maxTokens <= 0 || maxExponent <= 0 || maxDigits <= 0) {
+            throw new IllegalArgumentException("The limits have to be greater than zero.");
+        }
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("The timeout has to be greater than zero.");
+        }
+    }
+
+    /**
+     * @return a copy of these limits with the given maximum depth of nested parentheses
+     */
+    public EvaluationLimits withMaxNestingDepth(int maxNestingDepth) {
+        return new EvaluationLimits(maxNestingDepth, maxTokens, maxExponent, maxDigits, timeout);
+    }
+
+    /**
+     * @return a copy of these limits with the given maximum amount of tokens
+     */
+    public EvaluationLimits withMaxTokens(int maxTokens) {
+        return new EvaluationLimits(maxNestingDepth, maxTokens, maxExponent, maxDigits, timeout);
+    }
+
+    /**
+     * @return a copy of these limits with the given maximum magnitude of an exponent
+     */
+    public EvaluationLimits withMaxExponent(int maxExponent) {
+        return new EvaluationLimits(maxNestingDepth, maxTokens, maxExponent, maxDigits, timeout);
+    }
+
+    /**
+     * @return a copy of these limits with the given maximum amount of digits
+     */
+    public EvaluationLimits withMaxDigits(int maxDigits) {
+        return new EvaluationLimits(maxNestingDepth, maxTokens, maxExponent, maxDigits, timeout);
+    }
+
+    /**
+     * @return a copy of these limits with the given maximum time of an evaluation
+     */
+    public EvaluationLimits withTimeout(Duration timeout) {
+        return new EvaluationLimits(maxNestingDepth, maxTokens, maxExponent, maxDigits, timeout);
+    }
+
+    void checkNestingDepth(int depth) {
+        if (depth > maxNestingDepth) {
+            throw new LimitExceededException(LimitExceededException.Limit.NESTING_DEPTH,
+                    "The parentheses are nested deeper than " + maxNestingDepth + " levels.");
+        }
+    }
+
+    void checkTokens(int tokens) {
+        if (tokens > maxTokens) {
+            throw new LimitExceededException(LimitExceededException.Limit.TOKENS,
+                    "The equation has more than " + maxTokens + " tokens.");
+        }
+    }
+
+    void checkExponent(BigDecimal exponent) {
+        if (exponent.abs().compareTo(BigDecimal.valueOf(maxExponent)) > 0) {
+            throw new LimitExceededException(LimitExceededException.Limit.EXPONENT,
+                    "The exponent " + exponent + " is greater than " + maxExponent + " in magnitude.");
+        }
+    }
+
+    void checkDigits(BigDecimal value) {
+        final int precision = value.precision();
+        final int scale = value.scale();
+        if (precision > maxDigits || scale > maxDigits || (long) precision - scale > maxDigits) {
+            throw new LimitExceededException(LimitExceededException.Limit.DIGITS,
+                    "A value has more than " + maxDigits + " digits.");
+        }
+    }
+
+    /**
+     * @return the time by which an evaluation starting now has to finish, comparable with {@link System#nanoTime()}
+     */
+    long deadline() {
+        return System.nanoTime() + timeout.toNanos();
+    }
+
+    void checkTime(long deadline) {
+        if (System.nanoTime() - deadline > 0) {
+            throw new LimitExceededException(LimitExceededException.Limit.TIME,
+                    "The evaluation took longer than " + timeout.toMillis() + " ms.");
+        }
+    }
+}
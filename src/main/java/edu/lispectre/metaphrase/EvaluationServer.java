@@ -0,0 +1,368 @@
+package edu.lispectre.metaphrase;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates equations sent over a local TCP connection, so the library can run as a sidecar process instead of being
+ * embedded in every JVM.
+ * <p>The protocol is line-based UTF-8 text. Each request is one line of fields separated by semicolons: the precision,
+ * the equation and the values of its variables, e.g. {@code 20;x*y+1;x=2;y=3.5}. Each request gets one line in
+ * response, in the order the requests were sent: the result, or {@code ERROR} followed by what went wrong. A line
+ * saying {@code STATS} gets the statistics of the server instead. Clients may send many requests without waiting for
+ * the responses.
+ * <p>Every connection is served by virtual threads: one reading requests and one writing responses. Requests go into
+ * a single bounded queue; while it is full, reading from the connections stops, so clients sending faster than the
+ * server evaluates are slowed down by TCP itself instead of piling up requests in memory. Evaluating workers take
+ * whatever has accumulated in the queue, up to a batch size, and evaluate the requests for the same equation and
+ * precision together: the equation is looked up in the {@link ExpressionCache} and checked once, and its
+ * {@link Bindings} are reused for every request. Equations are parsed and evaluated within
+ * {@link EvaluationLimits#DEFAULT}, so no single request can hold up a worker for long.
+ * <p>The server keeps the JVM running until it's closed.
+ */
+public final class EvaluationServer implements AutoCloseable {
+    /**
+     * The port the server listens on unless told otherwise.
+     */
+    public static final int DEFAULT_PORT = 7077;
+    static final int MAX_PRECISION = 10_000;
+    private static final int MAX_PENDING_RESPONSES = 1024;
+    private static final CompletableFuture<String> END_OF_REQUESTS = CompletableFuture.completedFuture(null);
+
+    private final ServerSocket serverSocket;
+    private final BlockingQueue<Request> queue;
+    private final int maxBatchSize;
+    private final ExpressionCache cache = new ExpressionCache(10_000, EvaluationLimits.DEFAULT);
+    private final ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Thread> workers = new ArrayList<>();
+    private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final long startNanos = System.nanoTime();
+    private volatile boolean closed;
+
+    /**
+     * Starts a server listening on the loopback address.
+     *
+     * @param port          port to listen on, {@code 0} for any free one
+     * @param queueCapacity the most requests waiting to be evaluated at once
+     * @param maxBatchSize  the most requests a worker takes from the queue at once
+     * @param workerCount   the amount of threads evaluating requests
+     * @throws IOException              if the port can't be listened on
+     * @throws IllegalArgumentException if any of the amounts is zero or lower
+     */
+    public EvaluationServer(int port, int queueCapacity, int maxBatchSize, int workerCount) throws IOException {
+        if (queueCapacity <= 0 || maxBatchSize <= 0 || workerCount <= 0) {
+            throw new IllegalArgumentException("The queue, the batches and the workers can't be empty.");
+        }
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = maxBatchSize;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        for (int i = 0; i < workerCount; i++) {
+            final Thread worker = Thread.ofPlatform().daemon().name("metaphrase-worker-" + i).start(this::work);
+            workers.add(worker);
+        }
+        Thread.ofPlatform().name("metaphrase-acceptor").start(this::accept);
+    }
+
+    /**
+     * Starts a server listening on the loopback address, with a queue of 10000 requests, batches of up to 256 requests
+     * and a worker for every processor.
+     *
+     * @param port port to listen on, {@code 0} for any free one
+     * @throws IOException if the port can't be listened on
+     */
+    public EvaluationServer(int port) throws IOException {
+        this(port, 10_000, 256, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the amount of requests evaluated so far, including the failed ones
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * @return the amount of requests which got an error in response
+     */
+    public long getFailedRequests() {
+        return failedRequests.sum();
+    }
+
+    /**
+     * @return the amount of batches the workers have taken from the queue
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the amount of requests waiting to be evaluated
+     */
+    public int getQueuedRequests() {
+        return queue.size();
+    }
+
+    /**
+     * @return latencies of the requests, from being read to being evaluated
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return the average amount of requests evaluated per second since the server started
+     */
+    public double getThroughput() {
+        return getRequests() / ((System.nanoTime() - startNanos) / 1e9);
+    }
+
+    /**
+     * @return a line with the statistics of the server, as sent in response to {@code STATS}
+     */
+    public String getStats() {
+        return String.format(Locale.ROOT,
+                "requests=%d failed=%d batches=%d queued=%d throughput=%.1f/s p50=%dns p99=%dns max=%dns",
+                getRequests(), getFailedRequests(), getBatches(), getQueuedRequests(), getThroughput(),
+                latency.getPercentileNanos(50), latency.getPercentileNanos(99), latency.getMaxNanos());
+    }
+
+    /**
+     * Stops listening, closes all connections and stops the workers. Requests still in the queue get an error.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        connections.shutdownNow();
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        for (Request request = queue.poll(); request != null; request = queue.poll()) {
+            request.response.complete("ERROR The server is closing.");
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                try {
+                    connections.execute(() -> serve(socket));
+                } catch (RejectedExecutionException ex) {
+                    socket.close();
+                }
+            } catch (IOException ex) {
+                // Closed, or a connection failed before being accepted.
+            }
+        }
+    }
+
+    /**
+     * Reads the requests of one connection, while another virtual thread writes the responses in the same order.
+     */
+    private void serve(Socket socket) {
+        final BlockingQueue<CompletableFuture<String>> responses = new ArrayBlockingQueue<>(MAX_PENDING_RESPONSES);
+        try (socket) {
+            final Writer output = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(),
+                    StandardCharsets.UTF_8));
+            final Thread writer = Thread.ofVirtual().start(() -> respond(responses, output));
+            final BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            try {
+                for (String line = input.readLine(); line != null && !closed; line = input.readLine()) {
+                    if (!line.isBlank()) {
+                        responses.put(submit(line.strip()));
+                    }
+                }
+            } finally {
+                responses.put(END_OF_REQUESTS);
+                writer.join();
+            }
+        } catch (IOException | InterruptedException ex) {
+            // The connection is gone; there is no one to report it to.
+        } finally {
+            sockets.remove(socket);
+        }
+    }
+
+    private void respond(BlockingQueue<CompletableFuture<String>> responses, Writer output) {
+        try {
+            for (CompletableFuture<String> response = responses.take(); response != END_OF_REQUESTS;
+                 response = responses.take()) {
+                output.write(response.join());
+                output.write('\n');
+                if (responses.isEmpty()) {
+                    output.flush();
+                }
+            }
+            output.flush();
+        } catch (IOException | InterruptedException ex) {
+            // The connection is gone; the reader finds out on its own.
+        }
+    }
+
+    /**
+     * Parses a request and puts it into the queue, waiting while the queue is full.
+     *
+     * @return the future response to the request
+     */
+    private CompletableFuture<String> submit(String line) throws InterruptedException {
+        if (line.equalsIgnoreCase("STATS")) {
+            return CompletableFuture.completedFuture(getStats());
+        }
+        final Request request;
+        try {
+            request = Request.parse(line, System.nanoTime());
+        } catch (IllegalArgumentException ex) {
+            requests.increment();
+            failedRequests.increment();
+            return CompletableFuture.completedFuture("ERROR " + ex.getMessage());
+        }
+        queue.put(request);
+        return request.response;
+    }
+
+    private void work() {
+        final ArrayList<Request> batch = new ArrayList<>(maxBatchSize);
+        final HashMap<Key, ArrayList<Request>> byEquation = new HashMap<>();
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException ex) {
+                return;
+            }
+            queue.drainTo(batch, maxBatchSize - 1);
+            batches.increment();
+            for (Request request : batch) {
+                byEquation.computeIfAbsent(request.key, key -> new ArrayList<>()).add(request);
+            }
+            try {
+                for (ArrayList<Request> sameEquation : byEquation.values()) {
+                    evaluate(sameEquation);
+                }
+            } finally {
+                for (Request request : batch) {                     // Unless the worker dies, all are complete.
+                    request.response.complete("ERROR The request couldn't be evaluated.");
+                }
+                batch.clear();
+                byEquation.clear();
+            }
+        }
+    }
+
+    /**
+     * Evaluates requests for the same equation and precision.
+     */
+    private void evaluate(List<Request> sameEquation) {
+        final Key key = sameEquation.get(0).key;
+        Expression expression = null;
+        Bindings bindings = null;
+        String failure = null;
+        try {
+            expression = cache.get(key.equation, new MathContext(key.precision));
+            bindings = expression.newBindings();
+        } catch (RuntimeException ex) {
+            failure = "ERROR " + ex.getMessage();
+        }
+        for (Request request : sameEquation) {
+            String response = failure;
+            if (response == null) {
+                try {
+                    bindings.clear();
+                    for (int i = 0; i < request.identifiers.length; i++) {
+                        bindings.set(request.identifiers[i], request.values[i]);
+                    }
+                    response = expression.eval(bindings).toString();
+                } catch (RuntimeException ex) {
+                    response = "ERROR " + ex.getMessage();
+                }
+            }
+            requests.increment();
+            if (response.startsWith("ERROR")) {
+                failedRequests.increment();
+            }
+            latency.record(System.nanoTime() - request.startNanos);
+            request.response.complete(response);
+        }
+    }
+
+    private record Key(String equation, int precision) {
+    }
+
+    /**
+     * A parsed line of a request, waiting for its response.
+     */
+    private record Request(Key key, String[] identifiers, BigDecimal[] values, long startNanos,
+                           CompletableFuture<String> response) {
+        static Request parse(String line, long startNanos) {
+            final String[] fields = line.split(";");
+            if (fields.length < 2) {
+                throw new IllegalArgumentException("Expected precision;equation[;variable=value...].");
+            }
+            final int precision;
+            try {
+                precision = Integer.parseInt(fields[0].strip());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid precision: " + fields[0].strip() + ".");
+            }
+            if (precision <= 0 || precision > MAX_PRECISION) {
+                throw new IllegalArgumentException("The precision has to be between 1 and " + MAX_PRECISION + ".");
+            }
+            final String[] identifiers = new String[fields.length - 2];
+            final BigDecimal[] values = new BigDecimal[identifiers.length];
+            for (int i = 0; i < identifiers.length; i++) {
+                final String binding = fields[i + 2];
+                final int equals = binding.indexOf('=');
+                if (equals < 0) {
+                    throw new IllegalArgumentException("Expected variable=value, got " + binding.strip() + ".");
+                }
+                identifiers[i] = binding.substring(0, equals).strip();
+                try {
+                    values[i] = new BigDecimal(binding.substring(equals + 1).strip());
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Invalid value of " + identifiers[i] + ".");
+                }
+            }
+            return new Request(new Key(fields[1].strip(), precision), identifiers, values, startNanos,
+                    new CompletableFuture<>());
+        }
+    }
+}
@@ -0,0 +1,495 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.InputMismatchException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An equation which has already been tokenized and parsed, ready to be evaluated any number of times.
+ * <p>Expressions don't keep a {@link Tokenizer} around and their tree of tokens is never modified after parsing; the
+ * values of variables are passed to every evaluation in {@link Bindings} instead. Thus, one Expression can be shared
+ * between threads (e.g. through an {@link ExpressionCache}) and evaluated by all of them at once, without locking.
+ */
+public final class Expression {
+    /**
+     * The amount of significant decimal digits a {@code double} is always able to hold.
+     */
+    public static final int DOUBLE_PRECISION = 15;
+    /**
+     * Trees deeper than this are evaluated by a loop over postfix instructions instead of recursion.
+     */
+    static final int MAX_RECURSIVE_DEPTH = 512;
+
+    private final String equation;
+    private final MathContext mathContext;
+    private final Token root;
+    private final String[] variables;
+    private final Map<String, Integer> slots;
+    private final int sharedTokens;
+    private final int removedTokens;
+    private final EvaluationLimits limits;
+    private volatile PostfixExpression postfix;
+    private int depth = -1;
+
+    private Expression(String equation, MathContext mathContext, Token root, HashMap<String, Token> variableTokens,
+                       int tokens, EvaluationLimits limits) {
+        this.equation = equation;
+        this.depth = tokens <= MAX_RECURSIVE_DEPTH ? tokens : -1;       // A tree is never deeper than its tokens.
+        this.mathContext = mathContext;
+        this.root = root;
+        this.limits = limits;
+        this.sharedTokens = 0;
+        this.removedTokens = 0;
+        this.variables = new String[variableTokens.size()];
+        final HashMap<String, Integer> slots = new HashMap<>();
+        for (Token token : variableTokens.values()) {
+            final VariableToken variable = (VariableToken) token;
+            variables[variable.slot] = variable.variableIdentifier;
+            slots.put(variable.variableIdentifier, variable.slot);
+        }
+        this.slots = slots;
+    }
+
+    private Expression(String equation, MathContext mathContext, Token root, String[] variables, int sharedTokens,
+                       int removedTokens) {
+        this.equation = equation;
+        this.mathContext = mathContext;
+        this.root = root;
+        this.limits = null;
+        this.variables = variables;
+        this.sharedTokens = sharedTokens;
+        this.removedTokens = removedTokens;
+        final HashMap<String, Integer> slots = new HashMap<>();
+        for (int slot = 0; slot < variables.length; slot++) {
+            slots.put(variables[slot], slot);
+        }
+        this.slots = slots;
+    }
+
+    private Expression(Expression original, Optimizer.Result optimized) {
+        this.equation = original.equation;
+        this.mathContext = original.mathContext;
+        this.root = optimized.root();
+        this.limits = original.limits;
+        this.depth = original.depth;                                     // Optimizing never adds levels.
+        this.variables = original.variables;
+        this.slots = original.slots;
+        this.sharedTokens = optimized.sharedTokens();
+        this.removedTokens = original.removedTokens + optimized.removedTokens();
+    }
+
+    private Expression(Expression original, Token root) {
+        this.equation = original.equation;
+        this.mathContext = original.mathContext;
+        this.root = root;
+        this.limits = original.limits;
+        this.depth = original.depth;
+        this.variables = original.variables;
+        this.slots = original.slots;
+        this.sharedTokens = original.sharedTokens;
+        this.removedTokens = original.removedTokens;
+    }
+
+    /**
+     * Tokenizes and parses the equation.
+     *
+     * @param equation    equation to parse
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @return a parsed {@code Expression}
+     * @throws RuntimeException if the equation is malformed
+     */
+    public static Expression parse(String equation, MathContext mathContext) {
+        return parse(equation, mathContext, null);
+    }
+
+    /**
+     * Tokenizes and parses the equation, limiting its size right away and its evaluations whenever it's evaluated.
+     * The limits are kept by the Expression and by its optimized copies. The evaluations with {@code BigDecimal}s
+     * check them: {@link #eval(Bindings)} and the methods built on it, {@link PostfixExpression#eval(Bindings)},
+     * {@link GradientEvaluator} and {@link ProgressiveEvaluator}. The evaluations with {@code double}s are limited by
+     * the size of the equation alone, since every operation on {@code double}s takes the same time and memory.
+     * Compiling an Expression with limits is refused, as the compiled code doesn't check them.
+     *
+     * @param equation    equation to parse
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @param limits      limits on the size and the evaluations of the equation, or {@code null} for none
+     * @return a parsed {@code Expression}
+     * @throws LimitExceededException if the parentheses are nested too deep or the equation has too many tokens
+     * @throws RuntimeException       if the equation is malformed
+     */
+    public static Expression parse(String equation, MathContext mathContext, EvaluationLimits limits) {
+        final Tokenizer tokenizer = new Tokenizer();
+        tokenizer.setLimits(limits);
+        tokenizer.tokenizeEquation(equation, mathContext);
+        final Token root = Parser.parseTokens(tokenizer.getTokens(), mathContext);
+        return new Expression(equation, mathContext, root, tokenizer.getVariables(), tokenizer.getTokenCount(),
+                limits);
+    }
+
+    /**
+     * Tokenizes and parses the equation.
+     *
+     * @param equation          equation to parse
+     * @param DESIRED_PRECISION the amount of decimal places
+     * @return a parsed {@code Expression}
+     * @throws RuntimeException if the equation is malformed
+     */
+    public static Expression parse(String equation, final int DESIRED_PRECISION) {
+        return parse(equation, new MathContext(DESIRED_PRECISION));
+    }
+
+    /**
+     * Recreates an Expression from its parts, as read by an {@link ExpressionArchive}.
+     *
+     * @param variables identifiers of the variables, ordered by their slots
+     */
+    static Expression restore(String equation, MathContext mathContext, Token root, String[] variables,
+                              int sharedTokens, int removedTokens) {
+        return new Expression(equation, mathContext, root, variables, sharedTokens, removedTokens);
+    }
+
+    /**
+     * Creates a copy of the Expression with an equivalent tree, e.g. one with tokens shared by an
+     * {@link ExpressionInterner}. The copy accepts the same {@link Bindings} as the original.
+     */
+    Expression withRoot(Token root) {
+        return new Expression(this, root);
+    }
+
+    /**
+     * @return empty {@link Bindings} for the variables of this Expression
+     */
+    public Bindings newBindings() {
+        return new Bindings(slots);
+    }
+
+    /**
+     * Evaluates the Expression with the given values of its variables.
+     *
+     * @param bindings values of the variables, created with {@link #newBindings()} of this Expression
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the bindings belong to another Expression or a variable has no value
+     * @throws LimitExceededException   if the Expression was parsed with limits and the evaluation exceeds them; the
+     *                                  evaluation then walks the postfix instructions, which check the limits after
+     *                                  every operator
+     */
+    public BigDecimal eval(Bindings bindings) {
+        checkBindings(bindings);
+        final Metrics.EvalEvent event = new Metrics.EvalEvent();
+        event.begin();
+        final long start = Metrics.start();
+        try {
+            if (limits != null || isDeep()) {
+                return toPostfix().evaluate(bindings, limits);
+            }
+            if (sharedTokens > 0) {
+                bindings.resetShared(sharedTokens);
+            }
+            return root.eval(bindings);
+        } finally {
+            Metrics.evaluated(event, start, equation);
+        }
+    }
+
+    /**
+     * Evaluates the Expression with primitive {@code double}s, following IEEE 754 for divisions by zero and overflows.
+     * The evaluation doesn't allocate unless the Expression is too deep to be evaluated recursively, but is only as
+     * accurate as {@code double} arithmetic allows.
+     *
+     * @param values values of the variables, indexed by their slots
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the amount of values doesn't match the amount of variables
+     */
+    public double evalDouble(double[] values) {
+        return evalDouble(values, DoublePolicy.IEEE_754);
+    }
+
+    /**
+     * Evaluates the Expression with primitive {@code double}s. The evaluation doesn't allocate unless the Expression
+     * is too deep to be evaluated recursively, but is only as accurate as {@code double} arithmetic allows.
+     * The limits on exponents, digits and time the Expression may have been parsed with don't apply to it.
+     *
+     * @param values values of the variables, indexed by their slots
+     * @param policy what to do when an operation doesn't produce a finite number
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the amount of values doesn't match the amount of variables
+     * @throws ArithmeticException      if the policy is {@link DoublePolicy#STRICT} and an operation doesn't produce a
+     *                                  finite number
+     */
+    public double evalDouble(double[] values, DoublePolicy policy) {
+        if (values.length != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " values, got " + values.length + ".");
+        }
+        return evaluateDouble(values, policy);
+    }
+
+    /**
+     * Evaluates the tree with {@code double}s, or its postfix instructions if the tree is too deep to recurse.
+     */
+    private double evaluateDouble(double[] values, DoublePolicy policy) {
+        return isDeep() ? toPostfix().evaluateDouble(values, policy) : root.evalDouble(values, policy);
+    }
+
+    /**
+     * Evaluates the Expression with primitive {@code double}s if they can hold the precision of its
+     * {@code MathContext}, i.e. no more than {@value #DOUBLE_PRECISION} digits, and with {@code BigDecimal}s otherwise.
+     * When the {@code double} evaluation doesn't produce a finite number, the Expression is evaluated again with
+     * {@code BigDecimal}s, which either computes a result out of the range of {@code double} or throws the usual
+     * {@code ArithmeticException}.
+     * <p>Results of the {@code double} evaluation are rounded to the {@code MathContext}, but may still differ from
+     * {@link #eval(Bindings)} in the last digits.
+     *
+     * @param bindings values of the variables, created with {@link #newBindings()} of this Expression
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the bindings belong to another Expression or a variable has no value
+     */
+    public BigDecimal evalPreferringDouble(Bindings bindings) {
+        final int precision = mathContext.getPrecision();
+        if (precision == 0 || precision > DOUBLE_PRECISION) {
+            return eval(bindings);
+        }
+        checkBindings(bindings);
+        final double[] values = new double[variables.length];
+        for (int slot = 0; slot < variables.length; slot++) {
+            values[slot] = bindings.values[slot].doubleValue();
+        }
+        final double result = evaluateDouble(values, DoublePolicy.IEEE_754);
+        if (!Double.isFinite(result)) {
+            return eval(bindings);
+        }
+        return BigDecimal.valueOf(result).round(mathContext);
+    }
+
+    /**
+     * Evaluates the Expression for many rows of values at once with primitive {@code double}s, following IEEE 754
+     * just like {@link #evalDouble(double[])}. Row {@code i} takes the value of each variable from index {@code i} of
+     * the variable's column.
+     * <p>Operators process whole chunks of rows at a time. When the JVM is started with
+     * {@code --add-modules jdk.incubator.vector}, they do so with SIMD instructions. Expressions too deep to be
+     * evaluated recursively are evaluated row by row through their postfix instructions instead.
+     * The limits on exponents, digits and time don't apply, just like for {@link #evalDouble(double[], DoublePolicy)}.
+     *
+     * @param columns values of the variables, one column per slot, each holding at least as many values as there are
+     *                results
+     * @param results array receiving the value of each row
+     * @throws IllegalArgumentException if the amount of columns doesn't match the amount of variables or a column is
+     *                                  too short
+     */
+    public void evalBatch(double[][] columns, double[] results) {
+        checkColumns(columns.length);
+        for (int slot = 0; slot < columns.length; slot++) {
+            checkColumn(slot, columns[slot].length, results.length);
+        }
+        if (!isDeep()) {
+            ColumnEvaluator.evaluate(root, columns, results);
+            return;
+        }
+        final PostfixExpression flattened = toPostfix();
+        final double[] values = new double[columns.length];
+        for (int row = 0; row < results.length; row++) {
+            for (int slot = 0; slot < columns.length; slot++) {
+                values[slot] = columns[slot][row];
+            }
+            results[row] = flattened.evaluateDouble(values, DoublePolicy.IEEE_754);
+        }
+    }
+
+    /**
+     * Evaluates the Expression for many rows of values at once with {@code BigDecimal}s, giving the same results as
+     * {@link #eval(Bindings)} for each row. Row {@code i} takes the value of each variable from index {@code i} of
+     * the variable's column.
+     *
+     * @param columns values of the variables, one column per slot, each holding at least as many values as there are
+     *                results
+     * @param results array receiving the value of each row
+     * @throws IllegalArgumentException if the amount of columns doesn't match the amount of variables, a column is too
+     *                                  short or a value is missing
+     */
+    public void evalBatch(BigDecimal[][] columns, BigDecimal[] results) {
+        checkColumns(columns.length);
+        for (int slot = 0; slot < columns.length; slot++) {
+            checkColumn(slot, columns[slot].length, results.length);
+        }
+        final Bindings bindings = newBindings();
+        for (int row = 0; row < results.length; row++) {
+            for (int slot = 0; slot < columns.length; slot++) {
+                bindings.values[slot] = columns[slot][row];
+            }
+            results[row] = eval(bindings);
+        }
+    }
+
+    private void checkColumns(int columns) {
+        if (columns != variables.length) {
+            throw new IllegalArgumentException("Expected " + variables.length + " columns, got " + columns + ".");
+        }
+    }
+
+    private void checkColumn(int slot, int length, int rows) {
+        if (length < rows) {
+            throw new IllegalArgumentException("The column of variable " + variables[slot] + " has " + length
+                    + " values, expected " + rows + ".");
+        }
+    }
+
+    /**
+     * Creates an optimized copy of the Expression, evaluating to the very same results. Operations on values only are
+     * calculated in advance, unary minuses become negations and identical subtrees are merged, so that each is
+     * evaluated once. The copy accepts the same {@link Bindings} as the original.
+     *
+     * @return the optimized {@code Expression}
+     * @see #getRemovedTokens()
+     */
+    public Expression optimize() {
+        return new Expression(this, Optimizer.optimize(root));
+    }
+
+    /**
+     * @return the amount of tokens the optimizer removed from the Expression, zero if it wasn't optimized
+     */
+    public int getRemovedTokens() {
+        return removedTokens;
+    }
+
+    /**
+     * Compiles the Expression into bytecode of a class of its own. Compiling takes far longer than a single
+     * evaluation, so it pays off only for Expressions which are evaluated many times.
+     *
+     * @return a {@link CompiledExpression} giving the same results as {@link #eval(Bindings)}
+     * @throws IllegalStateException if the Expression was parsed with limits, which the compiled code wouldn't check
+     */
+    public CompiledExpression compile() {
+        if (limits != null) {
+            throw new IllegalStateException("Expressions with evaluation limits can't be compiled.");
+        }
+        return ExpressionCompiler.compile(this);
+    }
+
+    /**
+     * Flattens the Expression into an array of postfix instructions, evaluated by a loop over a stack instead of
+     * recursing through the tree of tokens. The instructions are made once and returned by every following call.
+     *
+     * @return a {@link PostfixExpression} giving the same results as {@link #eval(Bindings)}
+     */
+    public PostfixExpression toPostfix() {
+        PostfixExpression flattened = postfix;
+        if (flattened == null) {
+            flattened = PostfixExpression.of(this);
+            postfix = flattened;
+        }
+        return flattened;
+    }
+
+    /**
+     * Tells whether the tree is too deep to be evaluated recursively. The depth is measured on the first evaluation;
+     * threads racing to measure it all come to the same result.
+     */
+    private boolean isDeep() {
+        int measured = depth;
+        if (measured < 0) {
+            measured = Optimizer.depthOf(root);
+            depth = measured;
+        }
+        return measured > MAX_RECURSIVE_DEPTH;
+    }
+
+    /**
+     * Evaluates an Expression without variables.
+     *
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the Expression has variables
+     */
+    public BigDecimal eval() {
+        return eval(newBindings());
+    }
+
+    /**
+     * Evaluates the Expression with the given values of its variables. Every variable of the Expression has to be
+     * given a value.
+     *
+     * @param identifiers identifiers of the variables
+     * @param values      values which the corresponding variables should be assigned
+     * @return the value of the Expression
+     * @throws InputMismatchException   if the length of params doesn't match
+     * @throws IllegalArgumentException if a variable is unknown or has no value
+     */
+    public BigDecimal eval(String[] identifiers, BigDecimal[] values) {
+        if (identifiers.length != values.length) {
+            throw new InputMismatchException("The amount of variable identifiers and values does not match.");
+        }
+        final Bindings bindings = newBindings();
+        for (int i = 0; i < identifiers.length; i++) {
+            bindings.set(identifiers[i], values[i]);
+        }
+        return eval(bindings);
+    }
+
+    /**
+     * Makes sure the bindings were created by this Expression and every variable has a value.
+     */
+    void checkBindings(Bindings bindings) {
+        if (!bindings.belongsTo(slots)) {
+            throw new IllegalArgumentException("The bindings were created for a different expression.");
+        }
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (bindings.values[slot] == null) {
+                throw new IllegalArgumentException("No value given for variable " + variables[slot] + ".");
+            }
+        }
+    }
+
+    /**
+     * @param identifier the string of text by which the variable is declared in the equation
+     * @return the slot of the variable, or {@code -1} if there is no such variable in the Expression
+     */
+    public int slotOf(String identifier) {
+        final Integer slot = slots.get(identifier);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return the identifiers of the variables in the Expression, ordered by their slots
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    Token getRoot() {
+        return root;
+    }
+
+    int getSharedTokens() {
+        return sharedTokens;
+    }
+
+    /**
+     * @return the limits the Expression was parsed with, or {@code null} if it has none
+     */
+    public EvaluationLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * @return the {@code MathContext} the Expression is evaluated with
+     */
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * @return the equation this Expression was parsed from
+     */
+    public String getEquation() {
+        return equation;
+    }
+
+    @Override
+    public String toString() {
+        return equation;
+    }
+}
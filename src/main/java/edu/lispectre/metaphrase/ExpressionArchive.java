@@ -0,0 +1,340 @@
+package edu.lispectre.metaphrase;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * Writes parsed {@link Expression}s into a compact binary format and reads them back, without tokenizing and parsing
+ * their equations again.
+ * <p>A file starts with a magic number and the version of the format, followed by a table of all the literals of all
+ * the Expressions, each stored once as its unscaled value and scale. Then come the Expressions: the equation, the
+ * precision and rounding mode of the {@code MathContext}, the identifiers of the variables in the order of their
+ * slots, and the tokens in postfix order, each a single tag byte followed by an index into the literal table, a
+ * variable slot, the ordinal of the {@link MathFunction} for calls of functions or nothing at all for other operators.
+ * Optimized Expressions keep their shared tokens: each shared token is written once and referenced by its index
+ * afterwards.
+ * <p>Reading memory-maps the whole file and rebuilds the trees straight from the mapped bytes. The rebuilt Expressions
+ * are indistinguishable from the ones which were written: they evaluate to the same results, with the same
+ * specialized tokens (see {@link Specializations}).
+ * <p>Numbers in the format are unsigned LEB128 varints, with signed ones zigzag-encoded first; strings are UTF-8 bytes
+ * preceded by their length.
+ */
+public final class ExpressionArchive {
+    static final int MAGIC = 0x4D455850;
+    static final int VERSION = 1;
+
+    private static final int TAG_VALUE = 0;
+    private static final int TAG_VARIABLE = 1;
+    private static final int TAG_REFERENCE = 2;
+    private static final int TAG_END = 3;
+    private static final int TAG_OPERATOR = 0x10;
+    private static final int TAG_SHARED_OPERATOR = 0x20;
+    private static final int LITERAL_LONG = 0;
+    private static final int LITERAL_BIG = 1;
+    private static final Operator[] OPERATORS = Operator.values();
+    private static final MathFunction[] FUNCTIONS = MathFunction.values();
+    private static final RoundingMode[] ROUNDING_MODES = RoundingMode.values();
+
+    private ExpressionArchive() {
+    }
+
+    /**
+     * Writes the Expressions into a file.
+     *
+     * @param expressions Expressions to write
+     * @param file        file to write into; created or overwritten
+     * @throws IOException if the file can't be written
+     */
+    public static void write(List<Expression> expressions, Path file) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            write(expressions, stream);
+        }
+    }
+
+    /**
+     * Writes the Expressions into a stream. The stream is flushed, but not closed.
+     *
+     * @param expressions Expressions to write
+     * @param output      stream to write into
+     * @throws IOException if the stream can't be written
+     */
+    public static void write(List<Expression> expressions, OutputStream output) throws IOException {
+        final Encoder body = new Encoder();
+        final HashMap<BigDecimal, Integer> literals = new HashMap<>();
+        final ArrayList<BigDecimal> literalTable = new ArrayList<>();
+        body.writeVarint(expressions.size());
+        for (Expression expression : expressions) {
+            body.writeString(expression.getEquation());
+            body.writeVarint(expression.getMathContext().getPrecision());
+            body.write(expression.getMathContext().getRoundingMode().ordinal());
+            body.writeVarint(expression.getVariables().size());
+            for (String variable : expression.getVariables()) {
+                body.writeString(variable);
+            }
+            body.writeVarint(expression.getSharedTokens());
+            body.writeVarint(expression.getRemovedTokens());
+            final TokenWriter writer = new TokenWriter(body, literal -> literals.computeIfAbsent(literal, key -> {
+                literalTable.add(key);
+                return literalTable.size() - 1;
+            }));
+            writer.walk(expression.getRoot(), new Integer[expression.getSharedTokens()]);
+            body.write(TAG_END);
+        }
+        final Encoder header = new Encoder();
+        header.writeInt(MAGIC);
+        header.writeVarint(VERSION);
+        header.writeVarint(literalTable.size());
+        for (BigDecimal literal : literalTable) {
+            header.writeVarint(zigzag(literal.scale()));
+            final BigInteger unscaled = literal.unscaledValue();
+            if (unscaled.bitLength() < Long.SIZE) {
+                header.write(LITERAL_LONG);
+                header.writeVarint(zigzag(unscaled.longValue()));
+            } else {
+                final byte[] bytes = unscaled.toByteArray();
+                header.write(LITERAL_BIG);
+                header.writeVarint(bytes.length);
+                header.write(bytes, 0, bytes.length);
+            }
+        }
+        final BufferedOutputStream buffered = new BufferedOutputStream(output);
+        header.writeTo(buffered);
+        body.writeTo(buffered);
+        buffered.flush();
+    }
+
+    /**
+     * Reads all the Expressions from a file, memory-mapping it.
+     *
+     * @param file file written by {@link #write(List, Path)}
+     * @return the Expressions, in the order they were written
+     * @throws IOException              if the file can't be read or is larger than 2 GiB
+     * @throws IllegalArgumentException if the file isn't in the format or is of another version
+     */
+    public static List<Expression> read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("The file is larger than " + Integer.MAX_VALUE + " bytes.");
+            }
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Reads all the Expressions from a buffer, starting at its position.
+     *
+     * @param buffer bytes written by {@link #write(List, OutputStream)}
+     * @return the Expressions, in the order they were written
+     * @throws IllegalArgumentException if the bytes aren't in the format or are of another version
+     */
+    public static List<Expression> read(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not an archive of expressions.");
+            }
+            final int version = readVarint(buffer);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported version of the archive: " + version + ".");
+            }
+            final BigDecimal[] literals = new BigDecimal[readVarint(buffer)];
+            for (int i = 0; i < literals.length; i++) {
+                final int scale = Math.toIntExact(unzigzag(readVarlong(buffer)));
+                if (buffer.get() == LITERAL_LONG) {
+                    literals[i] = BigDecimal.valueOf(unzigzag(readVarlong(buffer)), scale);
+                } else {
+                    final byte[] bytes = new byte[readVarint(buffer)];
+                    buffer.get(bytes);
+                    literals[i] = new BigDecimal(new BigInteger(bytes), scale);
+                }
+            }
+            final int count = readVarint(buffer);
+            final ArrayList<Expression> expressions = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                expressions.add(readExpression(buffer, literals));
+            }
+            return expressions;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | NoSuchElementException
+                 | ArithmeticException ex) {
+            throw new IllegalArgumentException("The archive of expressions is corrupted.", ex);
+        }
+    }
+
+    private static Expression readExpression(ByteBuffer buffer, BigDecimal[] literals) {
+        final String equation = readString(buffer);
+        final int precision = readVarint(buffer);
+        final MathContext mc = new MathContext(precision, ROUNDING_MODES[buffer.get()]);
+        final String[] variables = new String[readVarint(buffer)];
+        final VariableToken[] variableTokens = new VariableToken[variables.length];
+        for (int slot = 0; slot < variables.length; slot++) {
+            variables[slot] = readString(buffer);
+            variableTokens[slot] = new VariableToken(variables[slot], slot, mc);
+        }
+        final int sharedTokens = readVarint(buffer);
+        final int removedTokens = readVarint(buffer);
+        final ArrayList<Token> operators = new ArrayList<>();
+        final ArrayDeque<Token> stack = new ArrayDeque<>();
+        for (int tag = buffer.get(); tag != TAG_END; tag = buffer.get()) {
+            switch (tag) {
+                case TAG_VALUE -> stack.push(new ValueToken(literals[readVarint(buffer)], mc));
+                case TAG_VARIABLE -> stack.push(variableTokens[readVarint(buffer)]);
+                case TAG_REFERENCE -> stack.push(operators.get(readVarint(buffer)));
+                default -> {
+                    if ((tag & (TAG_OPERATOR | TAG_SHARED_OPERATOR)) == 0) {
+                        throw new IllegalArgumentException("The archive of expressions is corrupted.");
+                    }
+                    final Operator operator = OPERATORS[tag & 0x0F];
+                    final Token right = stack.pop();
+                    final boolean unary = operator == Operator.UNARYMINUS || operator == Operator.FUNCTION;
+                    final Token left = unary ? null : stack.pop();
+                    final MathFunction function = operator == Operator.FUNCTION
+                            ? FUNCTIONS[readVarint(buffer)] : null;
+                    final OperatorToken token = Specializations.create(operator, function, left, right, mc);
+                    if ((tag & TAG_SHARED_OPERATOR) != 0) {
+                        token.sharedSlot = readVarint(buffer);
+                    }
+                    operators.add(token);
+                    stack.push(token);
+                }
+            }
+        }
+        if (stack.size() != 1) {
+            throw new IllegalArgumentException("The archive of expressions is corrupted.");
+        }
+        return Expression.restore(equation, mc, stack.pop(), variables, sharedTokens, removedTokens);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = readVarint(buffer);
+        final String string;
+        if (buffer.hasArray()) {
+            string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+                    StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            string = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return string;
+    }
+
+    private static int readVarint(ByteBuffer buffer) {
+        return Math.toIntExact(readVarlong(buffer));
+    }
+
+    private static long readVarlong(ByteBuffer buffer) {
+        final byte first = buffer.get();
+        if (first >= 0) {
+            return first;
+        }
+        long value = first & 0x7F;
+        for (int shift = 7; shift < Long.SIZE; shift += 7) {
+            final byte part = buffer.get();
+            value |= (long) (part & 0x7F) << shift;
+            if (part >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("The archive of expressions is corrupted.");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Writes the tokens in postfix order while walking the tree. The result of an operator is its index among the
+     * operators written so far, by which later occurrences of a shared token reference it.
+     */
+    private static final class TokenWriter extends PostfixWalker<Integer> {
+        private final Encoder output;
+        private final ToIntFunction<BigDecimal> literals;
+        private int operators;
+
+        private TokenWriter(Encoder output, ToIntFunction<BigDecimal> literals) {
+            this.output = output;
+            this.literals = literals;
+        }
+
+        @Override
+        Integer leaf(Token token) {
+            if (token.getType() == Token.TokenType.VALUE) {
+                output.write(TAG_VALUE);
+                output.writeVarint(literals.applyAsInt(token.val));
+            } else {
+                output.write(TAG_VARIABLE);
+                output.writeVarint(((VariableToken) token).slot);
+            }
+            return -1;
+        }
+
+        @Override
+        Integer operator(OperatorToken token, Integer left, Integer right) {
+            final MathFunction function = token.function();
+            output.write((token.sharedSlot < 0 ? TAG_OPERATOR : TAG_SHARED_OPERATOR) | token.operator.ordinal());
+            if (function != null) {
+                output.writeVarint(function.ordinal());
+            }
+            if (token.sharedSlot >= 0) {
+                output.writeVarint(token.sharedSlot);
+            }
+            return operators++;
+        }
+
+        @Override
+        Integer reuse(OperatorToken token, Integer stored) {
+            output.write(TAG_REFERENCE);
+            output.writeVarint(stored);
+            return stored;
+        }
+    }
+
+    /**
+     * A growing array of bytes with the primitives of the format.
+     */
+    private static final class Encoder extends ByteArrayOutputStream {
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) (value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String string) {
+            final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
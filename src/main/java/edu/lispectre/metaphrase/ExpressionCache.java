@@ -0,0 +1,127 @@
+package edu.lispectre.metaphrase;
+
+import java.math.MathContext;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, thread-safe cache of parsed {@link Expression}s, keyed by the equation and the {@code MathContext}.
+ * <p>When the cache is full, the least recently used Expression is evicted. On a hit the equation is neither tokenized
+ * nor parsed. Equations are parsed outside the lock, so a slow miss doesn't hold up hits of other threads; if two
+ * threads miss on the same equation at once, both parse it and the first one to finish is kept.
+ */
+public class ExpressionCache {
+    private final int maximumSize;
+    private final EvaluationLimits limits;
+    private final LinkedHashMap<Key, Expression> expressions;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maximumSize the maximum amount of Expressions the cache holds at once
+     * @throws IllegalArgumentException if the maximumSize param is set to zero or lower
+     */
+    public ExpressionCache(final int maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * @param maximumSize the maximum amount of Expressions the cache holds at once
+     * @param limits      limits every equation is parsed with (see {@link Expression#parse(String, MathContext,
+     *                    EvaluationLimits)}), or {@code null} for none
+     * @throws IllegalArgumentException if the maximumSize param is set to zero or lower
+     */
+    public ExpressionCache(final int maximumSize, final EvaluationLimits limits) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("The cache has to be able to hold at least one expression.");
+        }
+        this.maximumSize = maximumSize;
+        this.limits = limits;
+        this.expressions = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Expression> eldest) {
+                if (size() > ExpressionCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the parsed equation, parsing and caching it first if it is not in the cache.
+     *
+     * @param equation    equation to parse
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @return a parsed {@code Expression}
+     * @throws RuntimeException if the equation is malformed; malformed equations are not cached
+     */
+    public Expression get(final String equation, final MathContext mathContext) {
+        final Key key = new Key(equation, mathContext);
+        synchronized (this) {
+            final Expression cached = expressions.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        final Expression parsed = Expression.parse(equation, mathContext, limits);
+        synchronized (this) {
+            final Expression cached = expressions.putIfAbsent(key, parsed);
+            return cached != null ? cached : parsed;
+        }
+    }
+
+    /**
+     * Returns the parsed equation, parsing and caching it first if it is not in the cache.
+     *
+     * @param equation          equation to parse
+     * @param DESIRED_PRECISION the amount of decimal places
+     * @return a parsed {@code Expression}
+     * @throws RuntimeException if the equation is malformed; malformed equations are not cached
+     */
+    public Expression get(final String equation, final int DESIRED_PRECISION) {
+        return get(equation, new MathContext(DESIRED_PRECISION));
+    }
+
+    /**
+     * @return the amount of lookups which found the Expression in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the amount of lookups which had to parse the equation
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the amount of Expressions which were removed to make space for new ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the amount of Expressions currently in the cache
+     */
+    public synchronized int size() {
+        return expressions.size();
+    }
+
+    /**
+     * Removes all Expressions from the cache. The counters are left as they are.
+     */
+    public synchronized void clear() {
+        expressions.clear();
+    }
+
+    private record Key(String equation, MathContext mathContext) {
+    }
+}
@@ -0,0 +1,526 @@
+package edu.lispectre.metaphrase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+/**
+ * Compiles the tree of tokens of an {@link Expression} into a hidden class implementing {@link CompiledExpression.Body}.
+ * <p>Every token becomes a few instructions: values and variables are loaded from the arrays passed to the generated
+ * method, operators call the very same {@code BigDecimal} and {@code BigDecimalMath} methods {@link OperatorToken}
+ * does, in the same order, and calls of functions go through {@link MathFunction}. The generated code has no branches,
+ * so it needs no stack map frames.
+ * <p>Tokens shared by several parents (see {@link Optimizer}) get a static method of their own, which stores their
+ * value in the array of shared values. All of them are called, operands first, before the rest of the equation is
+ * evaluated, and every use of a shared token then loads its value from the array. The calls are made by a chain of
+ * methods, each calling a batch of shared tokens and then the next method of the chain, so the method evaluating the
+ * equation makes a single call however many shared tokens there are.
+ * <p>HotSpot doesn't JIT-compile methods longer than 8000 bytes, so subtrees of big equations are moved out into
+ * static methods of their own whenever a method would grow past {@link #METHOD_SIZE_LIMIT}.
+ */
+final class ExpressionCompiler {
+    private static final int METHOD_SIZE_LIMIT = 7000;
+    private static final int SHARED_CALLS_PER_METHOD = 500;
+    private static final int CLASS_FILE_VERSION = 61;
+    private static final String CLASS_NAME = "edu/lispectre/metaphrase/GeneratedExpression";
+    private static final String BODY_NAME = "edu/lispectre/metaphrase/CompiledExpression$Body";
+    private static final String TOKEN_NAME = "edu/lispectre/metaphrase/OperatorToken";
+    private static final String DECIMAL_NAME = "java/math/BigDecimal";
+    private static final String PARAMETERS =
+            "[Ljava/math/BigDecimal;[Ljava/math/BigDecimal;Ljava/math/MathContext;[Ljava/math/BigDecimal;)";
+    private static final String BODY_DESCRIPTOR = "(" + PARAMETERS + "Ljava/math/BigDecimal;";
+    private static final String SUBTREE_DESCRIPTOR = "(Ljava/lang/Object;" + PARAMETERS + "Ljava/math/BigDecimal;";
+    private static final String SHARED_DESCRIPTOR = "(Ljava/lang/Object;" + PARAMETERS + "V";
+    private static final String BINARY_DESCRIPTOR = "(Ljava/math/BigDecimal;Ljava/math/MathContext;)Ljava/math/BigDecimal;";
+    private static final String FUNCTION_NAME = "edu/lispectre/metaphrase/MathFunction";
+    private static final String FUNCTION_DESCRIPTOR =
+            "(Ljava/math/BigDecimal;Ljava/math/MathContext;I)Ljava/math/BigDecimal;";
+    private static final String POW_DESCRIPTOR =
+            "(Ljava/math/BigDecimal;Ljava/math/BigDecimal;Ljava/math/MathContext;)Ljava/math/BigDecimal;";
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int ALOAD = 0x19;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ALOAD_3 = 0x2d;
+    private static final int AALOAD = 0x32;
+    private static final int AASTORE = 0x53;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int SHARED_LOCAL = 4;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final ArrayList<BigDecimal> constants = new ArrayList<>();
+    private final IdentityHashMap<BigDecimal, Integer> constantIndexes = new IdentityHashMap<>();
+    private final IdentityHashMap<Token, Integer> outlinedMethods = new IdentityHashMap<>();
+    private final ArrayList<Token> outlinedTokens = new ArrayList<>();
+    private final ArrayList<OperatorToken> sharedTokens = new ArrayList<>();
+    private final IdentityHashMap<Token, Integer> sizes = new IdentityHashMap<>();
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * Compiles the Expression into a hidden class and instantiates it.
+     *
+     * @param expression Expression to compile
+     * @return a {@code CompiledExpression} giving the same results as the Expression
+     */
+    static CompiledExpression compile(Expression expression) {
+        final ExpressionCompiler compiler = new ExpressionCompiler();
+        final byte[] classFile = compiler.generate(expression.getRoot());
+        try {
+            final MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(classFile, true);
+            final CompiledExpression.Body body = (CompiledExpression.Body) lookup
+                    .findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+            return new CompiledExpression(expression, body, compiler.constants.toArray(new BigDecimal[0]));
+        } catch (Throwable ex) {
+            throw new IllegalStateException("Failed to load the compiled expression.", ex);
+        }
+    }
+
+    private byte[] generate(final Token root) {
+        collectSharedTokens(root);
+        measure(root);
+        for (OperatorToken shared : sharedTokens) {
+            measure(shared);
+        }
+        final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(methods);
+        try {
+            writeConstructor(out);
+            writeEval(out, root);
+            final int preparingMethods = (sharedTokens.size() + SHARED_CALLS_PER_METHOD - 1) / SHARED_CALLS_PER_METHOD;
+            for (int i = 0; i < preparingMethods; i++) {
+                final CodeBuilder code = new CodeBuilder();
+                code.callShared(i * SHARED_CALLS_PER_METHOD,
+                        Math.min(sharedTokens.size(), (i + 1) * SHARED_CALLS_PER_METHOD));
+                if (i + 1 < preparingMethods) {
+                    code.callStatic("prepare" + (i + 1), SHARED_DESCRIPTOR, 0);
+                }
+                code.bytes.write(RETURN);
+                writeMethodInfo(out, ACC_PRIVATE | ACC_STATIC, "prepare" + i, SHARED_DESCRIPTOR, code);
+            }
+            for (OperatorToken shared : sharedTokens) {
+                final CodeBuilder code = new CodeBuilder();
+                code.loadLocal(SHARED_LOCAL);
+                code.pushIndex(shared.sharedSlot);
+                code.emit(shared);
+                code.bytes.write(AASTORE);
+                code.pop(3);
+                code.bytes.write(RETURN);
+                writeMethodInfo(out, ACC_PRIVATE | ACC_STATIC, "shared" + shared.sharedSlot, SHARED_DESCRIPTOR, code);
+            }
+            for (int i = 0; i < outlinedTokens.size(); i++) {
+                final CodeBuilder code = new CodeBuilder();
+                code.emit(outlinedTokens.get(i));
+                code.bytes.write(ARETURN);
+                writeMethodInfo(out, ACC_PRIVATE | ACC_STATIC, "subtree" + i, SUBTREE_DESCRIPTOR, code);
+            }
+
+            final ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+            final DataOutputStream header = new DataOutputStream(classFile);
+            final int thisClass = pool.classRef(CLASS_NAME);
+            final int superClass = pool.classRef("java/lang/Object");
+            final int bodyInterface = pool.classRef(BODY_NAME);
+            header.writeInt(0xCAFEBABE);
+            header.writeShort(0);
+            header.writeShort(CLASS_FILE_VERSION);
+            pool.writeTo(header);
+            header.writeShort(ACC_FINAL | ACC_SUPER);
+            header.writeShort(thisClass);
+            header.writeShort(superClass);
+            header.writeShort(1);
+            header.writeShort(bodyInterface);
+            header.writeShort(0);                                   // Fields.
+            header.writeShort(2 + preparingMethods + sharedTokens.size() + outlinedTokens.size());
+            methods.writeTo(header);
+            header.writeShort(0);                                   // Attributes.
+            return classFile.toByteArray();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Lists the shared tokens so that the operands of every shared token come before it. The tree is walked with a
+     * stack of its own, since it can be deeper than the stack of the thread allows.
+     */
+    private void collectSharedTokens(final Token root) {
+        final IdentityHashMap<Token, Boolean> finished = new IdentityHashMap<>();
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.peek();
+            if (token.getType() != Token.TokenType.OPERATOR || finished.get(token) == Boolean.TRUE) {
+                toVisit.pop();
+            } else if (finished.putIfAbsent(token, Boolean.FALSE) == null) {
+                toVisit.push(token.right);
+                if (token.left != null) {
+                    toVisit.push(token.left);
+                }
+            } else {
+                toVisit.pop();
+                finished.put(token, Boolean.TRUE);
+                if (isShared(token)) {
+                    sharedTokens.add((OperatorToken) token);
+                }
+            }
+        }
+    }
+
+    private static boolean isShared(final Token token) {
+        return token instanceof OperatorToken operator && operator.sharedSlot >= 0;
+    }
+
+    /**
+     * Computes the size of the code of every subtree of a method, outlining subtrees into methods of their own where
+     * needed to keep every method under the limit. Shared tokens are only measured as the roots of their own methods;
+     * anywhere else they are just loaded from the array of shared values.
+     */
+    private int measure(final Token methodRoot) {
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        toVisit.push(methodRoot);
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.peek();
+            if (token.getType() != Token.TokenType.OPERATOR || sizes.containsKey(token)) {
+                toVisit.pop();
+                continue;
+            }
+            Integer leftSize = token.left != null ? operandSize(token.left) : Integer.valueOf(0);
+            Integer rightSize = operandSize(token.right);
+            if (leftSize == null || rightSize == null) {
+                if (rightSize == null) {
+                    toVisit.push(token.right);
+                }
+                if (leftSize == null) {
+                    toVisit.push(token.left);
+                }
+                continue;
+            }
+            toVisit.pop();
+            final MathFunction function = ((OperatorToken) token).function();
+            final int operatorSize = function != null ? 4 + pushSize(function.ordinal()) : 4;
+            while (leftSize + rightSize + operatorSize > METHOD_SIZE_LIMIT) {
+                if (leftSize >= rightSize) {
+                    leftSize = outline(token.left);
+                } else {
+                    rightSize = outline(token.right);
+                }
+            }
+            sizes.put(token, leftSize + rightSize + operatorSize);  // aload_3, push function, invoke.
+        }
+        return methodRoot.getType() == Token.TokenType.OPERATOR ? sizes.get(methodRoot) : operandSize(methodRoot);
+    }
+
+    /**
+     * @return the size of the code of a subtree of a method, or {@code null} if it wasn't measured yet
+     */
+    private Integer operandSize(final Token token) {
+        if (isShared(token)) {
+            return 3 + pushSize(((OperatorToken) token).sharedSlot); // aload, push index, aaload.
+        }
+        if (token.getType() != Token.TokenType.OPERATOR) {
+            return 2 + pushSize(indexOf(token));                    // aload, push index, aaload.
+        }
+        return sizes.get(token);
+    }
+
+    private int outline(final Token token) {
+        outlinedMethods.put(token, outlinedTokens.size());
+        outlinedTokens.add(token);
+        return 9;                                                   // aload_0 to aload 4, invokestatic.
+    }
+
+    private int indexOf(final Token token) {
+        if (token.getType() == Token.TokenType.VARIABLE) {
+            return ((VariableToken) token).slot;
+        }
+        return constantIndexes.computeIfAbsent(token.val, constant -> {
+            constants.add(constant);
+            return constants.size() - 1;
+        });
+    }
+
+    private static int pushSize(final int index) {
+        if (index <= 5) {
+            return 1;
+        }
+        return index <= Byte.MAX_VALUE ? 2 : 3;
+    }
+
+    private void writeConstructor(final DataOutputStream out) throws IOException {
+        final CodeBuilder code = new CodeBuilder();
+        code.loadLocal(0);
+        writeInstruction(code.bytes, INVOKESPECIAL, pool.methodRef("java/lang/Object", "<init>", "()V"));
+        code.bytes.write(RETURN);
+        writeMethodInfo(out, ACC_PUBLIC, "<init>", "()V", code);
+    }
+
+    /**
+     * Writes the method implementing {@link CompiledExpression.Body}: first the shared tokens are evaluated through the
+     * chain of preparing methods, then the rest of the equation. The root was measured to fit under the limit on its
+     * own, and the single call to the chain adds just 9 bytes to it.
+     */
+    private void writeEval(final DataOutputStream out, final Token root) throws IOException {
+        final CodeBuilder code = new CodeBuilder();
+        if (!sharedTokens.isEmpty()) {
+            code.callStatic("prepare0", SHARED_DESCRIPTOR, 0);
+        }
+        code.emit(root);
+        code.bytes.write(ARETURN);
+        writeMethodInfo(out, ACC_PUBLIC, "eval", BODY_DESCRIPTOR, code);
+    }
+
+    /**
+     * Writes a method. Static methods take an unused first parameter, so their locals are laid out just like those of
+     * the instance method: the variables in local 1, the constants in local 2, the {@code MathContext} in local 3 and
+     * the shared values in local 4.
+     */
+    private void writeMethodInfo(final DataOutputStream out, final int access, final String name,
+                                 final String descriptor, final CodeBuilder code) throws IOException {
+        final byte[] bytes = code.bytes.toByteArray();
+        out.writeShort(access);
+        out.writeShort(pool.utf8(name));
+        out.writeShort(pool.utf8(descriptor));
+        out.writeShort(1);
+        out.writeShort(pool.utf8("Code"));
+        out.writeInt(12 + bytes.length);
+        out.writeShort(code.maxStack);
+        out.writeShort(SHARED_LOCAL + 1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeShort(0);                                          // Exception table.
+        out.writeShort(0);                                          // Attributes.
+    }
+
+    private static void writeInstruction(final ByteArrayOutputStream code, final int opcode, final int operand) {
+        code.write(opcode);
+        code.write(operand >>> 8);
+        code.write(operand);
+    }
+
+    /**
+     * Bytecode of a single method, along with the deepest operand stack it needs.
+     */
+    private final class CodeBuilder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private int stack;
+        private int maxStack;
+
+        /**
+         * Emits the code of a method, operands before their operators, walking the tree with a stack of its own.
+         */
+        private void emit(final Token methodRoot) {
+            final ArrayDeque<Token> toEmit = new ArrayDeque<>();
+            final ArrayDeque<Boolean> operandsEmitted = new ArrayDeque<>();
+            toEmit.push(methodRoot);
+            operandsEmitted.push(false);
+            while (!toEmit.isEmpty()) {
+                final Token token = toEmit.pop();
+                if (operandsEmitted.pop()) {
+                    emitOperator(token);
+                    continue;
+                }
+                if (token != methodRoot && isShared(token)) {
+                    loadElement(SHARED_LOCAL, ((OperatorToken) token).sharedSlot);
+                    continue;
+                }
+                final Integer outlined = outlinedMethods.get(token);
+                if (outlined != null && token != methodRoot) {
+                    callStatic("subtree" + outlined, SUBTREE_DESCRIPTOR, 1);
+                    continue;
+                }
+                switch (token.getType()) {
+                    case VALUE -> loadElement(2, indexOf(token));
+                    case VARIABLE -> loadElement(1, indexOf(token));
+                    case OPERATOR -> {
+                        toEmit.push(token);
+                        operandsEmitted.push(true);
+                        toEmit.push(token.right);
+                        operandsEmitted.push(false);
+                        if (token.left != null) {
+                            toEmit.push(token.left);
+                            operandsEmitted.push(false);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void emitOperator(final Token token) {
+            loadLocal(3);
+            switch (token.operator) {
+                case EXPONENT -> writeInstruction(bytes, INVOKESTATIC,
+                        pool.methodRef("ch/obermuhlner/math/big/BigDecimalMath", "pow", POW_DESCRIPTOR));
+                case MULTIPLICATION -> invokeDecimal("multiply");
+                case DIVISION -> invokeDecimal("divide");
+                case ADDITION -> invokeDecimal("add");
+                case SUBTRACTION -> invokeDecimal("subtract");
+                case UNARYMINUS -> writeInstruction(bytes, INVOKESTATIC,
+                        pool.methodRef(TOKEN_NAME, "negate", BINARY_DESCRIPTOR));
+                case FUNCTION -> {
+                    pushIndex(((OperatorToken) token).function().ordinal());
+                    writeInstruction(bytes, INVOKESTATIC,
+                            pool.methodRef(FUNCTION_NAME, "apply", FUNCTION_DESCRIPTOR));
+                    pop(1);
+                }
+            }
+            pop(token.left != null ? 2 : 1);
+        }
+
+        private void callShared(final int from, final int to) {
+            for (int i = from; i < to; i++) {
+                callStatic("shared" + sharedTokens.get(i).sharedSlot, SHARED_DESCRIPTOR, 0);
+            }
+        }
+
+        /**
+         * Calls a static method of the generated class, passing it all the locals.
+         */
+        private void callStatic(final String name, final String descriptor, final int results) {
+            for (int local = 0; local <= SHARED_LOCAL; local++) {
+                loadLocal(local);
+            }
+            writeInstruction(bytes, INVOKESTATIC, pool.methodRef(CLASS_NAME, name, descriptor));
+            pop(SHARED_LOCAL + 1 - results);
+        }
+
+        private void invokeDecimal(final String method) {
+            writeInstruction(bytes, INVOKEVIRTUAL, pool.methodRef(DECIMAL_NAME, method, BINARY_DESCRIPTOR));
+        }
+
+        private void loadLocal(final int local) {
+            if (local <= 3) {
+                bytes.write(ALOAD_0 + local);
+            } else {
+                bytes.write(ALOAD);
+                bytes.write(local);
+            }
+            push(1);
+        }
+
+        private void loadElement(final int array, final int index) {
+            loadLocal(array);
+            pushIndex(index);
+            bytes.write(AALOAD);
+            pop(1);
+        }
+
+        private void pushIndex(final int index) {
+            if (index <= 5) {
+                bytes.write(ICONST_0 + index);
+            } else if (index <= Byte.MAX_VALUE) {
+                bytes.write(BIPUSH);
+                bytes.write(index);
+            } else if (index <= Short.MAX_VALUE) {
+                writeInstruction(bytes, SIPUSH, index);
+            } else {
+                writeInstruction(bytes, LDC_W, pool.integer(index));
+            }
+            push(1);
+        }
+
+        private void push(final int amount) {
+            stack += amount;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        private void pop(final int amount) {
+            stack -= amount;
+        }
+    }
+
+    /**
+     * Constant pool of the generated class. Entries are deduplicated, so each name or reference is stored once.
+     */
+    private static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final HashMap<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(final String value) {
+            return entry("U" + value, () -> {
+                out.writeByte(1);
+                out.writeUTF(value);
+            });
+        }
+
+        int integer(final int value) {
+            return entry("I" + value, () -> {
+                out.writeByte(3);
+                out.writeInt(value);
+            });
+        }
+
+        int classRef(final String name) {
+            final int nameIndex = utf8(name);
+            return entry("C" + name, () -> {
+                out.writeByte(7);
+                out.writeShort(nameIndex);
+            });
+        }
+
+        int methodRef(final String owner, final String name, final String descriptor) {
+            final int ownerIndex = classRef(owner);
+            final int nameIndex = utf8(name);
+            final int descriptorIndex = utf8(descriptor);
+            final int nameAndType = entry("N" + name + ";" + descriptor, () -> {
+                out.writeByte(12);
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+            });
+            return entry("M" + owner + "." + name + descriptor, () -> {
+                out.writeByte(10);
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+            });
+        }
+
+        void writeTo(final DataOutputStream classFile) throws IOException {
+            classFile.writeShort(count);
+            bytes.writeTo(classFile);
+        }
+
+        private int entry(final String key, final Entry entry) {
+            final Integer existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            try {
+                entry.write();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Related equations compiled into a single directed acyclic graph of tokens, evaluated together in one pass.
+ * <p>All the equations are tokenized into one table of variables, so a variable has the same slot in every equation
+ * and one {@link Bindings} holds the values for the whole group. The trees are then optimized together (see
+ * {@link Expression#optimize()}): a piece like {@code (rate*t + 1)} repeated in many equations becomes a single shared
+ * token, which each evaluation computes once for all the equations using it. An equation which is a part of another,
+ * or identical to another, is computed once as well.
+ * <p>Just like an {@link Expression}, a group is never modified after it's created and can be evaluated by many threads
+ * at once, each with its own Bindings.
+ */
+public final class ExpressionGroup {
+    private final String[] equations;
+    private final MathContext mathContext;
+    private final Token[] roots;
+    private final String[] variables;
+    private final Map<String, Integer> slots;
+    private final int sharedTokens;
+    private final int removedTokens;
+    private final boolean deep;
+
+    private ExpressionGroup(String[] equations, MathContext mathContext, String[] variables,
+                            Optimizer.Result optimized) {
+        this.equations = equations;
+        this.mathContext = mathContext;
+        this.roots = optimized.roots();
+        this.variables = variables;
+        this.sharedTokens = optimized.sharedTokens();
+        this.removedTokens = optimized.removedTokens();
+        boolean deep = false;
+        for (Token root : roots) {
+            deep |= Optimizer.depthOf(root) > Expression.MAX_RECURSIVE_DEPTH;
+        }
+        this.deep = deep;
+        final HashMap<String, Integer> slots = new HashMap<>();
+        for (int slot = 0; slot < variables.length; slot++) {
+            slots.put(variables[slot], slot);
+        }
+        this.slots = slots;
+    }
+
+    /**
+     * Tokenizes and parses the equations, compiling them into one graph.
+     *
+     * @param equations   equations to compile
+     * @param mathContext context with the precision and rounding mode of the evaluations
+     * @return a compiled {@code ExpressionGroup}
+     * @throws RuntimeException if any of the equations is malformed
+     */
+    public static ExpressionGroup parse(List<String> equations, MathContext mathContext) {
+        final Tokenizer tokenizer = new Tokenizer();
+        final Token[] roots = new Token[equations.size()];
+        for (int i = 0; i < roots.length; i++) {
+            tokenizer.tokenizeKeepingVariables(equations.get(i), mathContext);
+            roots[i] = Parser.parseTokens(tokenizer.getTokens(), mathContext);
+        }
+        final String[] variables = new String[tokenizer.getVariables().size()];
+        for (Token token : tokenizer.getVariables().values()) {
+            final VariableToken variable = (VariableToken) token;
+            variables[variable.slot] = variable.variableIdentifier;
+        }
+        return new ExpressionGroup(equations.toArray(new String[0]), mathContext, variables,
+                Optimizer.optimize(roots));
+    }
+
+    /**
+     * Tokenizes and parses the equations, compiling them into one graph.
+     *
+     * @param equations         equations to compile
+     * @param DESIRED_PRECISION the amount of decimal places
+     * @return a compiled {@code ExpressionGroup}
+     * @throws RuntimeException if any of the equations is malformed
+     */
+    public static ExpressionGroup parse(List<String> equations, final int DESIRED_PRECISION) {
+        return parse(equations, new MathContext(DESIRED_PRECISION));
+    }
+
+    /**
+     * @return empty {@link Bindings} for the variables of all the equations
+     */
+    public Bindings newBindings() {
+        return new Bindings(slots);
+    }
+
+    /**
+     * Evaluates all the equations with the given values of their variables.
+     *
+     * @param bindings values of the variables, created with {@link #newBindings()} of this group
+     * @return the values of the equations, in the order they were given
+     * @throws IllegalArgumentException if the bindings belong to something else or a variable has no value
+     * @throws ArithmeticException      if any of the equations can't be evaluated, e.g. divides by zero
+     */
+    public BigDecimal[] eval(Bindings bindings) {
+        final BigDecimal[] results = new BigDecimal[roots.length];
+        eval(bindings, results);
+        return results;
+    }
+
+    /**
+     * Evaluates all the equations with the given values of their variables, into an array given by the caller.
+     *
+     * @param bindings values of the variables, created with {@link #newBindings()} of this group
+     * @param results  array to put the values of the equations into, in the order they were given
+     * @throws IllegalArgumentException if the bindings belong to something else, a variable has no value or the
+     *                                  array is too short
+     * @throws ArithmeticException      if any of the equations can't be evaluated, e.g. divides by zero
+     */
+    public void eval(Bindings bindings, BigDecimal[] results) {
+        if (!bindings.belongsTo(slots)) {
+            throw new IllegalArgumentException("The bindings were created for a different group of expressions.");
+        }
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (bindings.values[slot] == null) {
+                throw new IllegalArgumentException("No value given for variable " + variables[slot] + ".");
+            }
+        }
+        if (results.length < roots.length) {
+            throw new IllegalArgumentException("There are " + roots.length + " equations, but room for only "
+                    + results.length + " results.");
+        }
+        bindings.resetShared(sharedTokens);
+        final DeepPass pass = deep ? new DeepPass(bindings) : null;
+        for (int i = 0; i < roots.length; i++) {
+            results[i] = deep ? pass.walk(roots[i], bindings.shared) : roots[i].eval(bindings);
+        }
+    }
+
+    /**
+     * @return the amount of equations in the group
+     */
+    public int size() {
+        return roots.length;
+    }
+
+    /**
+     * @return the equations of the group, in the order they were given
+     */
+    public List<String> getEquations() {
+        return Collections.unmodifiableList(Arrays.asList(equations));
+    }
+
+    /**
+     * @param identifier the string of text by which the variable is declared in the equations
+     * @return the slot of the variable, or {@code -1} if there is no such variable in any of the equations
+     */
+    public int slotOf(String identifier) {
+        final Integer slot = slots.get(identifier);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return the identifiers of the variables of all the equations, ordered by their slots
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    /**
+     * @return the amount of tokens computed once per evaluation and used by several others or several equations
+     */
+    public int getSharedTokens() {
+        return sharedTokens;
+    }
+
+    /**
+     * @return the amount of tokens removed by optimizing the equations together
+     */
+    public int getRemovedTokens() {
+        return removedTokens;
+    }
+
+    /**
+     * @return the {@code MathContext} the equations are evaluated with
+     */
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    @Override
+    public String toString() {
+        return String.join("; ", equations);
+    }
+
+    /**
+     * Evaluation of a graph too deep to be evaluated recursively. Shared tokens are stored in and loaded from the
+     * bindings just like {@link Token#eval(Bindings)} does.
+     */
+    private static final class DeepPass extends PostfixWalker<BigDecimal> {
+        private final Bindings bindings;
+
+        private DeepPass(Bindings bindings) {
+            this.bindings = bindings;
+        }
+
+        @Override
+        BigDecimal leaf(Token token) {
+            return token.eval(bindings);
+        }
+
+        @Override
+        BigDecimal operator(OperatorToken token, BigDecimal left, BigDecimal right) {
+            return token.apply(left, right);
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package edu.lispectre.metaphrase;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.WeakHashMap;
+
+/**
+ * Shares equal literals and structurally identical subtrees between {@link Expression}s (hash-consing), so that many
+ * resident Expressions take as little memory as possible.
+ * <p>Every token of an interned Expression is replaced by a canonical one: values by the first value token with an
+ * equal {@code BigDecimal}, variables by the first variable with the same identifier and slot, and operators by the
+ * first operator with the same operator, operands, {@code MathContext} and shared slot (see {@link Optimizer}). The
+ * tree is interned bottom-up, so operands of the canonical operators are canonical as well, and a subtree like
+ * {@code (rate*t + 1)} appearing in a thousand formulas ends up stored once. Interned Expressions evaluate to the very
+ * same results and accept the same {@link Bindings} as the originals.
+ * <p>The interner holds its canonical tokens through weak references only: once no Expression uses a token any more,
+ * the garbage collector reclaims it and the interner forgets it. Operators are looked up by numbers identifying their
+ * canonical operands rather than by the operands themselves, so the interner keeps no token alive and a whole tree
+ * which is no longer used is reclaimed by a single collection. Interners are thread-safe.
+ */
+public final class ExpressionInterner {
+    /**
+     * Approximate sizes of the objects making up tokens, in bytes, on a 64-bit JVM with compressed references.
+     */
+    private static final int OPERATOR_BYTES = 48;
+    private static final int VARIABLE_BYTES = 64;
+    private static final int VALUE_BYTES = 32;
+    private static final int BIG_DECIMAL_BYTES = 40;
+    private static final int BIG_INTEGER_BYTES = 56;
+    /**
+     * Approximate sizes of what the interner keeps for every canonical token: the entry of the map of canonical
+     * tokens, the weak reference, and the entry holding the number of the token; plus the key of an operator or a
+     * variable. Values are keyed by their own {@code BigDecimal}.
+     */
+    private static final int ENTRY_BYTES = 136;
+    private static final int OPERATOR_KEY_BYTES = 48;
+    private static final int VARIABLE_KEY_BYTES = 24;
+
+    private final HashMap<Object, TokenReference> canonical = new HashMap<>();
+    private final WeakHashMap<Token, Long> ids = new WeakHashMap<>();
+    private final ReferenceQueue<Token> collected = new ReferenceQueue<>();
+    private long nextId;
+    private long tokens;
+    private long sharedTokens;
+    private long savedBytes;
+    private long overheadBytes;
+
+    /**
+     * Replaces the tokens of the Expression by the canonical ones.
+     *
+     * @param expression Expression to intern
+     * @return an equivalent Expression sharing its tokens with the Expressions interned before it
+     */
+    public synchronized Expression intern(Expression expression) {
+        purge();
+        final IdentityHashMap<Token, Token> interned = new IdentityHashMap<>();
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        toVisit.push(expression.getRoot());
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.peek();
+            if (interned.containsKey(token)) {
+                toVisit.pop();
+                continue;
+            }
+            if (token.getType() != Token.TokenType.OPERATOR) {
+                toVisit.pop();
+                interned.put(token, canonicalOf(keyOf(token), token));
+                continue;
+            }
+            final Token left = token.left != null ? interned.get(token.left) : null;
+            final Token right = interned.get(token.right);
+            if (right == null || token.left != null && left == null) {
+                if (right == null) {
+                    toVisit.push(token.right);
+                }
+                if (token.left != null && left == null) {
+                    toVisit.push(token.left);
+                }
+                continue;
+            }
+            toVisit.pop();
+            interned.put(token, canonicalOf((OperatorToken) token, left, right));
+        }
+        return expression.withRoot(interned.get(expression.getRoot()));
+    }
+
+    private Token canonicalOf(OperatorToken token, Token left, Token right) {
+        final OperatorKey key = new OperatorKey(token.getClass(), token.operator, token.function(),
+                left != null ? ids.get(left) : 0, ids.get(right), token.mc, token.sharedSlot);
+        final Token existing = lookUp(key, token);
+        if (existing != null) {
+            return existing;
+        }
+        Token adopted = token;
+        if (token.left != left || token.right != right) {
+            final OperatorToken copy = Specializations.create(token.operator, token.function(), left, right,
+                    token.mc);
+            copy.sharedSlot = token.sharedSlot;
+            adopted = copy;
+        }
+        adopt(key, adopted, OPERATOR_KEY_BYTES);
+        return adopted;
+    }
+
+    private Token canonicalOf(Object key, Token token) {
+        final Token existing = lookUp(key, token);
+        if (existing != null) {
+            return existing;
+        }
+        adopt(key, token, key instanceof VariableKey ? VARIABLE_KEY_BYTES : 0);
+        return token;
+    }
+
+    /**
+     * Makes the token the canonical one for the key, numbering it for the keys of the operators using it.
+     */
+    private void adopt(Object key, Token token, int keyBytes) {
+        canonical.put(key, new TokenReference(token, key, ENTRY_BYTES + keyBytes, collected));
+        ids.put(token, ++nextId);
+        overheadBytes += ENTRY_BYTES + keyBytes;
+    }
+
+    /**
+     * Finds the canonical token for the key, counting the token as shared if there is one.
+     */
+    private Token lookUp(Object key, Token token) {
+        tokens++;
+        final TokenReference reference = canonical.get(key);
+        final Token existing = reference != null ? reference.get() : null;
+        if (existing != null && existing != token) {
+            sharedTokens++;
+            savedBytes += sizeOf(token);
+        }
+        return existing;
+    }
+
+    private static Object keyOf(Token token) {
+        if (token.getType() == Token.TokenType.VARIABLE) {
+            final VariableToken variable = (VariableToken) token;
+            return new VariableKey(variable.variableIdentifier, variable.slot);
+        }
+        return token.val;
+    }
+
+    private static long sizeOf(Token token) {
+        return switch (token.getType()) {
+            case OPERATOR -> OPERATOR_BYTES;
+            case VARIABLE -> VARIABLE_BYTES;
+            case VALUE -> {
+                final BigDecimal value = token.val;
+                yield VALUE_BYTES + BIG_DECIMAL_BYTES
+                        + (value.unscaledValue().bitLength() < Long.SIZE ? 0 : BIG_INTEGER_BYTES
+                        + 4L * (value.unscaledValue().bitLength() / Integer.SIZE + 1));
+            }
+        };
+    }
+
+    /**
+     * Forgets the canonical tokens which have been garbage collected.
+     */
+    private void purge() {
+        for (TokenReference reference = (TokenReference) collected.poll(); reference != null;
+             reference = (TokenReference) collected.poll()) {
+            canonical.remove(reference.key, reference);
+            overheadBytes -= reference.bytes;
+        }
+    }
+
+    /**
+     * @return the amount of tokens of all the interned Expressions
+     */
+    public synchronized long getTokens() {
+        purge();
+        return tokens;
+    }
+
+    /**
+     * @return the amount of tokens which were replaced by an equal token of another Expression, or of the same one
+     */
+    public synchronized long getSharedTokens() {
+        purge();
+        return sharedTokens;
+    }
+
+    /**
+     * @return an estimate of the memory saved by sharing tokens, in bytes: what the shared tokens took, counted when
+     * they were interned, less what the interner itself takes for the canonical tokens it still remembers
+     */
+    public synchronized long getSavedBytes() {
+        purge();
+        return savedBytes - overheadBytes;
+    }
+
+    /**
+     * @return the amount of distinct canonical tokens which are still used by some Expression
+     */
+    public synchronized int getCanonicalTokens() {
+        purge();
+        return canonical.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "tokens=" + tokens + " shared=" + sharedTokens + " canonical=" + getCanonicalTokens()
+                + " savedBytes=" + getSavedBytes();
+    }
+
+    private static final class TokenReference extends WeakReference<Token> {
+        private final Object key;
+        private final int bytes;
+
+        private TokenReference(Token token, Object key, int bytes, ReferenceQueue<Token> queue) {
+            super(token, queue);
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    private record VariableKey(String identifier, int slot) {
+    }
+
+    /**
+     * Operands are compared by their numbers; they are canonical already, so identical subtrees have the very same
+     * ones. Numbers are never reused, so a key holding the number of a collected token matches no new operator. The
+     * left operand of an operator without one is numbered zero.
+     */
+    private record OperatorKey(Class<?> type, Operator operator, MathFunction function, long left, long right,
+                               MathContext mc, int sharedSlot) {
+    }
+}
@@ -0,0 +1,288 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Named formulas referring to each other, such as {@code margin = price - cost} and {@code ratio = margin / price},
+ * kept up to date while their inputs change.
+ * <p>Every variable of a formula is either the name of another formula or an input, whose value is set from the
+ * outside. The graph knows which formulas depend on which, so when inputs change only the formulas affected by them
+ * are evaluated again, each once, in topological order: a formula is evaluated only after all the formulas it refers
+ * to. A formula whose value turns out not to change doesn't make its own dependents evaluated again. Several inputs
+ * can be changed at once with {@link #setAll(Map)}, which propagates all the changes in a single pass.
+ * <p>Every formula has a rank greater than the ranks of all the formulas it refers to, which is the order they're
+ * evaluated in. Ranks are raised as formulas are defined, so defining a formula costs only as much as the formulas
+ * depending on it. A definition which would make a formula depend on itself is rejected.
+ * <p>Until all of its inputs have values, or when its evaluation throws an {@code ArithmeticException}, e.g. when it
+ * divides by zero, a formula has no value ({@code null}); so do the formulas referring to it. Graphs are not
+ * thread-safe.
+ */
+public final class FormulaGraph {
+    private static final Comparator<Node> BY_RANK = Comparator.comparingInt(node -> node.rank);
+
+    private final MathContext mathContext;
+    private final HashMap<String, Node> nodes = new HashMap<>();
+    private long evaluations;
+
+    /**
+     * @param mathContext context with the precision and rounding mode the formulas are evaluated with
+     */
+    public FormulaGraph(MathContext mathContext) {
+        this.mathContext = mathContext;
+    }
+
+    /**
+     * Defines a formula, or redefines an existing one, and evaluates it along with the formulas depending on it.
+     * Variables of the equation which aren't names of formulas become inputs.
+     *
+     * @param name     name by which other formulas refer to this one
+     * @param equation equation of the formula
+     * @return the value of the formula, or {@code null} if it has none
+     * @throws IllegalArgumentException if the formula would depend on itself, directly or through other formulas
+     * @throws RuntimeException         if the equation is malformed
+     */
+    public BigDecimal define(String name, String equation) {
+        final Expression expression = Expression.parse(equation, mathContext);
+        final Node existing = nodes.get(name);
+        for (String variable : expression.getVariables()) {
+            final Node dependency = nodes.get(variable);
+            final List<String> cycle = variable.equals(name) ? new ArrayList<>(List.of(name))
+                    : existing != null && dependency != null ? pathTo(dependency, existing) : null;
+            if (cycle != null) {
+                cycle.add(0, name);
+                throw new IllegalArgumentException("Cyclic formula: " + String.join(" -> ", cycle) + ".");
+            }
+        }
+        final Node node = existing != null ? existing : new Node(name);
+        nodes.put(name, node);
+        final Node[] dependencies = new Node[expression.getVariables().size()];
+        for (int slot = 0; slot < dependencies.length; slot++) {
+            dependencies[slot] = nodes.computeIfAbsent(expression.getVariables().get(slot), Node::new);
+        }
+        if (node.dependencies != null) {
+            for (Node dependency : node.dependencies) {
+                dependency.dependents.remove(node);
+            }
+        }
+        node.expression = expression;
+        node.bindings = expression.newBindings();
+        node.dependencies = dependencies;
+        int rank = 0;
+        for (Node dependency : dependencies) {
+            dependency.dependents.add(node);
+            rank = Math.max(rank, dependency.rank + 1);
+        }
+        raiseRank(node, rank);
+        final BigDecimal value = evaluate(node);
+        if (!sameValue(node.value, value)) {
+            node.value = value;
+            propagate(node.dependents);
+        }
+        return value;
+    }
+
+    /**
+     * Sets the value of an input and evaluates the formulas depending on it.
+     *
+     * @param input name of the input
+     * @param value new value of the input, or {@code null} to remove it
+     * @return the names of the formulas whose values changed, in the order they were evaluated
+     * @throws IllegalArgumentException if the name is the name of a formula
+     */
+    public List<String> set(String input, BigDecimal value) {
+        return setAll(Collections.singletonMap(input, value));
+    }
+
+    /**
+     * Sets the values of several inputs at once and evaluates the formulas depending on any of them, each only once.
+     *
+     * @param values new values of the inputs, by their names
+     * @return the names of the formulas whose values changed, in the order they were evaluated
+     * @throws IllegalArgumentException if any of the names is the name of a formula
+     */
+    public List<String> setAll(Map<String, BigDecimal> values) {
+        for (String input : values.keySet()) {
+            if (isFormula(input)) {
+                throw new IllegalArgumentException(input + " is a formula, not an input.");
+            }
+        }
+        final ArrayList<Node> dependents = new ArrayList<>();
+        for (Map.Entry<String, BigDecimal> entry : values.entrySet()) {
+            final Node input = nodes.computeIfAbsent(entry.getKey(), Node::new);
+            if (!sameValue(input.value, entry.getValue())) {
+                input.value = entry.getValue();
+                dependents.addAll(input.dependents);
+            }
+        }
+        return propagate(dependents);
+    }
+
+    /**
+     * @param name name of a formula or an input
+     * @return the value of the formula or the input, or {@code null} if it has none
+     * @throws IllegalArgumentException if there is no such formula or input
+     */
+    public BigDecimal get(String name) {
+        final Node node = nodes.get(name);
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown formula or input: " + name + ".");
+        }
+        return node.value;
+    }
+
+    /**
+     * @param name name of a formula or an input
+     * @return whether there is a formula with this name
+     */
+    public boolean isFormula(String name) {
+        final Node node = nodes.get(name);
+        return node != null && node.expression != null;
+    }
+
+    /**
+     * @return how many times formulas have been evaluated so far
+     */
+    public long getEvaluations() {
+        return evaluations;
+    }
+
+    /**
+     * @return the {@code MathContext} the formulas are evaluated with
+     */
+    public MathContext getMathContext() {
+        return mathContext;
+    }
+
+    /**
+     * Evaluates the formulas in the order of their ranks, starting with the given ones and continuing with the
+     * dependents of those whose values changed.
+     *
+     * @param formulas formulas to evaluate first
+     * @return the names of the formulas whose values changed
+     */
+    private List<String> propagate(List<Node> formulas) {
+        final PriorityQueue<Node> queue = new PriorityQueue<>(BY_RANK);
+        for (Node formula : formulas) {
+            if (!formula.queued) {
+                formula.queued = true;
+                queue.add(formula);
+            }
+        }
+        final ArrayList<String> changed = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            final Node node = queue.poll();
+            node.queued = false;
+            final BigDecimal value = evaluate(node);
+            if (sameValue(node.value, value)) {
+                continue;
+            }
+            changed.add(node.name);
+            node.value = value;
+            for (Node dependent : node.dependents) {
+                if (!dependent.queued) {
+                    dependent.queued = true;
+                    queue.add(dependent);
+                }
+            }
+        }
+        return changed;
+    }
+
+    private BigDecimal evaluate(Node node) {
+        for (int slot = 0; slot < node.dependencies.length; slot++) {
+            final BigDecimal value = node.dependencies[slot].value;
+            if (value == null) {
+                return null;
+            }
+            node.bindings.set(slot, value);
+        }
+        evaluations++;
+        try {
+            return node.expression.eval(node.bindings);
+        } catch (ArithmeticException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Raises the rank of the formula, and of the formulas depending on it as far as needed to keep every formula
+     * ranked above the formulas it refers to.
+     */
+    private static void raiseRank(Node formula, int rank) {
+        final ArrayDeque<Node> toRaise = new ArrayDeque<>();
+        formula.rank = Math.max(formula.rank, rank);
+        toRaise.push(formula);
+        while (!toRaise.isEmpty()) {
+            final Node node = toRaise.pop();
+            for (Node dependent : node.dependents) {
+                if (dependent.rank <= node.rank) {
+                    dependent.rank = node.rank + 1;
+                    toRaise.push(dependent);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds a path from a node to a target through the formulas the nodes refer to.
+     *
+     * @return names of the nodes on the path, both ends included, or {@code null} if there is no such path
+     */
+    private static List<String> pathTo(Node start, Node target) {
+        final HashMap<Node, Node> reachedFrom = new HashMap<>();
+        final ArrayDeque<Node> toVisit = new ArrayDeque<>();
+        reachedFrom.put(start, start);
+        toVisit.push(start);
+        while (!toVisit.isEmpty()) {
+            final Node node = toVisit.pop();
+            if (node == target) {
+                final ArrayList<String> path = new ArrayList<>();
+                for (Node step = node; ; step = reachedFrom.get(step)) {
+                    path.add(0, step.name);
+                    if (step == start) {
+                        return path;
+                    }
+                }
+            }
+            if (node.dependencies != null) {
+                for (Node dependency : node.dependencies) {
+                    if (reachedFrom.putIfAbsent(dependency, node) == null) {
+                        toVisit.push(dependency);
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean sameValue(BigDecimal first, BigDecimal second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    /**
+     * A formula, or an input when it has no expression.
+     */
+    private static final class Node {
+        final String name;
+        final ArrayList<Node> dependents = new ArrayList<>();
+        Expression expression;
+        Bindings bindings;
+        Node[] dependencies;
+        BigDecimal value;
+        int rank;
+        boolean queued;
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+}
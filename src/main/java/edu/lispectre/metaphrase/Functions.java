@@ -0,0 +1,148 @@
+package edu.lispectre.metaphrase;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Constants and caches of the functions which can be called in equations, like {@code sqrt(x)} or {@code sin(x)}.
+ * <p>The constants pi, e, ln(2) and ln(10) are calculated once for every {@code MathContext} they are asked for and
+ * kept, since calculating them at a high precision takes much longer than anything else an equation does.
+ * <p>Transcendental functions can also remember their most recent results, which pays off when the same arguments come
+ * up again and again, e.g. {@code sin(pi()/6)} evaluated for every row of a table. The memo is disabled by default.
+ * It's shared by all the threads; it has a fixed amount of entries and every new result replaces the one with the same
+ * position, so it never grows and never has to be cleaned up.
+ */
+public final class Functions {
+    /**
+     * The amount of precisions whose constants are kept before all of them are forgotten.
+     */
+    private static final int MAX_CACHED_CONTEXTS = 64;
+    private static final ConcurrentHashMap<MathContext, BigDecimal> PI = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<MathContext, BigDecimal> E = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<MathContext, BigDecimal> LN2 = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<MathContext, BigDecimal> LN10 = new ConcurrentHashMap<>();
+    private static final LongAdder memoHits = new LongAdder();
+    private static final LongAdder memoMisses = new LongAdder();
+    private static volatile MemoEntry[] memo;
+
+    private Functions() {
+    }
+
+    /**
+     * @return pi rounded to the precision of the context
+     * @throws ArithmeticException if the precision is unlimited
+     */
+    public static BigDecimal pi(MathContext mc) {
+        return constant(PI, mc, BigDecimalMath::pi);
+    }
+
+    /**
+     * @return Euler's number rounded to the precision of the context
+     * @throws ArithmeticException if the precision is unlimited
+     */
+    public static BigDecimal e(MathContext mc) {
+        return constant(E, mc, BigDecimalMath::e);
+    }
+
+    /**
+     * @return the natural logarithm of 2 rounded to the precision of the context
+     * @throws ArithmeticException if the precision is unlimited
+     */
+    public static BigDecimal ln2(MathContext mc) {
+        return constant(LN2, mc, context -> BigDecimalMath.log(BigDecimal.TWO, context));
+    }
+
+    /**
+     * @return the natural logarithm of 10 rounded to the precision of the context
+     * @throws ArithmeticException if the precision is unlimited
+     */
+    public static BigDecimal ln10(MathContext mc) {
+        return constant(LN10, mc, context -> BigDecimalMath.log(BigDecimal.TEN, context));
+    }
+
+    private static BigDecimal constant(ConcurrentHashMap<MathContext, BigDecimal> cache, MathContext mc,
+                                       Function<MathContext, BigDecimal> calculation) {
+        if (mc.getPrecision() == 0) {
+            throw new ArithmeticException("Constants need a limited precision.");
+        }
+        final BigDecimal cached = cache.get(mc);
+        if (cached != null) {
+            return cached;
+        }
+        if (cache.size() >= MAX_CACHED_CONTEXTS) {
+            cache.clear();
+        }
+        return cache.computeIfAbsent(mc, calculation);
+    }
+
+    /**
+     * Makes transcendental functions remember their most recent results, forgetting the ones remembered so far.
+     *
+     * @param capacity the amount of results to remember, rounded up to a power of two
+     * @throws IllegalArgumentException if the capacity isn't between 1 and 2^30
+     */
+    public static void enableMemo(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid memo capacity: " + capacity + ".");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        memo = new MemoEntry[size];
+        memoHits.reset();
+        memoMisses.reset();
+    }
+
+    /**
+     * Forgets the remembered results and stops remembering new ones.
+     */
+    public static void disableMemo() {
+        memo = null;
+    }
+
+    /**
+     * @return how many results were found in the memo since it was enabled
+     */
+    public static long getMemoHits() {
+        return memoHits.sum();
+    }
+
+    /**
+     * @return how many results had to be calculated while the memo was enabled
+     */
+    public static long getMemoMisses() {
+        return memoMisses.sum();
+    }
+
+    static BigDecimal memoized(MathFunction function, BigDecimal argument, MathContext mc) {
+        final MemoEntry[] entries = memo;
+        if (entries == null) {
+            return function.compute(argument, mc);
+        }
+        int hash = (31 * function.ordinal() + argument.hashCode()) * 31 + mc.hashCode();
+        hash ^= hash >>> 16;
+        final int index = hash & (entries.length - 1);
+        final MemoEntry entry = entries[index];
+        if (entry != null && entry.function == function && entry.mc.equals(mc) && entry.argument.equals(argument)) {
+            memoHits.increment();
+            return entry.result;
+        }
+        memoMisses.increment();
+        final BigDecimal result = function.compute(argument, mc);
+        entries[index] = new MemoEntry(function, argument, mc, result);
+        return result;
+    }
+
+    /**
+     * Entries are immutable, so a thread reading one another thread just wrote sees either the whole entry or the one
+     * it replaced.
+     */
+    private record MemoEntry(MathFunction function, BigDecimal argument, MathContext mc, BigDecimal result) {
+    }
+}
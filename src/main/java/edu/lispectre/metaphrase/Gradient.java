@@ -0,0 +1,68 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The value of an equation along with its partial derivatives with respect to every variable, as calculated by a
+ * {@link GradientEvaluator}. Derivatives are indexed by the slots of the variables.
+ */
+public final class Gradient {
+    private final BigDecimal value;
+    private final String[] variables;
+    private final BigDecimal[] derivatives;
+
+    Gradient(BigDecimal value, String[] variables, BigDecimal[] derivatives) {
+        this.value = value;
+        this.variables = variables;
+        this.derivatives = derivatives;
+    }
+
+    /**
+     * @return the value of the equation
+     */
+    public BigDecimal getValue() {
+        return value;
+    }
+
+    /**
+     * @param identifier the string of text by which the variable is declared in the equation
+     * @return the partial derivative with respect to the variable
+     * @throws IllegalArgumentException if there is no such variable in the equation
+     */
+    public BigDecimal getDerivative(String identifier) {
+        for (int slot = 0; slot < variables.length; slot++) {
+            if (variables[slot].equals(identifier)) {
+                return derivatives[slot];
+            }
+        }
+        throw new IllegalArgumentException("Unknown variable: " + identifier + ".");
+    }
+
+    /**
+     * @param slot slot of the variable
+     * @return the partial derivative with respect to the variable in the given slot
+     * @throws IndexOutOfBoundsException if there is no such slot
+     */
+    public BigDecimal getDerivative(int slot) {
+        return derivatives[slot];
+    }
+
+    /**
+     * @return the identifiers of the variables, ordered by their slots
+     */
+    public List<String> getVariables() {
+        return Collections.unmodifiableList(Arrays.asList(variables));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder().append(value).append(" [");
+        for (int slot = 0; slot < variables.length; slot++) {
+            builder.append(slot > 0 ? ", d/d" : "d/d").append(variables[slot]).append(" = ").append(derivatives[slot]);
+        }
+        return builder.append(']').toString();
+    }
+}
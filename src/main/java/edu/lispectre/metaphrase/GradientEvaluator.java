@@ -0,0 +1,224 @@
+package edu.lispectre.metaphrase;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Evaluates an equation together with its partial derivatives with respect to all of its variables, in a single
+ * traversal of the tree of tokens (forward-mode automatic differentiation).
+ * <p>Every token is evaluated into its value and a vector of derivatives, one per variable slot. The values are
+ * calculated exactly like {@link Expression#eval(Bindings)} calculates them, so {@link Gradient#getValue()} is always
+ * the same as the plain evaluation. The derivatives follow the usual rules of differentiation and are rounded to the
+ * {@code MathContext} of the equation after every operation, just like the values. Unlike finite differences, this
+ * needs one evaluation instead of one per variable and is not thrown off by the choice of a step.
+ * <p>A power is differentiated with respect to both its base and its exponent. The derivative with respect to the
+ * exponent needs the logarithm of the base, so a variable exponent over a negative base throws an
+ * {@code ArithmeticException}, as does a base of zero with an exponent lower than one, where there is no derivative.
+ * <p>When the Expression was parsed with {@link EvaluationLimits}, they are checked just like {@link PostfixExpression}
+ * checks them, with the derivatives held to the same amount of digits as the values. Evaluators are thread-safe.
+ */
+public final class GradientEvaluator {
+    private static final BigDecimal MINUS_ONE = BigDecimal.ONE.negate();
+
+    private final Expression expression;
+
+    /**
+     * @param expression Expression to differentiate
+     */
+    public GradientEvaluator(Expression expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Evaluates the Expression and its derivatives with the given values of its variables.
+     *
+     * @param bindings values of the variables, created with {@link Expression#newBindings()} of the Expression
+     * @return the value of the Expression along with its derivatives with respect to every variable
+     * @throws IllegalArgumentException if the bindings belong to another Expression or a variable has no value
+     * @throws ArithmeticException      if the Expression can't be evaluated or differentiated
+     * @throws LimitExceededException   if the Expression was parsed with limits and the evaluation exceeds them
+     */
+    public Gradient eval(Bindings bindings) {
+        expression.checkBindings(bindings);
+        final String[] variables = expression.getVariables().toArray(new String[0]);
+        final Pass pass = new Pass(bindings, variables.length, expression.getSharedTokens(), expression.getLimits());
+        return pass.gradient(expression.getRoot(), variables);
+    }
+
+    /**
+     * Evaluates a tree of tokens and its derivatives with the current values of the variables of the Tokenizer.
+     *
+     * @param root      top of the tree returned by {@link Parser#parseTokens}
+     * @param tokenizer the Tokenizer which created the tokens of the tree
+     * @return the value of the tree along with its derivatives with respect to every variable in
+     * {@link Tokenizer#getVariables()}
+     * @throws ArithmeticException if the tree can't be evaluated or differentiated
+     */
+    public static Gradient eval(Token root, Tokenizer tokenizer) {
+        final HashMap<String, Token> variableTokens = tokenizer.getVariables();
+        final String[] variables = new String[variableTokens.size()];
+        for (Token token : variableTokens.values()) {
+            final VariableToken variable = (VariableToken) token;
+            variables[variable.slot] = variable.variableIdentifier;
+        }
+        return new Pass(null, variables.length, 0, null).gradient(root, variables);
+    }
+
+    /**
+     * @return the Expression this evaluator differentiates
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * One evaluation. Without bindings, the values of the variables are taken from the tokens themselves.
+     */
+    private static final class Pass extends PostfixWalker<Dual> {
+        private final Bindings bindings;
+        private final int variables;
+        private final Dual[] shared;
+        private final EvaluationLimits limits;
+        private final long deadline;
+
+        private Pass(Bindings bindings, int variables, int sharedTokens, EvaluationLimits limits) {
+            this.bindings = bindings;
+            this.variables = variables;
+            this.shared = new Dual[sharedTokens];
+            this.limits = limits;
+            this.deadline = limits != null ? limits.deadline() : 0;
+            if (limits != null) {
+                for (BigDecimal value : bindings.values) {
+                    limits.checkDigits(value);
+                }
+            }
+        }
+
+        private Gradient gradient(Token root, String[] identifiers) {
+            final Dual result = walk(root, shared);
+            final BigDecimal[] derivatives = new BigDecimal[variables];
+            for (int slot = 0; slot < variables; slot++) {
+                derivatives[slot] = result.tangent != null ? result.tangent[slot] : BigDecimal.ZERO;
+            }
+            return new Gradient(result.value, identifiers, derivatives);
+        }
+
+        @Override
+        Dual leaf(Token token) {
+            if (token.getType() == Token.TokenType.VALUE) {
+                return new Dual(token.val, null);
+            }
+            final VariableToken variable = (VariableToken) token;
+            final BigDecimal[] tangent = new BigDecimal[variables];
+            Arrays.fill(tangent, BigDecimal.ZERO);
+            tangent[variable.slot] = BigDecimal.ONE;
+            return new Dual(bindings != null ? variable.eval(bindings) : variable.eval(), tangent);
+        }
+
+        @Override
+        Dual operator(OperatorToken token, Dual left, Dual right) {
+            if (limits != null && token.operator == Operator.EXPONENT) {
+                limits.checkExponent(right.value);
+            }
+            final BigDecimal value = token.apply(left != null ? left.value : null, right.value);
+            if (limits != null) {
+                limits.checkDigits(value);
+            }
+            if ((left == null || left.tangent == null) && right.tangent == null) {
+                if (limits != null) {
+                    limits.checkTime(deadline);
+                }
+                return new Dual(value, null);
+            }
+            final MathContext mc = token.mc;
+            final BigDecimal[] tangent = switch (token.operator) {
+                case ADDITION -> combine(left.tangent, null, right.tangent, null, mc);
+                case SUBTRACTION -> combine(left.tangent, null, right.tangent, MINUS_ONE, mc);
+                case MULTIPLICATION -> combine(left.tangent, right.value, right.tangent, left.value, mc);
+                case DIVISION -> {
+                    final BigDecimal reciprocal = BigDecimal.ONE.divide(right.value, mc);
+                    yield combine(left.tangent, reciprocal, right.tangent,
+                            value.multiply(reciprocal, mc).negate(), mc);
+                }
+                case UNARYMINUS -> combine(null, null, right.tangent, MINUS_ONE, mc);
+                case FUNCTION -> combine(null, null, right.tangent,
+                        token.function().derivative(right.value, value, mc), mc);
+                case EXPONENT -> combine(left.tangent, left.tangent != null ? baseFactor(left, right, value, mc) : null,
+                        right.tangent, right.tangent != null ? exponentFactor(left, value, mc) : null, mc);
+            };
+            if (limits != null) {
+                for (BigDecimal derivative : tangent) {
+                    limits.checkDigits(derivative);
+                }
+                limits.checkTime(deadline);
+            }
+            return new Dual(value, tangent);
+        }
+
+        /**
+         * The derivative of {@code a^b} with respect to {@code a}: {@code b*a^(b-1)}.
+         */
+        private static BigDecimal baseFactor(Dual base, Dual exponent, BigDecimal power, MathContext mc) {
+            if (base.value.signum() != 0) {
+                return exponent.value.multiply(power, mc).divide(base.value, mc);
+            }
+            if (exponent.value.signum() == 0 && exponent.tangent == null) {
+                return BigDecimal.ZERO;                             // x^0 is one everywhere.
+            }
+            final int comparedToOne = exponent.value.compareTo(BigDecimal.ONE);
+            if (comparedToOne < 0) {
+                throw new ArithmeticException("Power of zero to " + exponent.value + " has no derivative.");
+            }
+            return comparedToOne == 0 ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+
+        /**
+         * The derivative of {@code a^b} with respect to {@code b}: {@code a^b*ln(a)}.
+         */
+        private static BigDecimal exponentFactor(Dual base, BigDecimal power, MathContext mc) {
+            if (power.signum() == 0) {
+                return BigDecimal.ZERO;
+            }
+            if (base.value.signum() < 0) {
+                throw new ArithmeticException("Power of a negative base " + base.value
+                        + " has no derivative with respect to its exponent.");
+            }
+            return power.multiply(BigDecimalMath.log(base.value, mc), mc);
+        }
+
+        /**
+         * Calculates {@code first*firstFactor + second*secondFactor} for every slot. A missing vector stands for
+         * zeros and a missing factor for one.
+         */
+        private BigDecimal[] combine(BigDecimal[] first, BigDecimal firstFactor, BigDecimal[] second,
+                                     BigDecimal secondFactor, MathContext mc) {
+            final BigDecimal[] combined = new BigDecimal[variables];
+            for (int slot = 0; slot < variables; slot++) {
+                final BigDecimal firstTerm = first != null ? scale(first[slot], firstFactor, mc) : BigDecimal.ZERO;
+                final BigDecimal secondTerm = second != null ? scale(second[slot], secondFactor, mc) : BigDecimal.ZERO;
+                if (secondTerm.signum() == 0) {
+                    combined[slot] = firstTerm;
+                } else if (firstTerm.signum() == 0) {
+                    combined[slot] = secondTerm;
+                } else {
+                    combined[slot] = firstTerm.add(secondTerm, mc);
+                }
+            }
+            return combined;
+        }
+
+        private static BigDecimal scale(BigDecimal derivative, BigDecimal factor, MathContext mc) {
+            if (derivative.signum() == 0 || factor == null) {
+                return derivative;
+            }
+            return factor == MINUS_ONE ? derivative.negate() : derivative.multiply(factor, mc);
+        }
+    }
+
+    private record Dual(BigDecimal value, BigDecimal[] tangent) {
+    }
+}
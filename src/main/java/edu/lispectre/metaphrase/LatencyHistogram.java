@@ -0,0 +1,86 @@
+package edu.lispectre.metaphrase;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of latencies in nanoseconds. Every power of two has a bucket of its own, so percentiles are
+ * accurate to a factor of two, which is plenty to tell a slow formula from a fast one, and recording is just a couple
+ * of atomic increments.
+ */
+public final class LatencyHistogram {
+    private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * @param nanos latency to record; negative latencies are recorded as zero
+     */
+    public void record(long nanos) {
+        final long latency = Math.max(nanos, 0);
+        buckets.incrementAndGet(Long.SIZE - 1 - Long.numberOfLeadingZeros(latency | 1));
+        count.increment();
+        total.add(latency);
+        max.accumulate(latency);
+    }
+
+    /**
+     * @return the amount of recorded latencies
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of recorded latencies in nanoseconds
+     */
+    public long getTotalNanos() {
+        return total.sum();
+    }
+
+    /**
+     * @return the longest recorded latency in nanoseconds
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return the upper bound of the bucket holding the given percentile, in nanoseconds, or zero if nothing has been
+     * recorded
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public long getPercentileNanos(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("The percentile has to be between 0 and 100.");
+        }
+        long recorded = 0;
+        for (int bucket = 0; bucket < Long.SIZE; bucket++) {
+            recorded += buckets.get(bucket);
+        }
+        final long rank = (long) Math.ceil(recorded * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < Long.SIZE; bucket++) {
+            seen += buckets.get(bucket);
+            if (seen >= rank && seen > 0) {
+                return (2L << bucket) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Forgets all recorded latencies.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < Long.SIZE; bucket++) {
+            buckets.set(bucket, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+}
@@ -0,0 +1,33 @@
+package edu.lispectre.metaphrase;
+
+/**
+ * Thrown when tokenizing or evaluating an equation exceeds one of its {@link EvaluationLimits}.
+ */
+public class LimitExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final Limit limit;
+
+    LimitExceededException(Limit limit, String message) {
+        super(message);
+        this.limit = limit;
+    }
+
+    /**
+     * @return the limit which was exceeded
+     */
+    public Limit getLimit() {
+        return limit;
+    }
+
+    /**
+     * The limits of {@link EvaluationLimits}.
+     */
+    public enum Limit {
+        NESTING_DEPTH,
+        TOKENS,
+        EXPONENT,
+        DIGITS,
+        TIME
+    }
+}
@@ -1,6 +1,13 @@
 package edu.lispectre.metaphrase;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Scanner;
@@ -10,8 +17,42 @@ import java.util.regex.Pattern;
 import static edu.lispectre.metaphrase.Parser.parseTokens;
 
 public class Main {
-    public static void main(String[] args) {
-        repl();
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equalsIgnoreCase("serve")) {
+            serve(args.length > 1 ? Integer.parseInt(args[1]) : EvaluationServer.DEFAULT_PORT);
+        } else if (args.length > 0 && args[0].equalsIgnoreCase("bulk")) {
+            bulk(args.length > 1 ? Path.of(args[1]) : null);
+        } else {
+            repl();
+        }
+    }
+
+    /**
+     * Starts an {@link EvaluationServer} on the port, serving until the process is stopped.
+     *
+     * @param port port to listen on
+     * @throws IOException if the port can't be listened on
+     */
+    public static void serve(int port) throws IOException {
+        final EvaluationServer server = new EvaluationServer(port);
+        System.out.println("Listening on localhost:" + server.getPort() + ". Send lines like '20;x*y+1;x=2;y=3.5'.");
+    }
+
+    /**
+     * Evaluates the equations of a file, or of the standard input, with a {@link BulkEvaluator}, printing their
+     * results to the standard output and the throughput to the standard error.
+     *
+     * @param input file with one equation per line, or {@code null} to read the standard input
+     * @throws IOException if the file can't be read
+     */
+    public static void bulk(Path input) throws IOException {
+        try (Reader reader = input != null ? Files.newBufferedReader(input)
+                : new InputStreamReader(System.in, StandardCharsets.UTF_8)) {
+            final BulkEvaluator.Summary summary = BulkEvaluator.evaluate(reader, System.out, new MathContext(10));
+            final double seconds = (double) summary.nanos() / 1_000_000_000;
+            System.err.printf("Evaluated %d equations (%d failed) in %f seconds. (%f equations/s)%n",
+                    summary.equations(), summary.failedEquations(), seconds, summary.getThroughput());
+        }
     }
 
     public static void repl() {
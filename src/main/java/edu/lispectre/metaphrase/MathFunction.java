@@ -0,0 +1,188 @@
+package edu.lispectre.metaphrase;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The functions which can be called in equations, like {@code sqrt(x)}, each taking a single argument. Besides them,
+ * the constants {@code pi()} and {@code e()} are written like calls without arguments; those are replaced by their
+ * values while tokenizing (see {@link Functions}).
+ * <p>Values are computed with {@code BigDecimalMath} and rounded to the {@code MathContext} of the call, which has to
+ * have a limited precision for everything except {@link #ABS}. Transcendental functions go through the memo of
+ * {@link Functions} when it's enabled.
+ */
+enum MathFunction {
+    SQRT("sqrt", false, 1),
+    LN("ln", true, 1),
+    LOG10("log10", true, 1),
+    LOG2("log2", true, 1),
+    EXP("exp", true, 1),
+    SIN("sin", true, 0),
+    COS("cos", true, 0),
+    TAN("tan", true, 0),
+    ASIN("asin", true, 1),
+    ACOS("acos", true, -1),
+    ATAN("atan", true, 1),
+    SINH("sinh", true, 1),
+    COSH("cosh", true, 0),
+    TANH("tanh", true, 1),
+    ABS("abs", false, 0);
+
+    private static final MathFunction[] FUNCTIONS = values();
+
+    final String identifier;
+    final boolean transcendental;
+    /**
+     * {@code 1} if the function is increasing over its whole domain, {@code -1} if decreasing, {@code 0} if neither.
+     */
+    final int monotonicity;
+
+    MathFunction(String identifier, boolean transcendental, int monotonicity) {
+        this.identifier = identifier;
+        this.transcendental = transcendental;
+        this.monotonicity = monotonicity;
+    }
+
+    /**
+     * @return the function with the identifier between the indices, or {@code null} if there is none
+     */
+    static MathFunction byIdentifier(CharSequence equation, int start, int end) {
+        for (MathFunction function : FUNCTIONS) {
+            final String identifier = function.identifier;
+            if (identifier.length() == end - start && identifier.contentEquals(equation.subSequence(start, end))) {
+                return function;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Calculates the function, called from the code generated by the {@link ExpressionCompiler}.
+     *
+     * @param function ordinal of the function
+     */
+    static BigDecimal apply(BigDecimal argument, MathContext mc, int function) {
+        return FUNCTIONS[function].apply(argument, mc);
+    }
+
+    /**
+     * Calculates the function with {@code double}s, called from {@link PostfixExpression}.
+     *
+     * @param function ordinal of the function
+     */
+    static double applyDouble(double argument, int function) {
+        return FUNCTIONS[function].applyDouble(argument);
+    }
+
+    /**
+     * Calculates the function, through the memo of {@link Functions} for transcendental functions.
+     *
+     * @throws ArithmeticException if the argument is out of the domain of the function or the precision is unlimited
+     */
+    BigDecimal apply(BigDecimal argument, MathContext mc) {
+        if (this == ABS) {
+            return argument.abs(mc);
+        }
+        if (mc.getPrecision() == 0) {
+            throw new ArithmeticException(identifier + "() needs a limited precision.");
+        }
+        return transcendental ? Functions.memoized(this, argument, mc) : compute(argument, mc);
+    }
+
+    BigDecimal compute(BigDecimal argument, MathContext mc) {
+        return switch (this) {
+            case SQRT -> BigDecimalMath.sqrt(argument, mc);
+            case LN -> BigDecimalMath.log(argument, mc);
+            case LOG10 -> logarithm(argument, mc, Functions.ln10(widened(mc)));
+            case LOG2 -> logarithm(argument, mc, Functions.ln2(widened(mc)));
+            case EXP -> BigDecimalMath.exp(argument, mc);
+            case SIN -> BigDecimalMath.sin(argument, mc);
+            case COS -> BigDecimalMath.cos(argument, mc);
+            case TAN -> BigDecimalMath.tan(argument, mc);
+            case ASIN -> BigDecimalMath.asin(argument, mc);
+            case ACOS -> BigDecimalMath.acos(argument, mc);
+            case ATAN -> BigDecimalMath.atan(argument, mc);
+            case SINH -> BigDecimalMath.sinh(argument, mc);
+            case COSH -> BigDecimalMath.cosh(argument, mc);
+            case TANH -> BigDecimalMath.tanh(argument, mc);
+            case ABS -> argument.abs(mc);
+        };
+    }
+
+    /**
+     * Divides the natural logarithm by the logarithm of the base, both with a few more digits so that the result is
+     * rounded only once.
+     */
+    private static BigDecimal logarithm(BigDecimal argument, MathContext mc, BigDecimal lnOfBase) {
+        return BigDecimalMath.log(argument, widened(mc)).divide(lnOfBase, mc);
+    }
+
+    private static MathContext widened(MathContext mc) {
+        return new MathContext(mc.getPrecision() + 4, mc.getRoundingMode());
+    }
+
+    double applyDouble(double argument) {
+        return switch (this) {
+            case SQRT -> Math.sqrt(argument);
+            case LN -> Math.log(argument);
+            case LOG10 -> Math.log10(argument);
+            case LOG2 -> Math.log(argument) / Math.log(2);
+            case EXP -> Math.exp(argument);
+            case SIN -> Math.sin(argument);
+            case COS -> Math.cos(argument);
+            case TAN -> Math.tan(argument);
+            case ASIN -> Math.asin(argument);
+            case ACOS -> Math.acos(argument);
+            case ATAN -> Math.atan(argument);
+            case SINH -> Math.sinh(argument);
+            case COSH -> Math.cosh(argument);
+            case TANH -> Math.tanh(argument);
+            case ABS -> Math.abs(argument);
+        };
+    }
+
+    /**
+     * Calculates the derivative of the function at the argument.
+     *
+     * @param value the value of the function at the argument
+     * @throws ArithmeticException if the function has no derivative at the argument
+     */
+    BigDecimal derivative(BigDecimal argument, BigDecimal value, MathContext mc) {
+        return switch (this) {
+            case SQRT -> BigDecimal.ONE.divide(value.add(value), mc);
+            case LN -> BigDecimal.ONE.divide(argument, mc);
+            case LOG10 -> BigDecimal.ONE.divide(argument.multiply(Functions.ln10(mc), mc), mc);
+            case LOG2 -> BigDecimal.ONE.divide(argument.multiply(Functions.ln2(mc), mc), mc);
+            case EXP -> value;
+            case SIN -> COS.apply(argument, mc);
+            case COS -> SIN.apply(argument, mc).negate();
+            case TAN -> BigDecimal.ONE.add(value.multiply(value, mc), mc);
+            case ASIN -> BigDecimal.ONE.divide(complementOfSquare(argument, mc), mc);
+            case ACOS -> BigDecimal.ONE.divide(complementOfSquare(argument, mc), mc).negate();
+            case ATAN -> BigDecimal.ONE.divide(BigDecimal.ONE.add(argument.multiply(argument, mc), mc), mc);
+            case SINH -> COSH.apply(argument, mc);
+            case COSH -> SINH.apply(argument, mc);
+            case TANH -> BigDecimal.ONE.subtract(value.multiply(value, mc), mc);
+            case ABS -> {
+                if (argument.signum() == 0) {
+                    throw new ArithmeticException("abs() has no derivative at zero.");
+                }
+                yield BigDecimal.valueOf(argument.signum());
+            }
+        };
+    }
+
+    /**
+     * @return {@code sqrt(1 - x^2)}
+     */
+    private static BigDecimal complementOfSquare(BigDecimal argument, MathContext mc) {
+        return BigDecimalMath.sqrt(BigDecimal.ONE.subtract(argument.multiply(argument, mc), mc), mc);
+    }
+
+    @Override
+    public String toString() {
+        return identifier;
+    }
+}
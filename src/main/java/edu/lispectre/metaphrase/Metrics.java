@@ -0,0 +1,169 @@
+package edu.lispectre.metaphrase;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.util.ArrayDeque;
+
+/**
+ * Opt-in instrumentation of tokenizing, parsing and evaluating.
+ * <p>Measurements are reported to the {@link MetricsRegistry} installed with {@link #enable(MetricsRegistry)} and as
+ * JDK Flight Recorder events ({@code metaphrase.Tokenize}, {@code metaphrase.Parse} and {@code metaphrase.Eval}),
+ * which are recorded whenever a recording has them enabled. When there is no registry and no recording, all that is
+ * left of the instrumentation is a read of a volatile field and a disabled event, which the JIT removes.
+ * <p>Only the public entry points are measured: {@link Tokenizer#tokenizeEquation(String, java.math.MathContext)},
+ * {@link Parser#parseTokens(java.util.ArrayList, java.math.MathContext)} and {@link Expression#eval(Bindings)}, along
+ * with everything calling them. Calls of {@link Token#eval()} on a tree directly are not measured, as every token of
+ * the tree is evaluated by such a call.
+ */
+public final class Metrics {
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+    private static volatile MetricsRegistry registry;
+
+    private Metrics() {
+    }
+
+    /**
+     * Starts reporting measurements to the registry, replacing any registry enabled before.
+     *
+     * @param metricsRegistry registry to report to
+     */
+    public static void enable(MetricsRegistry metricsRegistry) {
+        if (metricsRegistry == null) {
+            throw new IllegalArgumentException("The registry can't be null; use disable() instead.");
+        }
+        registry = metricsRegistry;
+    }
+
+    /**
+     * Stops reporting measurements to the registry. Flight Recorder events are not affected.
+     */
+    public static void disable() {
+        registry = null;
+    }
+
+    /**
+     * @return the registry receiving measurements, or {@code null} if there is none
+     */
+    public static MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return the current time if there is a registry to report to, or a marker telling not to report anything
+     */
+    static long start() {
+        return registry != null ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * The equation is only turned into a {@code String} when the event is recorded, so tokenizing a part of a larger
+     * sequence copies nothing while metrics are off.
+     */
+    static void tokenized(TokenizeEvent event, long start, CharSequence equation, int from, int to, int tokens,
+                          int nestingDepth) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.equation = equation.subSequence(from, to).toString();
+            event.tokens = tokens;
+            event.nestingDepth = nestingDepth;
+            event.commit();
+        }
+        final MetricsRegistry metricsRegistry = registry;
+        if (start != NOT_TIMED && metricsRegistry != null) {
+            metricsRegistry.tokenized(System.nanoTime() - start, tokens, nestingDepth);
+        }
+    }
+
+    static void parsed(ParseEvent event, long start, Token root) {
+        event.end();
+        final long nanos = System.nanoTime() - start;
+        final MetricsRegistry metricsRegistry = registry;
+        final boolean report = start != NOT_TIMED && metricsRegistry != null;
+        if (!report && !event.shouldCommit()) {
+            return;
+        }
+        int nodes = 0;
+        int exponents = 0;
+        int divisions = 0;
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.pop();
+            nodes++;
+            if (token.getType() == Token.TokenType.OPERATOR) {
+                if (token.operator == Operator.EXPONENT) {
+                    exponents++;
+                } else if (token.operator == Operator.DIVISION) {
+                    divisions++;
+                }
+                toVisit.push(token.right);
+                if (token.left != null) {
+                    toVisit.push(token.left);
+                }
+            }
+        }
+        if (event.shouldCommit()) {
+            event.nodes = nodes;
+            event.exponents = exponents;
+            event.divisions = divisions;
+            event.commit();
+        }
+        if (report) {
+            metricsRegistry.parsed(nanos, nodes, exponents, divisions);
+        }
+    }
+
+    static void evaluated(EvalEvent event, long start, String equation) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.equation = equation;
+            event.commit();
+        }
+        final MetricsRegistry metricsRegistry = registry;
+        if (start != NOT_TIMED && metricsRegistry != null) {
+            metricsRegistry.evaluated(System.nanoTime() - start);
+        }
+    }
+
+    @Name("metaphrase.Tokenize")
+    @Label("Tokenize Equation")
+    @Category("Metaphrase")
+    static final class TokenizeEvent extends Event {
+        @Label("Equation")
+        String equation;
+
+        @Label("Tokens")
+        @Description("Tokens created, including those in parentheses")
+        int tokens;
+
+        @Label("Nesting Depth")
+        @Description("How deeply the parentheses are nested")
+        int nestingDepth;
+    }
+
+    @Name("metaphrase.Parse")
+    @Label("Parse Tokens")
+    @Category("Metaphrase")
+    static final class ParseEvent extends Event {
+        @Label("Nodes")
+        int nodes;
+
+        @Label("Exponents")
+        int exponents;
+
+        @Label("Divisions")
+        int divisions;
+    }
+
+    @Name("metaphrase.Eval")
+    @Label("Evaluate Expression")
+    @Category("Metaphrase")
+    static final class EvalEvent extends Event {
+        @Label("Equation")
+        String equation;
+    }
+}
@@ -0,0 +1,35 @@
+package edu.lispectre.metaphrase;
+
+/**
+ * Receives measurements of tokenizing, parsing and evaluating equations, once it is installed with
+ * {@link Metrics#enable(MetricsRegistry)}. Implementations are called by every thread doing any of those, so they have
+ * to be thread-safe; {@link DefaultMetricsRegistry} keeps latency histograms and totals.
+ */
+public interface MetricsRegistry {
+    /**
+     * Called after {@link Tokenizer#tokenizeEquation(String, java.math.MathContext)}. Tokenizing includes parsing the
+     * equations in parentheses, as they are parsed as soon as they are closed.
+     *
+     * @param nanos        how long tokenizing took
+     * @param tokens       amount of tokens created, including those in parentheses
+     * @param nestingDepth how deeply the parentheses of the equation are nested
+     */
+    void tokenized(long nanos, int tokens, int nestingDepth);
+
+    /**
+     * Called after {@link Parser#parseTokens(java.util.ArrayList, java.math.MathContext)}.
+     *
+     * @param nanos     how long parsing took
+     * @param nodes     amount of tokens in the parsed tree
+     * @param exponents amount of exponentiations in the tree
+     * @param divisions amount of divisions in the tree
+     */
+    void parsed(long nanos, int nodes, int exponents, int divisions);
+
+    /**
+     * Called after {@link Expression#eval(Bindings)}, also when the evaluation throws.
+     *
+     * @param nanos how long evaluating took
+     */
+    void evaluated(long nanos);
+}
@@ -7,4 +7,5 @@ public enum Operator {
     DIVISION,
     ADDITION,
     SUBTRACTION,
+    FUNCTION,
 }
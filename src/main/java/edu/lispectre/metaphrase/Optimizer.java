@@ -0,0 +1,219 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Rewrites the tree of tokens of an {@link Expression} into a smaller one, evaluating to the very same results:
+ * <ul>
+ *     <li>operators with only values as operands are calculated once, under the Expression's {@code MathContext},
+ *     and replaced by a value (operations which throw, like a division by zero, are left for the evaluation),</li>
+ *     <li>multiplications by {@code -1.0}, which is how the {@link Parser} creates unary minuses, become negations,</li>
+ *     <li>identical subtrees are merged, so the tree becomes a directed acyclic graph whose shared tokens are
+ *     evaluated once per evaluation.</li>
+ * </ul>
+ * The original tree is left untouched; only values and variables are reused in the new one.
+ */
+final class Optimizer {
+    private static final BigDecimal MINUS_ONE = new BigDecimal("-1.0");
+
+    private final HashMap<BigDecimal, Token> values = new HashMap<>();
+    private final HashMap<OperatorKey, Token> operators = new HashMap<>();
+    private final IdentityHashMap<Token, Token> rewritten = new IdentityHashMap<>();
+
+    private Optimizer() {
+    }
+
+    /**
+     * Optimizes the trees of tokens together, merging identical subtrees of different trees just like those of a
+     * single one. A tree which is also a subtree of another, or identical to another, ends up as one token shared by
+     * both.
+     *
+     * @param roots tops of the trees to optimize
+     * @return the optimized trees in the same order, along with the amount of shared tokens and removed tokens
+     */
+    static Result optimize(final Token... roots) {
+        final Optimizer optimizer = new Optimizer();
+        final Token[] optimizedRoots = new Token[roots.length];
+        for (int i = 0; i < roots.length; i++) {
+            optimizedRoots[i] = optimizer.rewrite(roots[i]);
+        }
+        final int sharedTokens = assignSharedSlots(optimizedRoots);
+        return new Result(optimizedRoots, sharedTokens, countTokens(roots) - countTokens(optimizedRoots));
+    }
+
+    /**
+     * Rewrites the tree bottom-up. The tree is walked with a stack of its own instead of recursion, so however deep it
+     * is, the thread's stack can't overflow.
+     */
+    private Token rewrite(final Token root) {
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.peek();
+            if (token.getType() != Token.TokenType.OPERATOR || rewritten.containsKey(token)) {
+                toVisit.pop();
+                continue;
+            }
+            final Token left = token.left != null ? rewritten(token.left) : null;
+            final Token right = rewritten(token.right);
+            if (right == null || token.left != null && left == null) {
+                if (right == null) {
+                    toVisit.push(token.right);
+                }
+                if (token.left != null && left == null) {
+                    toVisit.push(token.left);
+                }
+                continue;
+            }
+            toVisit.pop();
+            rewritten.put(token, combine(token.operator, ((OperatorToken) token).function(), left, right, token.mc));
+        }
+        return rewritten(root);
+    }
+
+    /**
+     * @return the rewritten token, or {@code null} if it's an operator which hasn't been rewritten yet
+     */
+    private Token rewritten(final Token token) {
+        return switch (token.getType()) {
+            case VARIABLE -> token;
+            case VALUE -> values.computeIfAbsent(token.val, value -> token);
+            case OPERATOR -> rewritten.get(token);
+        };
+    }
+
+    private Token combine(Operator operator, final MathFunction function, Token left, Token right,
+                          final MathContext mc) {
+        if (operator == Operator.MULTIPLICATION && isMinusOne(left)) {
+            operator = Operator.UNARYMINUS;
+            left = null;
+        } else if (operator == Operator.MULTIPLICATION && isMinusOne(right)) {
+            operator = Operator.UNARYMINUS;
+            right = left;
+            left = null;
+        }
+        final OperatorToken combined = Specializations.create(operator, function, left, right, mc);
+        if ((left == null || left.getType() == Token.TokenType.VALUE) && right.getType() == Token.TokenType.VALUE) {
+            try {
+                final BigDecimal folded = combined.eval(null);
+                return values.computeIfAbsent(folded, value -> new ValueToken(value, mc));
+            } catch (ArithmeticException | UnsupportedOperationException ex) {
+                // Left for the evaluation to throw.
+            }
+        }
+        return operators.computeIfAbsent(new OperatorKey(operator, function, left, right, mc), key -> combined);
+    }
+
+    private static boolean isMinusOne(final Token token) {
+        return token.getType() == Token.TokenType.VALUE && MINUS_ONE.equals(token.val);
+    }
+
+    /**
+     * Gives a slot to every operator which has more than one parent. The graph is walked once from the tops, so each
+     * edge between a parent and its operand is counted once; every top counts as a parent of its own.
+     */
+    private static int assignSharedSlots(final Token... roots) {
+        final IdentityHashMap<Token, Integer> parents = new IdentityHashMap<>();
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        for (Token root : roots) {
+            if (parents.merge(root, 1, Integer::sum) == 1) {
+                toVisit.push(root);
+            }
+        }
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.pop();
+            if (token.getType() != Token.TokenType.OPERATOR) {
+                continue;
+            }
+            for (Token operand : new Token[]{token.left, token.right}) {
+                if (operand != null && parents.merge(operand, 1, Integer::sum) == 1) {
+                    toVisit.push(operand);
+                }
+            }
+        }
+        int sharedTokens = 0;
+        for (Map.Entry<Token, Integer> operand : parents.entrySet()) {
+            if (operand.getValue() > 1 && operand.getKey() instanceof OperatorToken operator) {
+                operator.sharedSlot = sharedTokens++;
+            }
+        }
+        return sharedTokens;
+    }
+
+    /**
+     * Counts the distinct tokens of trees or a graph.
+     */
+    static int countTokens(final Token... roots) {
+        final IdentityHashMap<Token, Boolean> seen = new IdentityHashMap<>();
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        for (Token root : roots) {
+            toVisit.push(root);
+        }
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.pop();
+            if (token == null || seen.put(token, Boolean.TRUE) != null) {
+                continue;
+            }
+            if (token.getType() == Token.TokenType.OPERATOR) {
+                toVisit.push(token.right);
+                if (token.left != null) {
+                    toVisit.push(token.left);
+                }
+            }
+        }
+        return seen.size();
+    }
+
+    /**
+     * Measures the length of the longest path from the top of a tree or a graph to a value or a variable, which is
+     * how deep evaluating it recursively goes.
+     */
+    static int depthOf(final Token root) {
+        final IdentityHashMap<Token, Integer> depths = new IdentityHashMap<>();
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        toVisit.push(root);
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.peek();
+            if (token.getType() != Token.TokenType.OPERATOR || depths.containsKey(token)) {
+                toVisit.pop();
+                continue;
+            }
+            final Integer left = token.left != null ? depthOf(depths, token.left) : Integer.valueOf(0);
+            final Integer right = depthOf(depths, token.right);
+            if (left == null || right == null) {
+                if (right == null) {
+                    toVisit.push(token.right);
+                }
+                if (left == null) {
+                    toVisit.push(token.left);
+                }
+                continue;
+            }
+            toVisit.pop();
+            depths.put(token, Math.max(left, right) + 1);
+        }
+        return depthOf(depths, root);
+    }
+
+    private static Integer depthOf(final IdentityHashMap<Token, Integer> depths, final Token token) {
+        return token.getType() == Token.TokenType.OPERATOR ? depths.get(token) : Integer.valueOf(0);
+    }
+
+    /**
+     * Operands are compared by identity; identical subtrees are merged bottom-up, so by the time their parents are
+     * compared they already are the very same tokens.
+     */
+    private record OperatorKey(Operator operator, MathFunction function, Token left, Token right, MathContext mc) {
+    }
+
+    record Result(Token[] roots, int sharedTokens, int removedTokens) {
+        Token root() {
+            return roots[0];
+        }
+    }
+}
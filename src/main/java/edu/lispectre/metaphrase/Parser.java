@@ -3,88 +3,122 @@ package edu.lispectre.metaphrase;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Objects;
 
+/**
+ * Builds an abstract syntax tree out of the tokens created by the {@link Tokenizer}.
+ * <p>The tokens are parsed with precedence climbing, in a single pass from left to right. Operators of the same
+ * precedence are left-associative and unary minus binds tighter than any binary operator, so for example
+ * {@code -2^2} evaluates to {@code 4} and {@code 2^3^2} to {@code 64}. Calls of functions reach the Parser already
+ * parsed, just like equations in parentheses. The list of tokens is only read, never modified.
+ */
 public class Parser {
+    /**
+     * The left operand of every unary minus. Values are never modified, so all the trees share this one.
+     */
+    private static final ValueToken MINUS_ONE = new ValueToken(new BigDecimal("-1.0"));
+
     public static Token parseTokens(final ArrayList<Token> tokens, final MathContext mathContextFromTokenizer) {
+        final Metrics.ParseEvent event = new Metrics.ParseEvent();
+        event.begin();
+        final long start = Metrics.start();
+        final Token parsedEquation = parse(tokens, mathContextFromTokenizer);
+        Metrics.parsed(event, start, parsedEquation);
+        return parsedEquation;
+    }
+
+    /**
+     * Parses the tokens without reporting any {@link Metrics}, used by the {@link Tokenizer} for equations in
+     * parentheses.
+     */
+    static Token parse(final ArrayList<Token> tokens, final MathContext mathContextFromTokenizer) {
         if (tokens.isEmpty()) {
             throw new RuntimeException("Trying to parse an empty equation.");
         }
-        // Base condition:
-        if (tokens.size() == 1) {
-            return tokens.getFirst();
+        final Cursor cursor = new Cursor(tokens, mathContextFromTokenizer);
+        final Token parsedEquation = cursor.parseBinary(Precedence.ADDSUB);
+        if (cursor.position < tokens.size()) {
+            throw new RuntimeException("Unexpected token in the equation: " + tokens.get(cursor.position) + ".");
         }
+        return parsedEquation;
+    }
 
-        for (Precedence op : Precedence.values()){
-            for (int i = 0; i < tokens.size(); i++) {
-                Token token = tokens.get(i);
-                if (token == null) {
-                    continue;                                       // Token was consumed as operand.
-                }
-                if (token.getType() != Token.TokenType.OPERATOR){
-                    continue;                                       // Token is a variable or a value.
-                }
-                if (token.left != null && token.right != null){
-                    continue;                                       // Token already has operands.
-                }
-                Precedence tokenPrecedence = switch (token.operator) {
-                    case UNARYMINUS -> Precedence.UNARY;
-                    case EXPONENT -> Precedence.EXPONENT;
-                    case MULTIPLICATION, DIVISION -> Precedence.MULDIV;
-                    case ADDITION, SUBTRACTION -> Precedence.ADDSUB;
-                };
-                if (tokenPrecedence == op) {
-                    Token parsedToken;
-                    if (tokenPrecedence == Precedence.UNARY) {
-                        /* This means the next token regardless of its type or value will become an operand
-                         * in a multiplication, along with a -1.0 value token. */
-                        parsedToken = unaryMinus(tokens, i, mathContextFromTokenizer);
-                    } else {
-                        // This means the rightmost and leftmost tokens are this token's operands.
-                        ArrayList<Token> operands = getAndConsumeOperands(tokens, i);
-                        parsedToken = new OperatorToken(token.operator,
-                                operands.get(0),
-                                operands.get(1),
-                                mathContextFromTokenizer);
-                    }
-                    tokens.set(i, parsedToken);
-                }
-            }
-        }
-        tokens.removeIf(Objects::isNull);
-        return parseTokens(tokens, mathContextFromTokenizer);
+    /**
+     * Checks whether the token is an operator which has not received its operands yet. Equations in parentheses are
+     * already parsed by the time they reach the Parser, so their operators count as operands here.
+     */
+    private static boolean isUnboundOperator(final Token token) {
+        return token.getType() == Token.TokenType.OPERATOR && token.right == null;
     }
 
-    private static Token unaryMinus(ArrayList<Token> list, int index, MathContext mathContextFromTokenizer) {
-        Token token = new OperatorToken(Operator.MULTIPLICATION,
-                new ValueToken(new BigDecimal("-1.0")),
-                list.get(index + 1),
-                mathContextFromTokenizer);
-        list.remove(index + 1);
-        return token;
+    private static Precedence precedenceOf(final Operator operator) {
+        return switch (operator) {
+            case UNARYMINUS, FUNCTION -> Precedence.UNARY;
+            case EXPONENT -> Precedence.EXPONENT;
+            case MULTIPLICATION, DIVISION -> Precedence.MULDIV;
+            case ADDITION, SUBTRACTION -> Precedence.ADDSUB;
+        };
     }
 
-    private static <T> ArrayList<T> getAndConsumeOperands(ArrayList<T> list, int index) {
-        ArrayList<T> pairClosest = new ArrayList<>(Collections.nCopies(2, null));
+    private static Token unaryMinus(final Token operand, final MathContext mathContextFromTokenizer) {
+        return Specializations.create(Operator.MULTIPLICATION, MINUS_ONE, operand, mathContextFromTokenizer);
+    }
+
+    /**
+     * Position in the list of tokens which is being parsed.
+     */
+    private static final class Cursor {
+        private final ArrayList<Token> tokens;
+        private final MathContext mc;
+        private int position;
 
-        for (int i = index-1; i>=0; i--){
-            T closestLeft = list.get(i);
-            if (closestLeft != null){
-                pairClosest.set(0, closestLeft);
-                list.set(i, null);
-                break;
+        private Cursor(final ArrayList<Token> tokens, final MathContext mc) {
+            this.tokens = tokens;
+            this.mc = mc;
+        }
+
+        /**
+         * Parses binary operations whose operators have at least the given precedence. Operands of an operator are
+         * parsed with the next, tighter precedence, so the recursion is never deeper than the amount of precedences.
+         */
+        private Token parseBinary(final Precedence lowest) {
+            if (lowest == Precedence.UNARY) {
+                return parseOperand();
+            }
+            final Precedence tighter = Precedence.values()[lowest.ordinal() - 1];
+            Token left = parseBinary(tighter);
+            while (position < tokens.size()) {
+                final Token token = tokens.get(position);
+                if (!isUnboundOperator(token) || precedenceOf(token.operator) != lowest) {
+                    break;
+                }
+                position++;
+                left = Specializations.create(token.operator, left, parseBinary(tighter), mc);
             }
+            return left;
         }
-        for (int i = index+1; i<list.size(); i++){
-            T closestRight = list.get(i);
-            if (closestRight != null){
-                pairClosest.set(1, closestRight);
-                list.set(i, null);
-                break;
+
+        /**
+         * Parses a single operand, along with any unary minuses in front of it.
+         */
+        private Token parseOperand() {
+            int unaryMinuses = 0;
+            while (position < tokens.size() && isUnboundOperator(tokens.get(position))) {
+                final Token token = tokens.get(position);
+                if (token.operator != Operator.UNARYMINUS) {
+                    throw new RuntimeException("Missing operand before the '" + token + "' operator.");
+                }
+                unaryMinuses++;
+                position++;
+            }
+            if (position == tokens.size()) {
+                throw new RuntimeException("Missing operand at the end of the equation.");
+            }
+            Token operand = tokens.get(position++);
+            for (; unaryMinuses > 0; unaryMinuses--) {
+                operand = unaryMinus(operand, mc);
             }
+            return operand;
         }
-        return pairClosest;
     }
 
     private enum Precedence{
@@ -0,0 +1,320 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import static ch.obermuhlner.math.big.BigDecimalMath.pow;
+
+/**
+ * An {@link Expression} flattened into postfix instructions with {@link Expression#toPostfix()}.
+ * <p>Instead of a tree of tokens, the equation is an array of opcodes, with a parallel array of operands holding the
+ * index of a constant, a variable slot, a shared value or the ordinal of a {@link MathFunction}. Evaluation is a single
+ * loop over the instructions, pushing operands onto a stack and replacing them with the results of operators, so there
+ * is no recursion however deeply the equation is nested and no objects besides the {@code BigDecimal}s themselves.
+ * The stack is kept in the {@link Bindings} and reused by every evaluation with them.
+ * <p>Operators run in the same order and with the same {@code MathContext} as in the tree, so the results are
+ * identical to those of {@link Expression#eval(Bindings)}. Tokens shared by several parents (see {@link Optimizer})
+ * are calculated where they first appear and stored, then loaded wherever else they are used.
+ */
+public final class PostfixExpression {
+    static final int PUSH_CONSTANT = 0;
+    static final int PUSH_VARIABLE = 1;
+    static final int LOAD_SHARED = 2;
+    static final int STORE_SHARED = 3;
+    static final int EXPONENT = 4;
+    static final int MULTIPLICATION = 5;
+    static final int DIVISION = 6;
+    static final int ADDITION = 7;
+    static final int SUBTRACTION = 8;
+    static final int NEGATION = 9;
+    static final int FUNCTION = 10;
+
+    private final Expression expression;
+    private final MathContext mc;
+    private final int[] opcodes;
+    private final int[] operands;
+    private final BigDecimal[] constants;
+    private final int maxStack;
+
+    private PostfixExpression(Expression expression, int[] opcodes, int[] operands, BigDecimal[] constants,
+                              int maxStack) {
+        this.expression = expression;
+        this.mc = expression.getMathContext();
+        this.opcodes = opcodes;
+        this.operands = operands;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    /**
+     * Flattens the tree of tokens of the Expression, walking it in postfix order without recursion.
+     */
+    static PostfixExpression of(Expression expression) {
+        final Builder builder = new Builder();
+        builder.walk(expression.getRoot(), new Integer[expression.getSharedTokens()]);
+        return builder.build(expression);
+    }
+
+    private static int opcodeOf(Operator operator) {
+        return switch (operator) {
+            case EXPONENT -> EXPONENT;
+            case MULTIPLICATION -> MULTIPLICATION;
+            case DIVISION -> DIVISION;
+            case ADDITION -> ADDITION;
+            case SUBTRACTION -> SUBTRACTION;
+            case UNARYMINUS -> NEGATION;
+            case FUNCTION -> FUNCTION;
+        };
+    }
+
+    /**
+     * Evaluates the flattened Expression with the given values of its variables.
+     *
+     * @param bindings values of the variables, created with {@link Expression#newBindings()} of the flattened
+     *                 Expression
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the bindings belong to another Expression or a variable has no value
+     * @throws LimitExceededException   if the Expression was parsed with limits and the evaluation exceeds them
+     */
+    public BigDecimal eval(Bindings bindings) {
+        expression.checkBindings(bindings);
+        return evaluate(bindings, expression.getLimits());
+    }
+
+    /**
+     * Evaluates the instructions with bindings which have already been checked.
+     *
+     * @param limits limits on the exponents, the digits of the results and the time, checked after every operator;
+     *               {@code null} for none
+     * @throws LimitExceededException if any of the limits is exceeded
+     */
+    BigDecimal evaluate(Bindings bindings, EvaluationLimits limits) {
+        bindings.resetShared(expression.getSharedTokens());
+        final BigDecimal[] variables = bindings.values;
+        final BigDecimal[] shared = bindings.shared;
+        final BigDecimal[] stack = bindings.stack(maxStack);
+        long deadline = 0;
+        if (limits != null) {
+            deadline = limits.deadline();
+            for (BigDecimal value : variables) {
+                limits.checkDigits(value);
+            }
+        }
+        int top = -1;
+        try {
+            for (int i = 0; i < opcodes.length; i++) {
+                switch (opcodes[i]) {
+                    case PUSH_CONSTANT -> stack[++top] = constants[operands[i]];
+                    case PUSH_VARIABLE -> stack[++top] = variables[operands[i]];
+                    case LOAD_SHARED -> stack[++top] = shared[operands[i]];
+                    case STORE_SHARED -> shared[operands[i]] = stack[top];
+                    case EXPONENT -> {
+                        top--;
+                        if (limits != null) {
+                            limits.checkExponent(stack[top + 1]);
+                        }
+                        stack[top] = pow(stack[top], stack[top + 1], mc);
+                    }
+                    case MULTIPLICATION -> {
+                        top--;
+                        stack[top] = stack[top].multiply(stack[top + 1], mc);
+                    }
+                    case DIVISION -> {
+                        top--;
+                        stack[top] = stack[top].divide(stack[top + 1], mc);
+                    }
+                    case ADDITION -> {
+                        top--;
+                        stack[top] = stack[top].add(stack[top + 1], mc);
+                    }
+                    case SUBTRACTION -> {
+                        top--;
+                        stack[top] = stack[top].subtract(stack[top + 1], mc);
+                    }
+                    case NEGATION -> stack[top] = OperatorToken.negate(stack[top], mc);
+                    case FUNCTION -> stack[top] = MathFunction.apply(stack[top], mc, operands[i]);
+                    default -> throw new RuntimeException("Something went horribly wrong if you see this error.");
+                }
+                if (limits != null && opcodes[i] >= EXPONENT) {
+                    limits.checkDigits(stack[top]);
+                    limits.checkTime(deadline);
+                }
+            }
+            return stack[0];
+        } finally {
+            Arrays.fill(stack, 0, maxStack, null);
+        }
+    }
+
+    /**
+     * Evaluates the instructions with primitive {@code double}s, giving the same results and throwing the same
+     * exceptions as {@link Token#evalDouble(double[], DoublePolicy)} on the tree. Unlike the tree, the instructions
+     * allocate a stack and an array for the shared values on every call.
+     *
+     * @param values values of the variables, indexed by their slots; their amount has already been checked
+     * @param policy what to do when an operation doesn't produce a finite number
+     * @throws ArithmeticException if the policy is {@link DoublePolicy#STRICT} and an operation doesn't produce a
+     *                             finite number
+     */
+    double evaluateDouble(double[] values, DoublePolicy policy) {
+        final boolean strict = policy == DoublePolicy.STRICT;
+        final double[] shared = new double[expression.getSharedTokens()];
+        final double[] stack = new double[maxStack];
+        int top = -1;
+        for (int i = 0; i < opcodes.length; i++) {
+            double result;
+            switch (opcodes[i]) {
+                case PUSH_CONSTANT -> {
+                    final double constant = constants[operands[i]].doubleValue();
+                    if (strict && Double.isInfinite(constant)) {
+                        throw new ArithmeticException("Overflow");
+                    }
+                    stack[++top] = constant;
+                    continue;
+                }
+                case PUSH_VARIABLE -> {
+                    stack[++top] = values[operands[i]];
+                    continue;
+                }
+                case LOAD_SHARED -> {
+                    stack[++top] = shared[operands[i]];
+                    continue;
+                }
+                case STORE_SHARED -> {
+                    shared[operands[i]] = stack[top];
+                    continue;
+                }
+                case NEGATION -> {
+                    stack[top] = -stack[top];
+                    continue;
+                }
+                case FUNCTION -> result = MathFunction.applyDouble(stack[top], operands[i]);
+                case EXPONENT -> result = Math.pow(stack[top - 1], stack[top]);
+                case MULTIPLICATION -> result = stack[top - 1] * stack[top];
+                case DIVISION -> result = stack[top - 1] / stack[top];
+                case ADDITION -> result = stack[top - 1] + stack[top];
+                case SUBTRACTION -> result = stack[top - 1] - stack[top];
+                default -> throw new RuntimeException("Something went horribly wrong if you see this error.");
+            }
+            if (strict && !Double.isFinite(result)) {
+                if (opcodes[i] == DIVISION && stack[top] == 0) {
+                    throw new ArithmeticException("Division by zero");
+                }
+                throw new ArithmeticException(Double.isNaN(result) ? "Result is not a number" : "Overflow");
+            }
+            if (opcodes[i] != FUNCTION) {
+                top--;
+            }
+            stack[top] = result;
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluates a flattened Expression without variables.
+     *
+     * @return the value of the Expression
+     * @throws IllegalArgumentException if the Expression has variables
+     */
+    public BigDecimal eval() {
+        return eval(expression.newBindings());
+    }
+
+    /**
+     * @return the Expression which was flattened
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    int[] getOpcodes() {
+        return opcodes;
+    }
+
+    int[] getOperands() {
+        return operands;
+    }
+
+    BigDecimal[] getConstants() {
+        return constants;
+    }
+
+    int getMaxStack() {
+        return maxStack;
+    }
+
+    @Override
+    public String toString() {
+        return expression.toString();
+    }
+
+    /**
+     * Collects the instructions while keeping track of how deep the stack gets.
+     */
+    /**
+     * Emits the instructions of the tree while walking it. The result of every token is the index of the instruction
+     * which leaves its value on the stack.
+     */
+    private static final class Builder extends PostfixWalker<Integer> {
+        private int[] opcodes = new int[16];
+        private int[] operands = new int[16];
+        private int size;
+        private int stack;
+        private int maxStack;
+        private final ArrayList<BigDecimal> constants = new ArrayList<>();
+        private final IdentityHashMap<BigDecimal, Integer> constantIndexes = new IdentityHashMap<>();
+
+        private void emit(int opcode, int operand, int stackChange) {
+            if (size == opcodes.length) {
+                opcodes = Arrays.copyOf(opcodes, size * 2);
+                operands = Arrays.copyOf(operands, size * 2);
+            }
+            opcodes[size] = opcode;
+            operands[size] = operand;
+            size++;
+            stack += stackChange;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        @Override
+        Integer leaf(Token token) {
+            if (token.getType() == Token.TokenType.VALUE) {
+                emit(PUSH_CONSTANT, constantIndex(token.val), 1);
+            } else {
+                emit(PUSH_VARIABLE, ((VariableToken) token).slot, 1);
+            }
+            return size - 1;
+        }
+
+        @Override
+        Integer operator(OperatorToken token, Integer left, Integer right) {
+            final MathFunction function = token.function();
+            emit(opcodeOf(token.operator), function != null ? function.ordinal() : 0, token.left != null ? -1 : 0);
+            if (token.sharedSlot >= 0) {
+                emit(STORE_SHARED, token.sharedSlot, 0);
+            }
+            return size - 1;
+        }
+
+        @Override
+        Integer reuse(OperatorToken token, Integer stored) {
+            emit(LOAD_SHARED, token.sharedSlot, 1);
+            return size - 1;
+        }
+
+        private int constantIndex(BigDecimal constant) {
+            return constantIndexes.computeIfAbsent(constant, value -> {
+                constants.add(value);
+                return constants.size() - 1;
+            });
+        }
+
+        private PostfixExpression build(Expression expression) {
+            return new PostfixExpression(expression, Arrays.copyOf(opcodes, size), Arrays.copyOf(operands, size),
+                    constants.toArray(new BigDecimal[0]), maxStack);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package edu.lispectre.metaphrase;
+
+import java.util.ArrayDeque;
+
+/**
+ * Walks a tree of tokens in postfix order, computing a result for every token from the results of its operands.
+ * <p>The tree is walked with stacks of its own rather than by recursion, so that no tree is too deep for it. A shared
+ * token (see {@link Optimizer}) is walked once: its result is stored in its slot of the array given to
+ * {@link #walk(Token, Object[])}, and its later occurrences take the stored result through {@link #reuse} instead of
+ * walking its operands again.
+ *
+ * @param <T> type of the results; never {@code null}, as an empty slot means the shared token wasn't walked yet
+ */
+abstract class PostfixWalker<T> {
+    /**
+     * @param token value or variable token
+     * @return the result of the token
+     */
+    abstract T leaf(Token token);
+
+    /**
+     * @param token operator whose operands have been walked
+     * @param left  result of the left operand, or {@code null} for unary operators
+     * @param right result of the right operand
+     * @return the result of the operator
+     */
+    abstract T operator(OperatorToken token, T left, T right);
+
+    /**
+     * @param token  shared token met again
+     * @param stored result stored in the slot of the token when it was walked
+     * @return the result of this occurrence of the token, by default the stored one
+     */
+    T reuse(OperatorToken token, T stored) {
+        return stored;
+    }
+
+    /**
+     * @param root   top of the tree
+     * @param shared results of the shared tokens by their slots; slots which are already filled aren't walked again
+     * @return the result of the root
+     */
+    final T walk(Token root, T[] shared) {
+        final ArrayDeque<Token> toVisit = new ArrayDeque<>();
+        final ArrayDeque<Boolean> operandsVisited = new ArrayDeque<>();
+        final ArrayDeque<T> results = new ArrayDeque<>();
+        toVisit.push(root);
+        operandsVisited.push(false);
+        while (!toVisit.isEmpty()) {
+            final Token token = toVisit.pop();
+            final boolean visited = operandsVisited.pop();
+            if (token.getType() != Token.TokenType.OPERATOR) {
+                results.push(leaf(token));
+                continue;
+            }
+            final OperatorToken operator = (OperatorToken) token;
+            if (visited) {
+                final T right = results.pop();
+                final T left = operator.left != null ? results.pop() : null;
+                final T result = operator(operator, left, right);
+                if (operator.sharedSlot >= 0) {
+                    shared[operator.sharedSlot] = result;
+                }
+                results.push(result);
+            } else if (operator.sharedSlot >= 0 && shared[operator.sharedSlot] != null) {
+                results.push(reuse(operator, shared[operator.sharedSlot]));
+            } else {
+                toVisit.push(operator);
+                operandsVisited.push(true);
+                toVisit.push(operator.right);
+                operandsVisited.push(false);
+                if (operator.left != null) {
+                    toVisit.push(operator.left);
+                    operandsVisited.push(false);
+                }
+            }
+        }
+        return results.pop();
+    }
+}
@@ -0,0 +1,332 @@
+package edu.lispectre.metaphrase;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Evaluates an {@link Expression} with interval arithmetic at a cheap working precision, raising the precision only
+ * when the result can't be guaranteed otherwise.
+ * <p>Every token is evaluated into an interval certainly holding its exact value: additions, subtractions,
+ * multiplications and divisions round their lower bounds down and their upper bounds up, and powers and functions are
+ * widened by two units in the last place of the working precision on each side. Functions which aren't monotonic,
+ * like {@code sin}, are only bounded when their argument is a single number. When both bounds of the result round to
+ * the same number under the {@code MathContext} of the Expression, that number is the exact result correctly rounded
+ * and is returned. Otherwise, e.g. when subtracting nearly equal numbers cancels most of the digits, the working
+ * precision is doubled and the Expression evaluated again.
+ * <p>The first pass works with just a few more digits than the {@code MathContext} asks for, so the precision only
+ * goes up for the few equations which need it. Results are correctly rounded, so they may differ in the last digits
+ * from {@link Expression#eval(Bindings)}, which rounds after every operation. If even the maximum precision doesn't
+ * give a guaranteed result (say, a division by a number which can't be told apart from zero), the result of
+ * {@link Expression#eval(Bindings)} is returned instead.
+ * <p>When the Expression was parsed with {@link EvaluationLimits}, every pass checks them after every operator, and
+ * the working precision is never raised past the limit on digits. The time limit covers all the passes of an
+ * evaluation together. Evaluators are thread-safe.
+ */
+public final class ProgressiveEvaluator {
+    private static final int GUARD_DIGITS = 5;
+    private static final int DEFAULT_MAX_PRECISION_FACTOR = 8;
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final Unbounded UNBOUNDED = new Unbounded();
+
+    private final Expression expression;
+    private final int maxPrecision;
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder escalations = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    /**
+     * Creates an evaluator raising the working precision up to eight times the precision of the Expression.
+     *
+     * @param expression Expression to evaluate
+     */
+    public ProgressiveEvaluator(Expression expression) {
+        this(expression, expression.getMathContext().getPrecision() * DEFAULT_MAX_PRECISION_FACTOR);
+    }
+
+    /**
+     * @param expression   Expression to evaluate
+     * @param maxPrecision the highest working precision to try before giving up on a guaranteed result
+     */
+    public ProgressiveEvaluator(Expression expression, int maxPrecision) {
+        this.expression = expression;
+        this.maxPrecision = maxPrecision;
+    }
+
+    /**
+     * Evaluates the Expression with the given values of its variables.
+     *
+     * @param bindings values of the variables, created with {@link Expression#newBindings()} of the Expression
+     * @return the exact value of the Expression correctly rounded to its {@code MathContext}, or the result of
+     * {@link Expression#eval(Bindings)} if it can't be guaranteed
+     * @throws IllegalArgumentException if the bindings belong to another Expression or a variable has no value
+     * @throws ArithmeticException      if the Expression divides by exactly zero or can't be evaluated at all
+     * @throws LimitExceededException   if the Expression was parsed with limits and the evaluation exceeds them
+     */
+    public BigDecimal eval(Bindings bindings) {
+        expression.checkBindings(bindings);
+        evaluations.increment();
+        final MathContext target = expression.getMathContext();
+        if (target.getPrecision() == 0) {
+            return expression.eval(bindings);
+        }
+        final EvaluationLimits limits = expression.getLimits();
+        int highestPrecision = maxPrecision;
+        long deadline = 0;
+        if (limits != null) {
+            highestPrecision = Math.min(maxPrecision, limits.maxDigits());
+            deadline = limits.deadline();
+            for (BigDecimal value : bindings.values) {
+                limits.checkDigits(value);
+            }
+        }
+        for (int precision = target.getPrecision() + GUARD_DIGITS; precision <= Math.max(highestPrecision,
+                target.getPrecision() + GUARD_DIGITS); precision *= 2) {
+            if (precision > target.getPrecision() + GUARD_DIGITS) {
+                escalations.increment();
+            }
+            try {
+                final Pass pass = new Pass(bindings, precision, expression.getSharedTokens(), limits, deadline);
+                final Interval result = pass.walk(expression.getRoot(), pass.shared);
+                final BigDecimal lower = result.lower.round(target);
+                if (lower.compareTo(result.upper.round(target)) == 0) {
+                    return lower;
+                }
+            } catch (Unbounded ex) {
+                // Try again with more digits.
+            }
+        }
+        fallbacks.increment();
+        return expression.eval(bindings);
+    }
+
+    /**
+     * @return the amount of evaluations so far
+     */
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    /**
+     * @return how many times the working precision had to be raised so far
+     */
+    public long getEscalations() {
+        return escalations.sum();
+    }
+
+    /**
+     * @return how many evaluations couldn't be guaranteed even at the maximum precision
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * @return the Expression this evaluator evaluates
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * One evaluation at one working precision.
+     */
+    private static final class Pass extends PostfixWalker<Interval> {
+        private final Bindings bindings;
+        private final int precision;
+        private final MathContext down;
+        private final MathContext up;
+        private final MathContext nearest;
+        private final Interval[] shared;
+        private final EvaluationLimits limits;
+        private final long deadline;
+
+        private Pass(Bindings bindings, int precision, int sharedTokens, EvaluationLimits limits, long deadline) {
+            this.bindings = bindings;
+            this.precision = precision;
+            this.down = new MathContext(precision, RoundingMode.FLOOR);
+            this.up = new MathContext(precision, RoundingMode.CEILING);
+            this.nearest = new MathContext(precision, RoundingMode.HALF_EVEN);
+            this.shared = new Interval[sharedTokens];
+            this.limits = limits;
+            this.deadline = deadline;
+        }
+
+        @Override
+        Interval leaf(Token token) {
+            final BigDecimal value = token.getType() == Token.TokenType.VALUE ? token.val : token.eval(bindings);
+            return new Interval(value, value);
+        }
+
+        @Override
+        Interval operator(OperatorToken token, Interval left, Interval right) {
+            return limits != null ? calculateWithinLimits(token, left, right) : calculate(token, left, right);
+        }
+
+        private Interval calculateWithinLimits(OperatorToken token, Interval left, Interval right) {
+            if (token.operator == Operator.EXPONENT) {
+                limits.checkExponent(right.lower);
+                limits.checkExponent(right.upper);
+            }
+            final Interval result = calculate(token, left, right);
+            limits.checkDigits(result.lower);
+            limits.checkDigits(result.upper);
+            limits.checkTime(deadline);
+            return result;
+        }
+
+        private Interval calculate(OperatorToken token, Interval left, Interval right) {
+            return switch (token.operator) {
+                case EXPONENT -> pow(left, right);
+                case MULTIPLICATION -> multiply(left, right);
+                case DIVISION -> divide(left, right);
+                case ADDITION -> new Interval(left.lower.add(right.lower, down), left.upper.add(right.upper, up));
+                case SUBTRACTION -> new Interval(left.lower.subtract(right.upper, down),
+                        left.upper.subtract(right.lower, up));
+                case UNARYMINUS -> new Interval(right.upper.negate(), right.lower.negate());
+                case FUNCTION -> function(token.function(), right);
+            };
+        }
+
+        private Interval multiply(Interval left, Interval right) {
+            BigDecimal lower = null;
+            BigDecimal upper = null;
+            for (BigDecimal a : left.bounds()) {
+                for (BigDecimal b : right.bounds()) {
+                    lower = min(lower, a.multiply(b, down));
+                    upper = max(upper, a.multiply(b, up));
+                }
+            }
+            return new Interval(lower, upper);
+        }
+
+        private Interval divide(Interval left, Interval right) {
+            if (right.lower.signum() == 0 && right.upper.signum() == 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            if (right.lower.signum() <= 0 && right.upper.signum() >= 0) {
+                throw UNBOUNDED;
+            }
+            BigDecimal lower = null;
+            BigDecimal upper = null;
+            for (BigDecimal a : left.bounds()) {
+                for (BigDecimal b : right.bounds()) {
+                    lower = min(lower, a.divide(b, down));
+                    upper = max(upper, a.divide(b, up));
+                }
+            }
+            return new Interval(lower, upper);
+        }
+
+        /**
+         * Powers are monotonic in both the base and the exponent over the intervals allowed here, so the bounds are
+         * among the powers of the bounds; the only exception is an even power of an interval holding zero, whose
+         * lower bound is zero itself.
+         */
+        private Interval pow(Interval base, Interval exponent) {
+            final boolean integerExponent = exponent.isPoint() && exponent.lower.stripTrailingZeros().scale() <= 0;
+            final boolean baseHoldsZero = base.lower.signum() <= 0 && base.upper.signum() >= 0;
+            if (!integerExponent && base.lower.signum() <= 0
+                    || integerExponent && exponent.lower.signum() < 0 && baseHoldsZero) {
+                throw UNBOUNDED;
+            }
+            BigDecimal lower = null;
+            BigDecimal upper = null;
+            for (BigDecimal x : base.bounds()) {
+                for (BigDecimal y : exponent.bounds()) {
+                    final BigDecimal power = BigDecimalMath.pow(x, y, nearest);
+                    final BigDecimal margin = twoUlps(power);
+                    lower = min(lower, power.subtract(margin));
+                    upper = max(upper, power.add(margin));
+                }
+            }
+            if (integerExponent && baseHoldsZero && !isOdd(exponent.lower)) {
+                lower = BigDecimal.ZERO;
+            }
+            return new Interval(lower, upper);
+        }
+
+        /**
+         * A monotonic function has its bounds among the values at the bounds of the argument; any other function is
+         * bounded only for a single argument, apart from {@code abs}, which is easy to bound directly.
+         */
+        private Interval function(MathFunction function, Interval argument) {
+            if (function == MathFunction.ABS) {
+                if (argument.lower.signum() >= 0) {
+                    return argument;
+                }
+                if (argument.upper.signum() <= 0) {
+                    return new Interval(argument.upper.negate(), argument.lower.negate());
+                }
+                return new Interval(BigDecimal.ZERO, argument.upper.max(argument.lower.negate()));
+            }
+            if (function.monotonicity == 0 && !argument.isPoint()) {
+                throw UNBOUNDED;
+            }
+            BigDecimal lower = null;
+            BigDecimal upper = null;
+            for (BigDecimal x : argument.bounds()) {
+                final BigDecimal value;
+                try {
+                    value = function.compute(x, nearest);
+                } catch (ArithmeticException ex) {
+                    if (argument.isPoint()) {
+                        throw ex;
+                    }
+                    throw UNBOUNDED;
+                }
+                final BigDecimal margin = twoUlps(value);
+                lower = min(lower, value.subtract(margin));
+                upper = max(upper, value.add(margin));
+            }
+            return new Interval(lower, upper);
+        }
+
+        private BigDecimal twoUlps(BigDecimal value) {
+            if (value.signum() == 0) {
+                return BigDecimal.ZERO;
+            }
+            final int exponent = value.precision() - value.scale() - 1;
+            return TWO.scaleByPowerOfTen(exponent - precision + 1);
+        }
+
+        private static boolean isOdd(BigDecimal integer) {
+            return integer.remainder(TWO).signum() != 0;
+        }
+
+        private static BigDecimal min(BigDecimal current, BigDecimal candidate) {
+            return current == null || candidate.compareTo(current) < 0 ? candidate : current;
+        }
+
+        private static BigDecimal max(BigDecimal current, BigDecimal candidate) {
+            return current == null || candidate.compareTo(current) > 0 ? candidate : current;
+        }
+    }
+
+    /**
+     * Bounds certainly holding the exact value of a token.
+     */
+    private record Interval(BigDecimal lower, BigDecimal upper) {
+        private boolean isPoint() {
+            return lower.compareTo(upper) == 0;
+        }
+
+        private BigDecimal[] bounds() {
+            return isPoint() ? new BigDecimal[]{lower} : new BigDecimal[]{lower, upper};
+        }
+    }
+
+    /**
+     * Thrown when a token has no finite bounds at the current precision, like a division by an interval holding zero.
+     */
+    private static final class Unbounded extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private Unbounded() {
+            super(null, null, false, false);
+        }
+    }
+}
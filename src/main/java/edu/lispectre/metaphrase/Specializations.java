@@ -0,0 +1,278 @@
+package edu.lispectre.metaphrase;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import static ch.obermuhlner.math.big.BigDecimalMath.pow;
+
+/**
+ * Picks a specialized kind of {@link OperatorToken} when an operation has a literal operand which allows for a faster
+ * way of computing it:
+ * <ul>
+ *     <li>powers with a non-negative integer exponent skip the checks {@code BigDecimalMath.pow} does before
+ *     getting to its own integer power algorithm ({@link IntegerPowerToken}),</li>
+ *     <li>divisions by a literal whose reciprocal is a terminating decimal multiply by the reciprocal
+ *     ({@link ReciprocalDivisionToken}),</li>
+ *     <li>multiplications by {@code 1} and {@code -1.0} (the parser's unary minus), additions of {@code 0} and
+ *     subtractions of {@code 0} skip the arithmetic ({@link IdentityMultiplicationToken},
+ *     {@link NegationToken}, {@link ZeroAdditionToken}).</li>
+ * </ul>
+ * Specialized tokens give results identical to the generic ones, down to the scale, under every {@code MathContext};
+ * when a shortcut can't guarantee that for some value, they compute that value the generic way. They keep their
+ * operator and operands, so everything else working with the tree (the optimizer, the compiler, the {@code double}
+ * evaluation) treats them just like generic tokens.
+ */
+final class Specializations {
+    private static final BigDecimal MINUS_ONE = new BigDecimal("-1.0");
+
+    private Specializations() {
+    }
+
+    /**
+     * Creates a token for the operation, specialized if possible, or a {@link FunctionToken} calling the function.
+     *
+     * @param function function to call, {@code null} unless the operator is {@link Operator#FUNCTION}
+     */
+    static OperatorToken create(Operator operator, MathFunction function, Token left, Token right, MathContext mc) {
+        return function != null ? new FunctionToken(function, right, mc) : create(operator, left, right, mc);
+    }
+
+    /**
+     * Creates a token for the operation, specialized if possible.
+     *
+     * @param operator operator of the token
+     * @param left     left operand, {@code null} for a negation
+     * @param right    right operand
+     * @param mc       context to round results with
+     * @return a new token
+     */
+    static OperatorToken create(Operator operator, Token left, Token right, MathContext mc) {
+        if (mc.getPrecision() != 0 && left != null) {
+            final BigDecimal leftLiteral = left.getType() == Token.TokenType.VALUE ? left.val : null;
+            final BigDecimal rightLiteral = right.getType() == Token.TokenType.VALUE ? right.val : null;
+            switch (operator) {
+                case EXPONENT -> {
+                    if (rightLiteral != null && isNonNegativeLong(rightLiteral)) {
+                        return new IntegerPowerToken(left, right, mc);
+                    }
+                }
+                case MULTIPLICATION -> {
+                    if (isOne(rightLiteral) || isOne(leftLiteral)) {
+                        return new IdentityMultiplicationToken(left, right, mc, isOne(rightLiteral));
+                    }
+                    if (isMinusOne(rightLiteral) || isMinusOne(leftLiteral)) {
+                        return new NegationToken(left, right, mc, isMinusOne(rightLiteral));
+                    }
+                }
+                case DIVISION -> {
+                    final BigDecimal reciprocal = rightLiteral != null ? reciprocalOf(rightLiteral) : null;
+                    if (reciprocal != null) {
+                        return new ReciprocalDivisionToken(left, right, mc, reciprocal);
+                    }
+                }
+                case ADDITION -> {
+                    if (isZero(rightLiteral) || isZero(leftLiteral)) {
+                        return new ZeroAdditionToken(operator, left, right, mc, isZero(rightLiteral));
+                    }
+                }
+                case SUBTRACTION -> {
+                    if (isZero(rightLiteral)) {
+                        return new ZeroAdditionToken(operator, left, right, mc, true);
+                    }
+                }
+                case UNARYMINUS, FUNCTION -> {
+                }
+            }
+        }
+        return new OperatorToken(operator, left, right, mc);
+    }
+
+    private static boolean isNonNegativeLong(BigDecimal literal) {
+        if (literal.signum() < 0 || literal.stripTrailingZeros().scale() > 0) {
+            return false;
+        }
+        try {
+            literal.longValueExact();
+            return true;
+        } catch (ArithmeticException ex) {
+            return false;
+        }
+    }
+
+    private static boolean isOne(BigDecimal literal) {
+        return literal != null && literal.scale() == 0 && literal.compareTo(BigDecimal.ONE) == 0;
+    }
+
+    private static boolean isMinusOne(BigDecimal literal) {
+        return literal != null && literal.scale() == 1 && literal.compareTo(MINUS_ONE) == 0;
+    }
+
+    private static boolean isZero(BigDecimal literal) {
+        return literal != null && literal.signum() == 0;
+    }
+
+    /**
+     * @return the exact reciprocal of the literal, or {@code null} if it has none, i.e. the literal is zero or has a
+     * prime factor other than two and five
+     */
+    private static BigDecimal reciprocalOf(BigDecimal literal) {
+        if (literal.signum() == 0) {
+            return null;
+        }
+        final BigInteger unscaled = literal.unscaledValue().abs();
+        if (unscaled.bitLength() < Long.SIZE) {
+            long factors = unscaled.longValue();
+            factors >>>= Long.numberOfTrailingZeros(factors);
+            while (factors % 5 == 0) {
+                factors /= 5;
+            }
+            return factors == 1 ? BigDecimal.ONE.divide(literal) : null;
+        }
+        try {
+            return BigDecimal.ONE.divide(literal);
+        } catch (ArithmeticException ex) {
+            return null;
+        }
+    }
+}
+
+/**
+ * A power with a non-negative integer literal as the exponent. {@code BigDecimalMath.pow} with such an exponent ends
+ * up in its integer power algorithm, multiplying by squares with ten extra digits and rounding at the end; this token
+ * runs the same algorithm directly, with the extended {@code MathContext} created only once. A zero base, and any
+ * value for which the algorithm throws, is left to {@code BigDecimalMath.pow} itself.
+ */
+final class IntegerPowerToken extends OperatorToken {
+    private final long exponent;
+    private final MathContext extended;
+
+    IntegerPowerToken(Token left, Token right, MathContext mc) {
+        super(Operator.EXPONENT, left, right, mc);
+        this.exponent = right.val.longValueExact();
+        this.extended = new MathContext(mc.getPrecision() + 10, mc.getRoundingMode());
+    }
+
+    @Override
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        if (leftValue.signum() == 0) {
+            return pow(leftValue, rightValue, mc);
+        }
+        try {
+            BigDecimal base = leftValue;
+            BigDecimal result = null;
+            long remaining = exponent;
+            while (remaining > 0) {
+                if ((remaining & 1) == 1) {
+                    result = result == null ? base.round(extended) : result.multiply(base, extended);
+                    remaining--;
+                }
+                if (remaining > 0) {
+                    base = base.multiply(base, extended);
+                }
+                remaining >>= 1;
+            }
+            return (result == null ? BigDecimal.ONE : result).round(mc);
+        } catch (ArithmeticException ex) {
+            return pow(leftValue, rightValue, mc);
+        }
+    }
+}
+
+/**
+ * A division by a literal with an exact reciprocal, computed as a multiplication by the reciprocal. The product is
+ * the exact quotient, so it only has to be rounded, or given the scale a division prefers if it is short enough;
+ * the rare quotients whose scale can't be told without dividing are divided after all.
+ */
+final class ReciprocalDivisionToken extends OperatorToken {
+    private final BigDecimal reciprocal;
+
+    ReciprocalDivisionToken(Token left, Token right, MathContext mc, BigDecimal reciprocal) {
+        super(Operator.DIVISION, left, right, mc);
+        this.reciprocal = reciprocal;
+    }
+
+    @Override
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        if (leftValue.signum() == 0) {
+            return leftValue.divide(rightValue, mc);
+        }
+        final BigDecimal quotient = leftValue.multiply(reciprocal);
+        final BigDecimal stripped = quotient.stripTrailingZeros();
+        if (stripped.precision() > mc.getPrecision()) {
+            return quotient.round(mc);
+        }
+        final int preferredScale = leftValue.scale() - rightValue.scale();
+        if (stripped.scale() >= preferredScale) {
+            return stripped;
+        }
+        if ((long) stripped.precision() + preferredScale - stripped.scale() <= mc.getPrecision()) {
+            return stripped.setScale(preferredScale);
+        }
+        return leftValue.divide(rightValue, mc);
+    }
+}
+
+/**
+ * A multiplication by the literal {@code 1}, which only rounds the other operand.
+ */
+final class IdentityMultiplicationToken extends OperatorToken {
+    private final boolean literalOnRight;
+
+    IdentityMultiplicationToken(Token left, Token right, MathContext mc, boolean literalOnRight) {
+        super(Operator.MULTIPLICATION, left, right, mc);
+        this.literalOnRight = literalOnRight;
+    }
+
+    @Override
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        return (literalOnRight ? leftValue : rightValue).round(mc);
+    }
+}
+
+/**
+ * A multiplication by the literal {@code -1.0}, which is how the {@link Parser} creates unary minuses.
+ */
+final class NegationToken extends OperatorToken {
+    private final boolean literalOnRight;
+
+    NegationToken(Token left, Token right, MathContext mc, boolean literalOnRight) {
+        super(Operator.MULTIPLICATION, left, right, mc);
+        this.literalOnRight = literalOnRight;
+    }
+
+    @Override
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        return negate(literalOnRight ? leftValue : rightValue, mc);
+    }
+}
+
+/**
+ * An addition of a zero literal, or a subtraction of one. {@code BigDecimal} handles adding zero separately anyway:
+ * the other operand is rounded and given the larger of the two scales, as far as the precision allows. This token
+ * does just that, without going through the general addition.
+ */
+final class ZeroAdditionToken extends OperatorToken {
+    private final boolean literalOnRight;
+
+    ZeroAdditionToken(Operator operator, Token left, Token right, MathContext mc, boolean literalOnRight) {
+        super(operator, left, right, mc);
+        this.literalOnRight = literalOnRight;
+    }
+
+    @Override
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        final BigDecimal value = literalOnRight ? leftValue : rightValue;
+        final BigDecimal zero = literalOnRight ? rightValue : leftValue;
+        final int preferredScale = Math.max(value.scale(), zero.scale());
+        if (value.signum() == 0) {
+            return BigDecimal.valueOf(0, preferredScale);
+        }
+        final BigDecimal result = value.round(mc);
+        if (result.scale() >= preferredScale) {
+            return result;
+        }
+        final int precisionLeft = mc.getPrecision() - result.precision();
+        return result.setScale(result.scale() + Math.min(precisionLeft, preferredScale - result.scale()));
+    }
+}
@@ -2,6 +2,8 @@ package edu.lispectre.metaphrase;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 
 import static ch.obermuhlner.math.big.BigDecimalMath.pow;
 
@@ -23,6 +25,28 @@ public abstract class Token {
      */
     public abstract BigDecimal eval();
 
+    /**
+     * Evaluates the {@code Token} without modifying it, taking the values of variables from the given bindings.
+     * Unlike {@link #eval()}, this method can be called on the same tree by many threads at once.
+     *
+     * @param bindings values of the variables, indexed by their slots
+     * @return a {@code BigDecimal} with a value this {@code Token} will evaluate
+     */
+    public abstract BigDecimal eval(Bindings bindings);
+
+    /**
+     * Evaluates the {@code Token} with primitive {@code double}s instead of {@code BigDecimal}s. Just like
+     * {@link #eval(Bindings)} it never modifies the tree, and it doesn't allocate anything either. The result is only
+     * as accurate as {@code double} arithmetic allows and ignores the {@code MathContext}.
+     *
+     * @param values values of the variables, indexed by their slots
+     * @param policy what to do when an operation doesn't produce a finite number
+     * @return a {@code double} with a value this {@code Token} will evaluate
+     * @throws ArithmeticException if the policy is {@link DoublePolicy#STRICT} and an operation doesn't produce a
+     *                             finite number
+     */
+    public abstract double evalDouble(double[] values, DoublePolicy policy);
+
     /**
      * Allows for changing a value in a Token. Currently, works only for {@link VariableToken}, using this on other
      * type of Token will return an error (a subject to change in the case it turns out favorable for a {@link ValueToken}
@@ -32,6 +56,13 @@ public abstract class Token {
      */
     public abstract void changeValue(BigDecimal val);
 
+    /**
+     * Links the operator to this token, its operand, so that a change of the value of this token reaches it. Values
+     * never change, so only variables and operators keep their parents.
+     */
+    void addParent(OperatorToken parent) {
+    }
+
     /**
      * @return the enum with an information what type is this Token
      */
@@ -48,11 +79,20 @@ public abstract class Token {
 
 /**
  * A token that performs calculations based on its operator and two operands next to it.
- * Currently, the {@link #eval()} function always performs a new calculation, which may
- * not be ideal for speed, however ensures the value will be correct in case a variable
- * changes its value.
+ * <p>The {@link #eval()} function remembers its last result. Every operator links itself to its operands when it's
+ * first evaluated, and a variable changing its value marks the operators above it as out of date, stopping at the
+ * ones which already are. Only those, on the paths from the occurrences of the changed variable to the top of the
+ * tree, are calculated again; the tree is walked with a stack of its own, so its depth doesn't matter. Parents are
+ * held strongly, so a variable keeps alive every tree which was evaluated with {@link #eval()} above it.
+ * <p>After parsing, {@link Operator#UNARYMINUS} only appears in trees rewritten by the {@link Optimizer}, as a negation
+ * of its right operand. Such trees may also share tokens between several parents; a shared token has a slot in which
+ * {@link #eval(Bindings)} keeps its value for the rest of the evaluation.
  */
 class OperatorToken extends Token {
+    int sharedSlot = -1;
+    private ArrayList<OperatorToken> parents;
+    private boolean outdated = true;
+    private boolean linked;
 
     OperatorToken(Operator op, MathContext mc) {
         this.operator = op;
@@ -69,39 +109,239 @@ class OperatorToken extends Token {
     }
 
     public BigDecimal eval() {
-        switch(operator){
-            case EXPONENT -> this.val = pow(left.eval(), right.eval(), mc);
-            case MULTIPLICATION -> this.val = left.eval().multiply(right.eval(), mc);
-            case DIVISION -> this.val = left.eval().divide(right.eval(), mc);
-            case ADDITION -> this.val = left.eval().add(right.eval(), mc);
-            case SUBTRACTION -> this.val = left.eval().subtract(right.eval(), mc);
+        if (!outdated) {
+            return this.val;
+        }
+        final ArrayDeque<OperatorToken> toCalculate = new ArrayDeque<>();
+        toCalculate.push(this);
+        while (!toCalculate.isEmpty()) {
+            final OperatorToken token = toCalculate.peek();
+            if (!token.outdated) {
+                toCalculate.pop();
+                continue;
+            }
+            final boolean rightReady = !isOutdated(token.right);
+            final boolean leftReady = token.left == null || !isOutdated(token.left);
+            if (!rightReady || !leftReady) {
+                if (!rightReady) {
+                    toCalculate.push((OperatorToken) token.right);
+                }
+                if (!leftReady) {
+                    toCalculate.push((OperatorToken) token.left);
+                }
+                continue;
+            }
+            toCalculate.pop();
+            token.calculate();
         }
         return this.val;
     }
 
+    private static boolean isOutdated(Token token) {
+        return token instanceof OperatorToken operator && operator.outdated;
+    }
+
+    /**
+     * Calculates the result from the remembered results of the operands, linking this token to them first.
+     */
+    private void calculate() {
+        if (!linked) {
+            if (left != null) {
+                left.addParent(this);
+            }
+            right.addParent(this);
+            linked = true;
+        }
+        this.val = apply(left != null ? left.eval() : null, right.eval());
+        outdated = false;
+    }
+
+    @Override
+    void addParent(OperatorToken parent) {
+        parents = withParent(parents, parent);
+    }
+
+    static ArrayList<OperatorToken> withParent(ArrayList<OperatorToken> parents, OperatorToken parent) {
+        final ArrayList<OperatorToken> extended = parents != null ? parents : new ArrayList<>(1);
+        extended.add(parent);
+        return extended;
+    }
+
+    /**
+     * Marks the operators as out of date, along with everything above them which isn't already.
+     */
+    static void invalidate(ArrayList<OperatorToken> parents) {
+        if (parents == null) {
+            return;
+        }
+        final ArrayDeque<OperatorToken> toInvalidate = new ArrayDeque<>(parents);
+        while (!toInvalidate.isEmpty()) {
+            final OperatorToken token = toInvalidate.pop();
+            if (!token.outdated) {
+                token.outdated = true;
+                if (token.parents != null) {
+                    toInvalidate.addAll(token.parents);
+                }
+            }
+        }
+    }
+
+    @Override
+    public BigDecimal eval(Bindings bindings) {
+        if (sharedSlot < 0) {
+            return calculate(bindings);
+        }
+        BigDecimal shared = bindings.shared[sharedSlot];
+        if (shared == null) {
+            shared = calculate(bindings);
+            bindings.shared[sharedSlot] = shared;
+        }
+        return shared;
+    }
+
+    private BigDecimal calculate(Bindings bindings) {
+        return apply(left != null ? left.eval(bindings) : null, right.eval(bindings));
+    }
+
+    /**
+     * Performs the operation on the values of the operands. Specialized tokens (see {@link Specializations}) override
+     * this with faster ways of computing the very same result.
+     *
+     * @param leftValue  value of the left operand, {@code null} for a negation
+     * @param rightValue value of the right operand
+     * @return the result of the operation
+     */
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        return switch (operator) {
+            case EXPONENT -> pow(leftValue, rightValue, mc);
+            case MULTIPLICATION -> leftValue.multiply(rightValue, mc);
+            case DIVISION -> leftValue.divide(rightValue, mc);
+            case ADDITION -> leftValue.add(rightValue, mc);
+            case SUBTRACTION -> leftValue.subtract(rightValue, mc);
+            case UNARYMINUS -> negate(rightValue, mc);
+            case FUNCTION -> throw new RuntimeException("Something went horribly wrong if you see this error.");
+        };
+    }
+
+    /**
+     * Negates the value exactly like the parser's unary minus, a multiplication by {@code -1.0}, would: the result
+     * gets an extra trailing zero whenever the precision leaves room for it.
+     *
+     * @param value value to negate
+     * @param mc    context to round the result with
+     * @return the same {@code BigDecimal} as {@code new BigDecimal("-1.0").multiply(value, mc)}
+     */
+    static BigDecimal negate(BigDecimal value, MathContext mc) {
+        final BigDecimal negated = value.negate();
+        if (negated.signum() == 0 || mc.getPrecision() == 0 || negated.precision() < mc.getPrecision()) {
+            return negated.setScale(negated.scale() + 1);
+        }
+        return negated.round(mc);
+    }
+
+    @Override
+    public double evalDouble(double[] values, DoublePolicy policy) {
+        if (operator == Operator.UNARYMINUS) {
+            return -right.evalDouble(values, policy);
+        }
+        final double leftValue = left.evalDouble(values, policy);
+        final double rightValue = right.evalDouble(values, policy);
+        final double result = switch (operator) {
+            case EXPONENT -> Math.pow(leftValue, rightValue);
+            case MULTIPLICATION -> leftValue * rightValue;
+            case DIVISION -> leftValue / rightValue;
+            case ADDITION -> leftValue + rightValue;
+            case SUBTRACTION -> leftValue - rightValue;
+            case UNARYMINUS, FUNCTION ->
+                    throw new RuntimeException("Something went horribly wrong if you see this error.");
+        };
+        if (policy == DoublePolicy.STRICT && !Double.isFinite(result)) {
+            if (operator == Operator.DIVISION && rightValue == 0) {
+                throw new ArithmeticException("Division by zero");
+            }
+            throw new ArithmeticException(Double.isNaN(result) ? "Result is not a number" : "Overflow");
+        }
+        return result;
+    }
+
+    /**
+     * @return the function this token calls, {@code null} unless the operator is {@link Operator#FUNCTION}
+     */
+    MathFunction function() {
+        return null;
+    }
+
     @Override
     public void changeValue(BigDecimal val) {
         throw new RuntimeException("Something went horribly wrong if you see this error.");
     }
     @Override
     public String toString(){
-        final String[] operators = {"U-", "^", "*", "/", "+", "-"};
+        final String[] operators = {"U-", "^", "*", "/", "+", "-", "F"};
         return operators[this.operator.ordinal()];
     }
 }
 
+/**
+ * Token calling a {@link MathFunction} on its right operand, like {@code sqrt(x)}. It has no left operand, the same
+ * way a negation doesn't.
+ */
+class FunctionToken extends OperatorToken {
+    final MathFunction function;
+
+    FunctionToken(MathFunction function, Token argument, MathContext mc) {
+        super(Operator.FUNCTION, null, argument, mc);
+        this.function = function;
+    }
+
+    @Override
+    BigDecimal apply(BigDecimal leftValue, BigDecimal rightValue) {
+        return function.apply(rightValue, mc);
+    }
+
+    @Override
+    public double evalDouble(double[] values, DoublePolicy policy) {
+        final double result = function.applyDouble(right.evalDouble(values, policy));
+        if (policy == DoublePolicy.STRICT && !Double.isFinite(result)) {
+            throw new ArithmeticException(Double.isNaN(result) ? "Result is not a number" : "Overflow");
+        }
+        return result;
+    }
+
+    @Override
+    MathFunction function() {
+        return function;
+    }
+
+    @Override
+    public String toString() {
+        return function.identifier;
+    }
+}
+
 /**
  * Token which is a constant value in the equation.
  */
 class ValueToken extends Token {
+    final double doubleVal;
+
     ValueToken(BigDecimal val) {
         this.val = val;
+        this.doubleVal = val.doubleValue();
+        this.type = TokenType.VALUE;
+    }
+
+    ValueToken(BigDecimal val, MathContext mc) {
+        this.mc = mc;
+        this.val = val;
+        this.doubleVal = val.doubleValue();
         this.type = TokenType.VALUE;
     }
 
     ValueToken(String val, MathContext mc) {
         this.mc = mc;
         this.val = new BigDecimal(val, mc);
+        this.doubleVal = this.val.doubleValue();
         this.type = TokenType.VALUE;
     }
 
@@ -109,10 +349,24 @@ class ValueToken extends Token {
         return this.val;
     }
 
+    @Override
+    public BigDecimal eval(Bindings bindings) {
+        return this.val;
+    }
+
+    @Override
+    public double evalDouble(double[] values, DoublePolicy policy) {
+        if (policy == DoublePolicy.STRICT && Double.isInfinite(doubleVal)) {
+            throw new ArithmeticException("Overflow");
+        }
+        return doubleVal;
+    }
+
     @Override
     public void changeValue(BigDecimal val) {
         throw new RuntimeException("Something went horribly wrong if you see this error.");
     }
+
     @Override
     public String toString(){
         return this.val.toString();
@@ -124,12 +378,19 @@ class ValueToken extends Token {
  * the Tokenizer ensures with its methods they all adopt the same value whenever that value is changed. Thus, changing
  * the value of a VariableToken without those methods, if absolutely necessary, should be done with extra care in case
  * there is another variable with the same name in the equation.
+ * <p>Every variable also has a slot, the order in which it first appears in the equation. When evaluated with
+ * {@link #eval(Bindings)}, the value is taken from that slot of the bindings instead of the token itself.
+ * <p>Each change of the value marks the operators above the variable as out of date, so that {@link #eval()}
+ * calculates their remembered results again.
  */
 class VariableToken extends Token {
     final String variableIdentifier;
+    final int slot;
+    private ArrayList<OperatorToken> parents;
 
-    VariableToken(String variableIdentifier, MathContext mc) {
+    VariableToken(String variableIdentifier, int slot, MathContext mc) {
         this.variableIdentifier = variableIdentifier;
+        this.slot = slot;
         this.mc = mc;
         this.type = TokenType.VARIABLE;
     }
@@ -139,14 +400,31 @@ class VariableToken extends Token {
         return this.val;
     }
 
+    @Override
+    public BigDecimal eval(Bindings bindings) {
+        return bindings.values[slot];
+    }
+
+    @Override
+    public double evalDouble(double[] values, DoublePolicy policy) {
+        return values[slot];
+    }
+
     @Override
     public void changeValue(BigDecimal val) {
         this.val = val;
+        OperatorToken.invalidate(parents);
     }
 
     public void changeValue(String val) {
-        this.val = new BigDecimal(val, mc);
+        changeValue(new BigDecimal(val, mc));
+    }
+
+    @Override
+    void addParent(OperatorToken parent) {
+        parents = OperatorToken.withParent(parents, parent);
     }
+
     @Override
     public String toString(){
         return this.variableIdentifier;
@@ -2,12 +2,14 @@ package edu.lispectre.metaphrase;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.InputMismatchException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Objects;
 
 
 /**
@@ -16,13 +18,21 @@ import java.util.regex.Pattern;
  * {@link #tokenizeEquation(String)} method.
  */
 public class Tokenizer {
-    private static final Pattern tokenizingRegEx = Pattern.compile("\\d*\\.?\\d+|[a-zA-Z]+|[\\^+\\-*/]|\\(|\\)");
-    private static final Pattern isNumericRegEx = Pattern.compile("\\d*\\.?\\d+");
-    private static final Pattern nestedEquationRegEx = Pattern.compile("\\([^)]*\\)");
-    private static final ArrayList<String> operators = new ArrayList<>(Arrays.asList("+", "(", "-", "*", "/", "^"));
     private final ArrayList<Token> unparsedTokens = new ArrayList<>();
     private final HashMap<String, Token> variableAccess = new HashMap<>();
+    private final ArrayList<VariableToken> variablesBySlot = new ArrayList<>();
+    private final ArrayDeque<ArrayList<Token>> openGroups = new ArrayDeque<>();
+    /**
+     * The function called with each of the open groups, {@code null} for plain parentheses.
+     */
+    private final ArrayList<MathFunction> openCalls = new ArrayList<>();
+    private static final int MAX_FAST_DIGITS = 18;
+    private static final int MAX_SCANNED_VARIABLES = 8;
+    private char[] literalBuffer = new char[32];
     private MathContext mathcontext;
+    private EvaluationLimits limits;
+    private int tokenCount;
+    private int nestingDepth;
 
 
     Tokenizer() {
@@ -41,76 +51,267 @@ public class Tokenizer {
      * Tokenizes the equation.
      * <p>The corresponding tokens are put in {@link #unparsedTokens}, which can be accessed using the {@link #getTokens()} method.
      * Beware, that when tokenizing an equation, tokens and variables of the previous one get erased.
+     * <p>The equation is scanned once, character by character. Equations in parentheses are collected on a stack of
+     * groups and handed to the {@link Parser} as soon as their closing parenthesis is found, so every parenthesized
+     * equation ends up as a single, already parsed token in its enclosing group.
+     * <p>An identifier of a {@link MathFunction} followed by a parenthesis, like {@code sqrt(x)}, is a call of the
+     * function, and {@code pi()} and {@code e()} are the constants (see {@link Functions}). Without a parenthesis the
+     * same identifiers are ordinary variables.
      *
      * @param equation          equation to create tokens of
      * @param DESIRED_PRECISION the amount of decimal places
      * @throws IllegalArgumentException if the DESIRED_PRECISION param is set to zero or lower
+     * @throws RuntimeException         if the parentheses in the equation are unmatched
      */
     public void tokenizeEquation(String equation, final int DESIRED_PRECISION) {
-        final Matcher matcher = tokenizingRegEx.matcher(equation);
-        final Matcher nestedMatcher = nestedEquationRegEx.matcher(equation);
-        final ArrayList<String> matches = new ArrayList<>();
-        this.mathcontext = new MathContext(DESIRED_PRECISION);
+        this.tokenizeEquation(equation, new MathContext(DESIRED_PRECISION));
+    }
 
-        unparsedTokens.clear();
-        variableAccess.clear();
+    /**
+     * Tokenizes the equation, creating the tokens with the given {@code MathContext}. Works just like
+     * {@link #tokenizeEquation(String, int)}, but also allows for choosing the rounding mode.
+     *
+     * @param equation    equation to create tokens of
+     * @param mathContext context with the precision and rounding mode the tokens should use
+     * @throws RuntimeException if the parentheses in the equation are unmatched
+     */
+    public void tokenizeEquation(String equation, final MathContext mathContext) {
+        tokenizeEquation(equation, 0, equation.length(), mathContext);
+    }
+
+    /**
+     * Tokenizes a part of a sequence of characters, without copying it into a {@code String} first. Works just like
+     * {@link #tokenizeEquation(String, MathContext)}; numeric literals are read straight from the characters and the
+     * only {@code String}s created are the identifiers of variables, once per variable.
+     *
+     * @param equation    characters holding the equation
+     * @param start       index of the first character of the equation
+     * @param end         index right after the last character of the equation
+     * @param mathContext context with the precision and rounding mode the tokens should use
+     * @throws IndexOutOfBoundsException if the indices are out of the bounds of the sequence
+     * @throws RuntimeException          if the parentheses in the equation are unmatched
+     */
+    public void tokenizeEquation(CharSequence equation, int start, int end, final MathContext mathContext) {
+        Objects.checkFromToIndex(start, end, equation.length());
+        instrumentedTokenize(equation, start, end, mathContext, false);
+    }
+
+    /**
+     * Tokenizes another equation of a group, keeping the variables of the equations tokenized before it. Variables
+     * with the same identifier become the very same token in all the equations, with one slot, so the tokens of the
+     * whole group share a single table of variables.
+     *
+     * @param equation    equation to create tokens of
+     * @param mathContext context with the precision and rounding mode the tokens should use
+     * @throws RuntimeException if the parentheses in the equation are unmatched
+     */
+    void tokenizeKeepingVariables(String equation, final MathContext mathContext) {
+        instrumentedTokenize(equation, 0, equation.length(), mathContext, true);
+    }
+
+    /**
+     * Makes the following equations throw a {@link LimitExceededException} as soon as their parentheses are nested
+     * too deep or they have too many tokens.
+     *
+     * @param limits limits to check, or {@code null} for none
+     */
+    void setLimits(EvaluationLimits limits) {
+        this.limits = limits;
+    }
+
+    private void instrumentedTokenize(final CharSequence equation, final int start, final int end,
+                                      final MathContext mathContext, final boolean keepVariables) {
+        final Metrics.TokenizeEvent event = new Metrics.TokenizeEvent();
+        event.begin();
+        final long startTime = Metrics.start();
+        tokenize(equation, start, end, mathContext, keepVariables);
+        Metrics.tokenized(event, startTime, equation, start, end, tokenCount, nestingDepth);
+    }
 
-        while (matcher.find()) {
-            String match = matcher.group();
-            matches.add(match);
+    /**
+     * Tokenizes the remaining characters of the buffer, i.e. the ones between its position and limit. The position
+     * of the buffer is left unchanged.
+     *
+     * @param equation    buffer holding the equation
+     * @param mathContext context with the precision and rounding mode the tokens should use
+     * @throws RuntimeException if the parentheses in the equation are unmatched
+     * @see #tokenizeEquation(CharSequence, int, int, MathContext)
+     */
+    public void tokenizeEquation(CharBuffer equation, final MathContext mathContext) {
+        tokenizeEquation(equation, 0, equation.remaining(), mathContext);
+    }
+
+    /**
+     * Tokenizes an ASCII-encoded equation straight from the bytes of a buffer, e.g. a part of a network payload. The
+     * position of the buffer is neither used nor changed. Bytes outside ASCII are unknown symbols and are
+     * skipped, just like in a {@code String}.
+     *
+     * @param equation    buffer holding the equation
+     * @param offset      index of the first byte of the equation in the buffer
+     * @param length      the amount of bytes of the equation
+     * @param mathContext context with the precision and rounding mode the tokens should use
+     * @throws IndexOutOfBoundsException if the bytes go past the limit of the buffer
+     * @throws RuntimeException          if the parentheses in the equation are unmatched
+     * @see #tokenizeEquation(CharSequence, int, int, MathContext)
+     */
+    public void tokenizeEquation(ByteBuffer equation, int offset, int length, final MathContext mathContext) {
+        Objects.checkFromIndexSize(offset, length, equation.limit());
+        tokenizeEquation(new AsciiSequence(equation, offset, length), 0, length, mathContext);
+    }
+
+    private void tokenize(final CharSequence equation, final int from, final int limit,
+                          final MathContext mathContext, final boolean keepVariables) {
+        this.mathcontext = mathContext;
+        tokenCount = 0;
+        nestingDepth = 0;
+
+        unparsedTokens.clear();
+        if (!keepVariables) {
+            variableAccess.clear();
+            variablesBySlot.clear();
         }
+        openGroups.clear();
+        openCalls.clear();
 
-        for (int index = 0; index < matches.size(); index++) {
-            String symbol = matches.get(index);
+        ArrayList<Token> group = unparsedTokens;
+        boolean unaryMinusAllowed = true;
+        int index = from;
+        while (index < limit) {
+            final char symbol = equation.charAt(index);
             Token token;
             switch (symbol) {
-                case "(":
-                    if (!nestedMatcher.find()) {
-                        throw new RuntimeException("Parentheses error - unmatched open parenthesis.");
+                case '(':
+                    group = openGroup(group, null);
+                    unaryMinusAllowed = true;
+                    index++;
+                    continue;
+                case ')':
+                    if (openGroups.isEmpty()) {
+                        throw new RuntimeException("Parentheses error - unmatched closing parenthesis.");
                     }
-                    String nestedEquation = nestedEquation(matches, index);
-                    Tokenizer nestedEquationTokenizer = new Tokenizer(nestedEquation);
-                    ArrayList<Token> nestedEquationTokens = nestedEquationTokenizer.getTokens();
-                    variableAccess.putAll(nestedEquationTokenizer.getVariables());
-                    token = Parser.parseTokens(nestedEquationTokens, this.mathcontext);
-                    index += movePointerAfterNestedEquation(matches, index + 1);
+                    final MathFunction called = openCalls.remove(openCalls.size() - 1);
+                    if (called == null) {
+                        token = Parser.parse(group, this.mathcontext);
+                        tokenCount--;                               // Counted as its tokens already.
+                    } else if (group.isEmpty()) {
+                        throw new RuntimeException("Missing argument of " + called + "().");
+                    } else {
+                        token = new FunctionToken(called, Parser.parse(group, this.mathcontext), this.mathcontext);
+                    }
+                    group = openGroups.pop();
+                    index++;
                     break;
-                case ")":
-                    throw new RuntimeException("Parentheses error - unmatched closing parenthesis.");
-                case "^":
+                case '^':
                     token = new OperatorToken(Operator.EXPONENT, this.mathcontext);
+                    index++;
                     break;
-                case "*":
+                case '*':
                     token = new OperatorToken(Operator.MULTIPLICATION, this.mathcontext);
+                    index++;
                     break;
-                case "/":
+                case '/':
                     token = new OperatorToken(Operator.DIVISION, this.mathcontext);
+                    index++;
                     break;
-                case "+":
+                case '+':
                     token = new OperatorToken(Operator.ADDITION, this.mathcontext);
+                    index++;
                     break;
-                case "-":
-                    if (index == 0 || operators.contains(matches.get(index - 1))) {
+                case '-':
+                    if (unaryMinusAllowed) {
                         token = new OperatorToken(Operator.UNARYMINUS, this.mathcontext);
                     } else {
                         token = new OperatorToken(Operator.SUBTRACTION, this.mathcontext);
                     }
+                    index++;
                     break;
                 default:
-                    if (isNumericRegEx.matcher(symbol).matches()) {
-                        token = new ValueToken(symbol, this.mathcontext);
-                    } else {
-                        if (!variableAccess.containsKey(symbol)) {
-                            token = new VariableToken(symbol, this.mathcontext);
-                            variableAccess.put(symbol, token);
+                    int end = endOfNumber(equation, index, limit);
+                    if (end > index) {
+                        token = new ValueToken(parseNumber(equation, index, end), this.mathcontext);
+                    } else if (isLetter(symbol)) {
+                        end = index + 1;
+                        while (end < limit && isLetter(equation.charAt(end))) {
+                            end++;
+                        }
+                        int nameEnd = end;                          // Names of functions may end with digits.
+                        while (nameEnd < limit && isDigit(equation.charAt(nameEnd))) {
+                            nameEnd++;
+                        }
+                        final int parenthesis = skipWhitespace(equation, nameEnd, limit);
+                        final boolean call = parenthesis < limit && equation.charAt(parenthesis) == '(';
+                        final MathFunction function = call ? MathFunction.byIdentifier(equation, index, nameEnd) : null;
+                        if (function != null) {
+                            group = openGroup(group, function);
+                            unaryMinusAllowed = true;
+                            index = parenthesis + 1;
+                            continue;
+                        }
+                        final BigDecimal constant = call && nameEnd == end ? constantOf(equation, index, end) : null;
+                        if (constant != null) {
+                            final int closing = skipWhitespace(equation, parenthesis + 1, limit);
+                            if (closing == limit || equation.charAt(closing) != ')') {
+                                throw new RuntimeException(equation.subSequence(index, end) + "() takes no arguments.");
+                            }
+                            token = new ValueToken(constant, this.mathcontext);
+                            end = closing + 1;
                         } else {
-                            token = variableAccess.get(symbol);
+                            token = variableOf(equation, index, end);
                         }
+                    } else {
+                        index++;                                    // Whitespace or an unknown symbol.
+                        continue;
                     }
+                    index = end;
                     break;
             }
-            unparsedTokens.add(token);
+            unaryMinusAllowed = token.getType() == Token.TokenType.OPERATOR && token.right == null;
+            group.add(token);
+            tokenCount++;
+            if (limits != null) {
+                limits.checkTokens(tokenCount);
+            }
+        }
+        if (!openGroups.isEmpty()) {
+            throw new RuntimeException("Parentheses error - unmatched open parenthesis.");
+        }
+    }
+
+    /**
+     * Starts a new group of tokens, in parentheses or the argument of a function.
+     *
+     * @param enclosing group the new one is nested in
+     * @param function  function called with the group, {@code null} for plain parentheses
+     * @return the new group
+     */
+    private ArrayList<Token> openGroup(final ArrayList<Token> enclosing, final MathFunction function) {
+        openGroups.push(enclosing);
+        openCalls.add(function);
+        nestingDepth = Math.max(nestingDepth, openGroups.size());
+        if (limits != null) {
+            limits.checkNestingDepth(openGroups.size());
         }
+        return new ArrayList<>();
+    }
+
+    private static int skipWhitespace(final CharSequence equation, int index, final int limit) {
+        while (index < limit && Character.isWhitespace(equation.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return the value of the constant with the identifier between the indices, or {@code null} if there is none
+     */
+    private BigDecimal constantOf(final CharSequence equation, final int start, final int end) {
+        if (end - start == 2 && equation.charAt(start) == 'p' && equation.charAt(start + 1) == 'i') {
+            return Functions.pi(this.mathcontext);
+        }
+        if (end - start == 1 && equation.charAt(start) == 'e') {
+            return Functions.e(this.mathcontext);
+        }
+        return null;
     }
 
     /**
@@ -126,55 +327,131 @@ public class Tokenizer {
 
 
     /**
-     * Method for extracting an equation in parentheses. This allows the code to recursively tokenize and parse the
-     * inner equation instead of treating parentheses like tokens themselves.
-     * @param matches symbols which are tokenized
-     * @param index point in the list at which open parenthesis was detected
-     * @return the equation inside parentheses
+     * Finds where a numeric literal starting at {@code start} ends. A literal is a run of digits, optionally followed
+     * by a dot and another run of digits; a dot without any digits after it is not a part of the literal.
+     *
+     * @param equation equation being tokenized
+     * @param start    index at which the literal might start
+     * @param length   index right after the end of the equation
+     * @return index right after the literal, or {@code start} if there is no literal at that index
      */
-    private static String nestedEquation(final ArrayList<String> matches, final int index){
-        final StringBuilder nestedEquationBuilder = new StringBuilder();
-        int charPointer = index+1;
-        for (int unmatchedParentheses = 1; unmatchedParentheses > 0;){
-            String symbol = matches.get(charPointer++);
-            if (symbol.equals(")")){
-                if (unmatchedParentheses > 1){
-                    nestedEquationBuilder.append(symbol);
-                }
-                unmatchedParentheses--;
-            }
-            else {
-                if (symbol.equals("(")){
-                    unmatchedParentheses++;
-                }
-                nestedEquationBuilder.append(symbol);
+    private static int endOfNumber(final CharSequence equation, final int start, final int length) {
+        int end = start;
+        while (end < length && isDigit(equation.charAt(end))) {
+            end++;
+        }
+        if (end + 1 < length && equation.charAt(end) == '.' && isDigit(equation.charAt(end + 1))) {
+            end += 2;
+            while (end < length && isDigit(equation.charAt(end))) {
+                end++;
             }
         }
-        return nestedEquationBuilder.toString();
+        return end;
     }
 
     /**
-     * Calculates the amount of symbols we "ignore", as they were already accounted for by
-     * {@link #nestedEquation(ArrayList, int)}.
+     * Creates a {@code BigDecimal} straight from the characters of the equation, rounding it with the Tokenizer's
+     * {@code MathContext}. Literals of up to 18 digits are accumulated into a {@code long}; longer ones are copied
+     * into a reusable buffer. Either way, no intermediate {@code String} is made.
      *
-     * @param matches symbols which are tokenized
-     * @param index   point in the list at which open parenthesis was detected
-     * @return amount of symbols to skip
+     * @param equation equation being tokenized
+     * @param start    index of the first character of the literal
+     * @param end      index right after the literal
+     * @return value of the literal
      */
-    private static int movePointerAfterNestedEquation(final ArrayList<String> matches, final int index) {
-        int unmatchedParenthesis = 1;
-        int i;
+    private BigDecimal parseNumber(final CharSequence equation, final int start, final int end) {
+        final int length = end - start;
+        if (length <= MAX_FAST_DIGITS) {
+            long unscaled = 0;
+            int scale = 0;
+            for (int index = start; index < end; index++) {
+                final char symbol = equation.charAt(index);
+                if (symbol == '.') {
+                    scale = end - index - 1;
+                } else {
+                    unscaled = unscaled * 10 + (symbol - '0');
+                }
+            }
+            return BigDecimal.valueOf(unscaled, scale).round(this.mathcontext);
+        }
+        if (literalBuffer.length < length) {
+            literalBuffer = new char[Math.max(length, literalBuffer.length * 2)];
+        }
+        if (equation instanceof String string) {
+            string.getChars(start, end, literalBuffer, 0);
+        } else {
+            for (int index = start; index < end; index++) {
+                literalBuffer[index - start] = equation.charAt(index);
+            }
+        }
+        return new BigDecimal(literalBuffer, 0, length, this.mathcontext);
+    }
 
-        for (i = index; unmatchedParenthesis > 0; i++) {
-            String match = matches.get(i);
-            if (match.equals("(")) {
-                unmatchedParenthesis++;
+    /**
+     * Finds the variable with the identifier between the indices, creating it if it's the first occurrence. While
+     * there are only a few variables, they are compared with the characters directly instead of making a
+     * {@code String} to look the identifier up by.
+     */
+    private Token variableOf(final CharSequence equation, final int start, final int end) {
+        if (variablesBySlot.size() <= MAX_SCANNED_VARIABLES) {
+            for (VariableToken variable : variablesBySlot) {
+                final String identifier = variable.variableIdentifier;
+                if (identifier.length() == end - start && regionMatches(identifier, equation, start)) {
+                    return variable;
+                }
             }
-            if (match.equals(")")) {
-                unmatchedParenthesis--;
+            return addVariable(equation.subSequence(start, end).toString());
+        }
+        final String identifier = equation.subSequence(start, end).toString();
+        final Token token = variableAccess.get(identifier);
+        return token != null ? token : addVariable(identifier);
+    }
+
+    private Token addVariable(final String identifier) {
+        final VariableToken variable = new VariableToken(identifier, variablesBySlot.size(), this.mathcontext);
+        variableAccess.put(identifier, variable);
+        variablesBySlot.add(variable);
+        return variable;
+    }
+
+    private static boolean regionMatches(final String identifier, final CharSequence equation, final int start) {
+        for (int index = 0; index < identifier.length(); index++) {
+            if (identifier.charAt(index) != equation.charAt(start + index)) {
+                return false;
             }
         }
-        return i - index;
+        return true;
+    }
+
+    /**
+     * The characters of an ASCII-encoded equation, read from a {@code ByteBuffer} as they are needed.
+     */
+    private record AsciiSequence(ByteBuffer bytes, int offset, int length) implements CharSequence {
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes.get(offset + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            Objects.checkFromToIndex(start, end, length);
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            final byte[] characters = new byte[length];
+            bytes.get(offset, characters);
+            return new String(characters, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    private static boolean isDigit(final char symbol) {
+        return symbol >= '0' && symbol <= '9';
+    }
+
+    private static boolean isLetter(final char symbol) {
+        return (symbol >= 'a' && symbol <= 'z') || (symbol >= 'A' && symbol <= 'Z');
     }
 
     /**
@@ -200,6 +477,14 @@ public class Tokenizer {
         return variableAccess;
     }
 
+    /**
+     * @return the amount of tokens of the last equation, counting every token in parentheses and each pair of them as
+     * the tokens inside
+     */
+    int getTokenCount() {
+        return tokenCount;
+    }
+
     /**
      * Returns a {@code MathContext}. Useful with the {@code parseTokens()} method.
      *
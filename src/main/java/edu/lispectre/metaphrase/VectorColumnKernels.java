@@ -0,0 +1,85 @@
+package edu.lispectre.metaphrase;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link ColumnKernels} processing as many elements at once as the widest SIMD registers of the CPU can hold.
+ * <p>Only loaded by {@link ColumnKernels#load()} when the {@code jdk.incubator.vector} module is present. Exponents are
+ * still computed one by one with {@link Math#pow(double, double)}, as the lane-wise power of the Vector API may differ
+ * from it in the last digit; the same goes for all the functions except {@code sqrt} and {@code abs}, which are exact
+ * in both.
+ */
+final class VectorColumnKernels extends ColumnKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    void apply(Operator operator, double[] target, double[] operand, int length) {
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        switch (operator) {
+            case MULTIPLICATION -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(target, i).mul(load(operand, i)).intoArray(target, i);
+                }
+            }
+            case DIVISION -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(target, i).div(load(operand, i)).intoArray(target, i);
+                }
+            }
+            case ADDITION -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(target, i).add(load(operand, i)).intoArray(target, i);
+                }
+            }
+            case SUBTRACTION -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(target, i).sub(load(operand, i)).intoArray(target, i);
+                }
+            }
+            default -> {
+                // Computed below, element by element.
+            }
+        }
+        apply(operator, target, operand, i, length);
+    }
+
+    @Override
+    void call(MathFunction function, double[] target, int length) {
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        switch (function) {
+            case SQRT -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(target, i).sqrt().intoArray(target, i);
+                }
+            }
+            case ABS -> {
+                for (; i < bound; i += SPECIES.length()) {
+                    load(target, i).abs().intoArray(target, i);
+                }
+            }
+            default -> {
+                // Computed below, element by element.
+            }
+        }
+        call(function, target, i, length);
+    }
+
+    @Override
+    void negate(double[] target, int length) {
+        final int bound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            load(target, i).neg().intoArray(target, i);
+        }
+        for (; i < length; i++) {
+            target[i] = -target[i];
+        }
+    }
+
+    private static DoubleVector load(double[] array, int offset) {
+        return DoubleVector.fromArray(SPECIES, array, offset);
+    }
+}
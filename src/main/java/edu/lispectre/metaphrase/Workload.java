@@ -0,0 +1,126 @@
+package edu.lispectre.metaphrase;
+
+import java.util.Random;
+
+/**
+ * Kinds of randomly generated equations used for benchmarking. All randomness comes from the {@code Random} passed
+ * in, so the same seed always gives the same equations and runs can be compared with each other.
+ */
+enum Workload {
+    /**
+     * Nested groups of two to four terms with {@code +}, {@code -}, {@code *} and {@code /}, at most {@code size}
+     * levels deep. These are the equations {@link Benchmark} has always used.
+     */
+    MIXED {
+        @Override
+        String equation(Random random, int size) {
+            return mixed(random, 0, size);
+        }
+    },
+    /**
+     * One long equation of {@code size} numbers without any parentheses.
+     */
+    FLAT {
+        @Override
+        String equation(Random random, int size) {
+            final StringBuilder equation = new StringBuilder(number(random));
+            for (int i = 1; i < size; i++) {
+                equation.append(' ').append(operator(random)).append(' ').append(number(random));
+            }
+            return equation.toString();
+        }
+    },
+    /**
+     * Parentheses nested {@code size} levels deep, with a single operation on every level.
+     */
+    DEEP {
+        @Override
+        String equation(Random random, int size) {
+            final StringBuilder equation = new StringBuilder(number(random));
+            for (int i = 0; i < size; i++) {
+                equation.insert(0, '(').append(' ').append(operator(random)).append(' ').append(number(random))
+                        .append(')');
+            }
+            return equation.toString();
+        }
+    },
+    /**
+     * A sum of {@code size} products of variables and numbers, with variables {@code a} to {@code t}.
+     */
+    VARIABLES {
+        @Override
+        String equation(Random random, int size) {
+            final StringBuilder equation = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    equation.append(random.nextBoolean() ? " + " : " - ");
+                }
+                equation.append(variable(random)).append(" * ").append(random.nextBoolean() ? variable(random) : number(random));
+            }
+            return equation.toString();
+        }
+    },
+    /**
+     * A sum of {@code size} powers, half of them with small integer exponents and half with fractional ones.
+     */
+    EXPONENTS {
+        @Override
+        String equation(Random random, int size) {
+            final StringBuilder equation = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    equation.append(" + ");
+                }
+                equation.append(number(random)).append('^');
+                if (random.nextBoolean()) {
+                    equation.append(random.nextInt(5) + 1);
+                } else {
+                    equation.append('(').append(random.nextInt(9) + 1).append('/').append(random.nextInt(9) + 2).append(')');
+                }
+            }
+            return equation.toString();
+        }
+    };
+
+    private static final char[] OPERATORS = {'+', '-', '*', '/'};
+
+    /**
+     * Generates an equation.
+     *
+     * @param random source of randomness, seeded to get reproducible equations
+     * @param size   how big the equation should be; what exactly it means depends on the workload
+     * @return a new equation
+     */
+    abstract String equation(Random random, int size);
+
+    private static String mixed(Random random, int depth, int maxDepth) {
+        if (depth > maxDepth) {
+            return number(random);
+        }
+        final StringBuilder equation = new StringBuilder();
+        final int terms = random.nextInt(3) + 2;
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                equation.append(' ').append(operator(random)).append(' ');
+            }
+            if (random.nextBoolean()) {
+                equation.append(number(random));
+            } else {
+                equation.append('(').append(mixed(random, depth + 1, maxDepth)).append(')');
+            }
+        }
+        return equation.toString();
+    }
+
+    private static String number(Random random) {
+        return String.valueOf(random.nextInt(10) + 1);
+    }
+
+    private static char operator(Random random) {
+        return OPERATORS[random.nextInt(OPERATORS.length)];
+    }
+
+    private static char variable(Random random) {
+        return (char) ('a' + random.nextInt(20));
+    }
+}
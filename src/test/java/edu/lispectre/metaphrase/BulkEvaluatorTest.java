@@ -0,0 +1,97 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkEvaluatorTest {
+    private static List<String> lines(ByteArrayOutputStream output) {
+        return output.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    @Test
+    void reportFailedLinesWithoutStopping() throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final BulkEvaluator.Summary summary = BulkEvaluator.evaluate(
+                new StringReader("1/3\n\n2*(3+4)\n1/0\n(1+2\nx+1\n2^10"), output, new MathContext(5));
+        final List<String> results = lines(output);
+        assertEquals("0.33333", results.get(0));
+        assertEquals("", results.get(1));
+        assertEquals("14", results.get(2));
+        assertTrue(results.get(3).startsWith("ERROR "), results.get(3));
+        assertEquals("ERROR Parentheses error - unmatched open parenthesis.", results.get(4));
+        assertEquals("ERROR No value given for variable x.", results.get(5));
+        assertEquals("1024", results.get(6));
+        assertEquals(7, results.size());
+        assertEquals(6, summary.equations());
+        assertEquals(3, summary.failedEquations());
+    }
+
+    @Test
+    void reportDeepLinesWithoutStopping() throws IOException {
+        final String deep = "1-(".repeat(50_000) + "1" + ")".repeat(50_000);
+        final String input = "1+1\n" + deep + "\n2+2";
+        final ByteArrayOutputStream limited = new ByteArrayOutputStream();
+        final BulkEvaluator.Summary summary = BulkEvaluator.evaluate(new StringReader(input), limited,
+                new MathContext(5));
+        assertEquals(List.of("2", "ERROR The parentheses are nested deeper than 256 levels.", "4"), lines(limited));
+        assertEquals(1, summary.failedEquations());
+
+        final ByteArrayOutputStream unlimited = new ByteArrayOutputStream();
+        final ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            BulkEvaluator.evaluate(new StringReader(input), unlimited, new MathContext(5), pool, null);
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(List.of("2", "1", "4"), lines(unlimited));
+    }
+
+    @Test
+    void keepTheOrderOfTheInput() throws IOException {
+        final Random random = new Random(7);
+        final StringBuilder input = new StringBuilder();
+        final ArrayList<String> expected = new ArrayList<>();
+        final Tokenizer tokenizer = new Tokenizer();
+        final MathContext mathContext = new MathContext(12);
+        for (int i = 0; i < 5000; i++) {
+            final String equation = Workload.MIXED.equation(random, 3);
+            input.append(equation).append('\n');
+            try {
+                tokenizer.tokenizeEquation(equation, mathContext);
+                expected.add(Parser.parseTokens(tokenizer.getTokens(), mathContext).eval().toString());
+            } catch (ArithmeticException ex) {
+                expected.add("ERROR");
+            }
+        }
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            final BulkEvaluator.Summary summary = BulkEvaluator.evaluate(new StringReader(input.toString()), output,
+                    mathContext, pool, EvaluationLimits.DEFAULT, 7);
+            final List<String> results = lines(output);
+            assertEquals(expected.size(), results.size());
+            for (int i = 0; i < expected.size(); i++) {
+                if (expected.get(i).equals("ERROR")) {
+                    assertTrue(results.get(i).startsWith("ERROR "), results.get(i));
+                } else {
+                    assertEquals(expected.get(i), results.get(i));
+                }
+            }
+            assertEquals(5000, summary.equations());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
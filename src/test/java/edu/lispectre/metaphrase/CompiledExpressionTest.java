@@ -0,0 +1,46 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CompiledExpressionTest {
+    final String aReallyLongEquation = "(((3^2 + 4^2) / 5 * 2 + (6 * 9)^(1/2)) - ((7 * 8) / 2 + (10^2) / 11) * ((12 / 13) + (14^3) / 15) + (16 - (17 * 18) / (19^(1/2))) * ((20 + 21) / 22) - ((23 / 24) - 25) * (26 + ((27 * 28)^(1/2)) / 29))";
+
+    @Test
+    void compileGivesSameResults() {
+        final Expression expression = Expression.parse(aReallyLongEquation, 30);
+        assertEquals(expression.eval(), expression.compile().eval());
+    }
+
+    @Test
+    void compileWithVariables() {
+        final Expression expression = Expression.parse("30*x/((3-y)+z) - -x^2", 20);
+        final CompiledExpression compiled = expression.compile();
+        final Bindings bindings = expression.newBindings()
+                .set("x", new BigDecimal("5.0"))
+                .set("y", new BigDecimal("2.3"))
+                .set("z", new BigDecimal("10.0"));
+        assertEquals(expression.eval(bindings), compiled.eval(bindings));
+    }
+
+    @Test
+    void compileLongEquation() {
+        final StringBuilder equation = new StringBuilder("x");
+        for (int i = 0; i < 5_000; i++) {
+            equation.append(i % 3 == 0 ? "+" : "*").append(i % 200 + 1).append(".5/x");
+        }
+        final Expression expression = Expression.parse(equation.toString(), 15);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("1.25"));
+        assertEquals(expression.eval(bindings), expression.compile().eval(bindings));
+    }
+
+    @Test
+    void compiledDivisionByZero() {
+        final CompiledExpression compiled = Expression.parse("1/(2-2)", 10).compile();
+        assertThrows(ArithmeticException.class, compiled::eval);
+    }
+}
@@ -0,0 +1,68 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CsvEvaluatorTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void evaluateEveryRow() throws IOException {
+        final Path input = Files.writeString(directory.resolve("in.csv"),
+                "y, id ,x\r\n1.5,a,2\r\n\r\n-3,b,1e2\r\n0,c,+0.25\n");
+        final Path output = directory.resolve("out.txt");
+        final CsvEvaluator.Summary summary = CsvEvaluator.evaluate(Expression.parse("x/y", 10), input, output);
+        assertEquals(new CsvEvaluator.Summary(3, 1), summary);
+        assertEquals("1.333333333\n-33.33333333\n\n", Files.readString(output));
+    }
+
+    @Test
+    void evaluateRowsBeyondTheLimits() throws IOException {
+        final Path input = Files.writeString(directory.resolve("in.csv"), "x,y\n2,3\n2,99999999999\n3,2\n");
+        final Expression expression = Expression.parse("x^y", new MathContext(10), EvaluationLimits.DEFAULT);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(new CsvEvaluator.Summary(3, 1), CsvEvaluator.evaluate(expression, input, output));
+        assertEquals("8\n\n9\n", output.toString());
+    }
+
+    @Test
+    void evaluateAcrossWindows() throws IOException {
+        final Expression expression = Expression.parse("x*y-x", 20);
+        final StringBuilder csv = new StringBuilder("x,y\n");
+        final StringBuilder expected = new StringBuilder();
+        for (int row = 0; row < 500; row++) {
+            final BigDecimal x = new BigDecimal(row + "." + row);
+            final BigDecimal y = new BigDecimal("-" + (row % 17) + "12345678901234567890.5");
+            csv.append(x).append(',').append(y).append('\n');
+            expected.append(expression.eval(new String[]{"x", "y"}, new BigDecimal[]{x, y})).append('\n');
+        }
+        csv.setLength(csv.length() - 1);
+        final Path input = Files.writeString(directory.resolve("in.csv"), csv);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        CsvEvaluator.evaluate(expression, input, output, 7);
+        assertEquals(expected.toString(), output.toString());
+    }
+
+    @Test
+    void evaluateMalformedFiles() throws IOException {
+        final Expression expression = Expression.parse("x+y", 10);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Path noColumn = Files.writeString(directory.resolve("a.csv"), "x,z\n1,2\n");
+        assertThrows(IllegalArgumentException.class, () -> CsvEvaluator.evaluate(expression, noColumn, output));
+        final Path shortRow = Files.writeString(directory.resolve("b.csv"), "x,y\n1\n");
+        assertThrows(IllegalArgumentException.class, () -> CsvEvaluator.evaluate(expression, shortRow, output));
+        final Path notNumber = Files.writeString(directory.resolve("c.csv"), "x,y\n1,two\n");
+        assertThrows(NumberFormatException.class, () -> CsvEvaluator.evaluate(expression, notNumber, output));
+    }
+}
@@ -0,0 +1,143 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EvaluationLimitsTest {
+    private static final MathContext MC = new MathContext(10);
+
+    private static LimitExceededException.Limit exceeded(Runnable runnable) {
+        return assertThrows(LimitExceededException.class, runnable::run).getLimit();
+    }
+
+    @Test
+    void evaluateDeepEquationsWithoutRecursion() {
+        final int depth = 100_000;
+        final String nested = "1-(".repeat(depth) + "1" + ")".repeat(depth);
+        final Expression expression = Expression.parse(nested, MC);
+        assertEquals(0, BigDecimal.ONE.compareTo(expression.eval()));
+        assertEquals(0, BigDecimal.ONE.compareTo(expression.optimize().eval()));
+
+        final String chain = "x" + "+x".repeat(depth);
+        final Expression sum = Expression.parse(chain, MathContext.UNLIMITED).optimize();
+        assertEquals(new BigDecimal(depth + 1), sum.eval(sum.newBindings().set("x", BigDecimal.ONE)));
+    }
+
+    @Test
+    void evaluateDeepEquationsEverywhere() {
+        final int depth = 100_000;
+        final String nested = "x-(".repeat(depth) + "x" + ")".repeat(depth);
+        final Expression expression = Expression.parse(nested, MC);
+        final Bindings bindings = expression.newBindings().set("x", BigDecimal.TWO);
+        assertEquals(0, BigDecimal.TWO.compareTo(expression.eval(bindings)));
+        assertEquals(2, expression.evalDouble(new double[]{2}));
+        assertEquals(2, expression.evalDouble(new double[]{2}, DoublePolicy.STRICT));
+        assertEquals(0, BigDecimal.TWO.compareTo(expression.evalPreferringDouble(bindings)));
+        final double[] results = new double[2];
+        expression.evalBatch(new double[][]{{2, 3}}, results);
+        assertEquals(3, results[1]);
+        assertEquals(0, BigDecimal.TWO.compareTo(expression.compile().eval(bindings)));
+        final Gradient gradient = new GradientEvaluator(expression).eval(bindings);
+        assertEquals(0, BigDecimal.TWO.compareTo(gradient.getValue()));
+        assertEquals(0, BigDecimal.ONE.compareTo(gradient.getDerivative("x")));
+        assertEquals(0, BigDecimal.TWO.compareTo(new ProgressiveEvaluator(expression).eval(bindings)));
+        final ExpressionGroup group = ExpressionGroup.parse(List.of(nested, "x+1"), MC);
+        final BigDecimal[] values = group.eval(group.newBindings().set("x", BigDecimal.TWO));
+        assertEquals(0, BigDecimal.TWO.compareTo(values[0]));
+        assertEquals(0, BigDecimal.valueOf(3).compareTo(values[1]));
+        assertThrows(ArithmeticException.class, () -> Expression.parse("1/(" + nested + "-2)", MC)
+                .evalDouble(new double[]{2}, DoublePolicy.STRICT));
+    }
+
+    @Test
+    void limitTheSizeOfEquations() {
+        final EvaluationLimits limits = EvaluationLimits.DEFAULT.withMaxNestingDepth(2).withMaxTokens(5);
+        assertEquals(BigDecimal.valueOf(3), Expression.parse("((1+2))", MC, limits).eval());
+        assertEquals(LimitExceededException.Limit.NESTING_DEPTH,
+                exceeded(() -> Expression.parse("(((1+2)))", MC, limits)));
+        assertEquals(LimitExceededException.Limit.TOKENS, exceeded(() -> Expression.parse("1+2+3+4", MC, limits)));
+    }
+
+    @Test
+    void limitExponentsAndDigits() {
+        final EvaluationLimits limits = EvaluationLimits.DEFAULT;
+        assertEquals(LimitExceededException.Limit.EXPONENT,
+                exceeded(() -> Expression.parse("2^100001", MC, limits).eval()));
+        final Expression power = Expression.parse("x^y", MC, limits);
+        assertEquals(LimitExceededException.Limit.EXPONENT, exceeded(() -> power.eval(power.newBindings()
+                .set("x", new BigDecimal("1.5")).set("y", new BigDecimal("-10000.5")))));
+        assertEquals(new BigDecimal("1.000000000E+5000"), Expression.parse("10^5000", MC, limits).eval());
+        assertEquals(LimitExceededException.Limit.DIGITS,
+                exceeded(() -> Expression.parse("10^5000*10^5000", MC, limits).eval()));
+        assertEquals(LimitExceededException.Limit.DIGITS,
+                exceeded(() -> Expression.parse("1/10^9999/100", MC, limits).eval()));
+        final Expression sum = Expression.parse("x+1", MC, limits);
+        assertEquals(LimitExceededException.Limit.DIGITS,
+                exceeded(() -> sum.eval(sum.newBindings().set("x", new BigDecimal("1E+20000")))));
+    }
+
+    @Test
+    void limitTheTimeOfEvaluations() {
+        final EvaluationLimits limits = EvaluationLimits.DEFAULT.withTimeout(Duration.ofNanos(1));
+        final Expression expression = Expression.parse("2^0.5*3^0.5*5^0.5*7^0.5", new MathContext(200), limits);
+        assertEquals(LimitExceededException.Limit.TIME, exceeded(expression::eval));
+    }
+
+    @Test
+    void limitEveryEvaluationWithBigDecimals() {
+        final EvaluationLimits limits = EvaluationLimits.DEFAULT.withMaxDigits(20);
+        assertEquals(LimitExceededException.Limit.EXPONENT,
+                exceeded(() -> Expression.parse("2^100001", MC, limits).toPostfix().eval()));
+        final Expression power = Expression.parse("2^x", MC, limits);
+        final Bindings huge = power.newBindings().set("x", new BigDecimal("100001"));
+        assertEquals(LimitExceededException.Limit.EXPONENT, exceeded(() -> new GradientEvaluator(power).eval(huge)));
+        assertEquals(LimitExceededException.Limit.EXPONENT, exceeded(() -> new ProgressiveEvaluator(power).eval(huge)));
+        final Expression square = Expression.parse("x*x", MC, limits);
+        final Bindings large = square.newBindings().set("x", new BigDecimal("1E+15"));
+        assertEquals(LimitExceededException.Limit.DIGITS, exceeded(() -> new GradientEvaluator(square).eval(large)));
+        assertEquals(LimitExceededException.Limit.DIGITS, exceeded(() -> new ProgressiveEvaluator(square).eval(large)));
+        assertThrows(IllegalStateException.class, square::compile);
+    }
+
+    @Test
+    void raisePrecisionUpToTheLimitOfDigits() {
+        final Expression limited = Expression.parse("sin(x+y)", MC, EvaluationLimits.DEFAULT.withMaxDigits(20));
+        final ProgressiveEvaluator evaluator = new ProgressiveEvaluator(limited);
+        final Bindings bindings = limited.newBindings().set("x", BigDecimal.ONE).set("y", new BigDecimal("1E-18"));
+        assertEquals(limited.eval(bindings), evaluator.eval(bindings));
+        assertEquals(0, evaluator.getEscalations());
+        assertEquals(1, evaluator.getFallbacks());
+
+        final Expression unlimited = Expression.parse("sin(x+y)", MC);
+        final ProgressiveEvaluator escalating = new ProgressiveEvaluator(unlimited);
+        escalating.eval(unlimited.newBindings().set("x", BigDecimal.ONE).set("y", new BigDecimal("1E-18")));
+        assertEquals(1, escalating.getEscalations());
+        assertEquals(0, escalating.getFallbacks());
+    }
+
+    @Test
+    void evaluateLikeWithoutLimits() {
+        final String equation = "(x*y+1)/3 - -x^2 + (x*y+1)";
+        final Expression limited = Expression.parse(equation, MC, EvaluationLimits.DEFAULT).optimize();
+        final Expression unlimited = Expression.parse(equation, MC);
+        assertSame(EvaluationLimits.DEFAULT, limited.getLimits());
+        final BigDecimal x = new BigDecimal("1.25");
+        final BigDecimal y = new BigDecimal("-7");
+        assertEquals(unlimited.eval(unlimited.newBindings().set("x", x).set("y", y)),
+                limited.eval(limited.newBindings().set("x", x).set("y", y)));
+    }
+
+    @Test
+    void rejectLimitsOfZero() {
+        assertThrows(IllegalArgumentException.class, () -> EvaluationLimits.DEFAULT.withMaxDigits(0));
+        assertThrows(IllegalArgumentException.class, () -> EvaluationLimits.DEFAULT.withTimeout(Duration.ZERO));
+    }
+}
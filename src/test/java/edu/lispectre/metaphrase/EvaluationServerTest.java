@@ -0,0 +1,87 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class EvaluationServerTest {
+    private static List<String> exchange(int port, List<String> requests) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            final OutputStream output = socket.getOutputStream();
+            output.write((String.join("\n", requests) + "\n").getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            socket.shutdownOutput();
+            final BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.UTF_8));
+            final ArrayList<String> responses = new ArrayList<>();
+            for (String line = input.readLine(); line != null; line = input.readLine()) {
+                responses.add(line);
+            }
+            return responses;
+        }
+    }
+
+    @Test
+    void respondInOrder() throws IOException {
+        try (EvaluationServer server = new EvaluationServer(0)) {
+            final List<String> responses = exchange(server.getPort(), List.of(
+                    "10;1/3", "20; x*y+1 ; x=2; y=3.5", "5;1/x;x=0", "abc;1+1", "10;(1+2", "10;x+1;z=1", "10;x+1"));
+            assertEquals("0.3333333333", responses.get(0));
+            assertEquals("8.0", responses.get(1));
+            assertTrue(responses.get(2).startsWith("ERROR "), responses.get(2));
+            assertEquals("ERROR Invalid precision: abc.", responses.get(3));
+            assertEquals("ERROR Parentheses error - unmatched open parenthesis.", responses.get(4));
+            assertEquals("ERROR Unknown variable: z.", responses.get(5));
+            assertEquals("ERROR No value given for variable x.", responses.get(6));
+            assertEquals(7, responses.size());
+            assertEquals(7, server.getRequests());
+            assertEquals(5, server.getFailedRequests());
+            assertTrue(exchange(server.getPort(), List.of("STATS")).get(0).startsWith("requests=7 failed=5"));
+        }
+    }
+
+    @Test
+    void serveManyClientsThroughSmallQueue() throws Exception {
+        final int clients = 16;
+        final int requestsPerClient = 500;
+        try (EvaluationServer server = new EvaluationServer(0, 8, 64, 2);
+             ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final ArrayList<Future<List<String>>> results = new ArrayList<>();
+            for (int client = 0; client < clients; client++) {
+                final ArrayList<String> requests = new ArrayList<>();
+                for (int i = 0; i < requestsPerClient; i++) {
+                    requests.add("15;rate*t+" + (client % 3) + ";rate=0.5;t=" + i);
+                }
+                results.add(executor.submit(() -> exchange(server.getPort(), requests)));
+            }
+            for (int client = 0; client < clients; client++) {
+                final List<String> responses = results.get(client).get();
+                assertEquals(requestsPerClient, responses.size());
+                for (int i = 0; i < requestsPerClient; i++) {
+                    final BigDecimal expected = new BigDecimal("0.5").multiply(BigDecimal.valueOf(i))
+                            .add(BigDecimal.valueOf(client % 3));
+                    assertEquals(0, expected.compareTo(new BigDecimal(responses.get(i))));
+                }
+            }
+            assertEquals((long) clients * requestsPerClient, server.getRequests());
+            assertEquals(0, server.getFailedRequests());
+            assertTrue(server.getBatches() > 0 && server.getBatches() <= server.getRequests());
+            assertEquals(server.getRequests(), server.getLatency().getCount());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpressionArchiveTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void readWhatWasWritten() throws IOException {
+        final Random random = new Random(17);
+        final ArrayList<Expression> expressions = new ArrayList<>();
+        for (Workload workload : Workload.values()) {
+            for (int i = 0; i < 20; i++) {
+                expressions.add(Expression.parse(workload.equation(random, 6), new MathContext(25, RoundingMode.DOWN)));
+            }
+        }
+        expressions.add(Expression.parse("-x^2 + 123456789012345678901234567890.5*y - 0.000/4", 40));
+        final Path file = directory.resolve("expressions.bin");
+        ExpressionArchive.write(expressions, file);
+        final List<Expression> read = ExpressionArchive.read(file);
+        assertEquals(expressions.size(), read.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            final Expression original = expressions.get(i);
+            final Expression copy = read.get(i);
+            assertEquals(original.getEquation(), copy.getEquation());
+            assertEquals(original.getMathContext(), copy.getMathContext());
+            assertEquals(original.getVariables(), copy.getVariables());
+            assertEquals(evaluate(original), evaluate(copy), original.getEquation());
+            assertSame(original.getRoot().getClass(), copy.getRoot().getClass());
+        }
+    }
+
+    @Test
+    void readOptimizedExpression() throws IOException {
+        final Expression optimized = Expression.parse("(x*x+1)*(x*x+1) - (2*3)/-x", 20).optimize();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExpressionArchive.write(List.of(optimized), output);
+        final Expression copy = ExpressionArchive.read(ByteBuffer.wrap(output.toByteArray())).get(0);
+        assertEquals(optimized.getSharedTokens(), copy.getSharedTokens());
+        assertEquals(optimized.getRemovedTokens(), copy.getRemovedTokens());
+        assertEquals(Optimizer.countTokens(optimized.getRoot()), Optimizer.countTokens(copy.getRoot()));
+        assertEquals(evaluate(optimized), evaluate(copy));
+    }
+
+    @Test
+    void readDeeplyNestedExpression() throws IOException {
+        final Expression expression = Expression.parse("(".repeat(20_000) + "x" + "+1)".repeat(20_000), 10);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExpressionArchive.write(List.of(expression), output);
+        final Expression copy = ExpressionArchive.read(ByteBuffer.wrap(output.toByteArray())).get(0);
+        assertEquals(expression.toPostfix().eval(expression.newBindings().set("x", BigDecimal.ONE)),
+                copy.toPostfix().eval(copy.newBindings().set("x", BigDecimal.ONE)));
+    }
+
+    @Test
+    void readInvalidArchive() throws IOException {
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionArchive.read(ByteBuffer.wrap("x+1".getBytes())));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExpressionArchive.write(List.of(Expression.parse("x+1", 10)), output);
+        final byte[] bytes = output.toByteArray();
+        assertThrows(IllegalArgumentException.class,
+                () -> ExpressionArchive.read(ByteBuffer.wrap(bytes, 0, bytes.length - 2)));
+        bytes[4] = 2;
+        assertThrows(IllegalArgumentException.class, () -> ExpressionArchive.read(ByteBuffer.wrap(bytes)));
+        final Path empty = Files.write(directory.resolve("empty.bin"), new byte[0]);
+        assertThrows(IllegalArgumentException.class, () -> ExpressionArchive.read(empty));
+    }
+
+    private static String evaluate(Expression expression) {
+        final Bindings bindings = expression.newBindings();
+        for (int slot = 0; slot < expression.getVariables().size(); slot++) {
+            bindings.set(slot, new BigDecimal("1.7").add(BigDecimal.valueOf(slot)));
+        }
+        try {
+            final BigDecimal result = expression.eval(bindings);
+            return result + " " + result.scale();
+        } catch (ArithmeticException ex) {
+            return ex.getMessage();
+        }
+    }
+}
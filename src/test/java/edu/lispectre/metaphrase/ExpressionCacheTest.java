@@ -0,0 +1,57 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpressionCacheTest {
+    final ExpressionCache cache = new ExpressionCache(2);
+
+    @Test
+    void cacheHit() {
+        final Expression first = cache.get("30*x/((3-y)+z)", 10);
+        final Expression second = cache.get("30*x/((3-y)+z)", 10);
+        assertSame(first, second);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        final String[] variables = {"x", "y", "z"};
+        final BigDecimal[] values = {new BigDecimal("5.0"), new BigDecimal("2.3"), new BigDecimal("10.0")};
+        assertEquals(new BigDecimal("14.01869159"), second.eval(variables, values));
+    }
+
+    @Test
+    void cacheKeyedByMathContext() {
+        final Expression tenDigits = cache.get("1/3", 10);
+        final Expression twentyDigits = cache.get("1/3", new MathContext(20));
+        assertNotSame(tenDigits, twentyDigits);
+        assertEquals(new BigDecimal("0.3333333333"), tenDigits.eval());
+        assertEquals(new BigDecimal("0.33333333333333333333"), twentyDigits.eval());
+    }
+
+    @Test
+    void cacheEvictsLeastRecentlyUsed() {
+        final Expression first = cache.get("1+1", 10);
+        cache.get("2+2", 10);
+        cache.get("1+1", 10);
+        cache.get("3+3", 10);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertSame(first, cache.get("1+1", 10));
+        assertEquals(2, cache.getHits());
+    }
+
+    @Test
+    void evalRequiresAllVariables() {
+        final Expression expression = cache.get("x+y", 10);
+        assertThrows(IllegalArgumentException.class,
+                () -> expression.eval(new String[]{"x"}, new BigDecimal[]{BigDecimal.ONE}));
+        assertThrows(IllegalArgumentException.class,
+                () -> expression.eval(new String[]{"x", "z"}, new BigDecimal[]{BigDecimal.ONE, BigDecimal.ONE}));
+    }
+}
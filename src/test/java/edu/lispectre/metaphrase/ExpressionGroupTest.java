@@ -0,0 +1,64 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionGroupTest {
+    final List<String> equations = List.of(
+            "principal * (rate*t + 1)",
+            "(rate*t + 1)^2 - fee",
+            "fee / (rate*t + 1)",
+            "rate*t + 1",
+            "-principal + 10--2",
+            "principal * (rate*t + 1)");
+
+    @Test
+    void evalGivesSameResultsAsSeparateExpressions() {
+        final ExpressionGroup group = ExpressionGroup.parse(equations, 25);
+        assertEquals(List.of("principal", "rate", "t", "fee"), group.getVariables());
+        final Bindings bindings = group.newBindings().set("principal", new BigDecimal("1000"))
+                .set("rate", new BigDecimal("0.035")).set("t", new BigDecimal("2.5")).set("fee", new BigDecimal("12.5"));
+        final BigDecimal[] results = group.eval(bindings);
+        for (int i = 0; i < equations.size(); i++) {
+            final Expression expression = Expression.parse(equations.get(i), 25);
+            final Bindings separate = expression.newBindings();
+            for (String variable : expression.getVariables()) {
+                separate.set(variable, bindings.get(variable));
+            }
+            assertEquals(expression.eval(separate), results[i], equations.get(i));
+        }
+        final BigDecimal[] again = new BigDecimal[equations.size()];
+        group.eval(bindings, again);
+        assertArrayEquals(results, again);
+    }
+
+    @Test
+    void sharedSubexpressionsAreComputedOnce() {
+        final ExpressionGroup group = ExpressionGroup.parse(equations, 25);
+        // rate*t+1 and principal*(rate*t+1) are shared between the equations.
+        assertEquals(2, group.getSharedTokens());
+        int separatelyRemoved = 0;
+        for (String equation : equations) {
+            separatelyRemoved += Expression.parse(equation, 25).optimize().getRemovedTokens();
+        }
+        assertTrue(group.getRemovedTokens() > separatelyRemoved);
+    }
+
+    @Test
+    void evalChecksBindings() {
+        final ExpressionGroup group = ExpressionGroup.parse(List.of("x+1", "y*2"), 10);
+        assertThrows(IllegalArgumentException.class, () -> group.eval(group.newBindings().set("x", BigDecimal.ONE)));
+        assertThrows(IllegalArgumentException.class,
+                () -> group.eval(Expression.parse("x+1", 10).newBindings().set("x", BigDecimal.ONE)));
+        assertThrows(IllegalArgumentException.class, () -> group.eval(
+                group.newBindings().set("x", BigDecimal.ONE).set("y", BigDecimal.ONE), new BigDecimal[1]));
+        assertEquals(-1, group.slotOf("z"));
+    }
+}
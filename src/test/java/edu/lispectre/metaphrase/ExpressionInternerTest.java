@@ -0,0 +1,87 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionInternerTest {
+    private static final MathContext MC = new MathContext(20);
+
+    @Test
+    void shareLiteralsAndIdenticalSubtrees() {
+        final ExpressionInterner interner = new ExpressionInterner();
+        final Expression first = interner.intern(Expression.parse("a*(rate*t+1.5)", MC));
+        final Expression second = interner.intern(Expression.parse("b*(rate*t+1.5)", MC));
+        final Expression third = interner.intern(Expression.parse("c-1.5", MC));
+        assertSame(first.getRoot().right, second.getRoot().right);
+        assertNotSame(first.getRoot(), second.getRoot());
+        assertSame(first.getRoot().right.right, third.getRoot().right);
+        assertEquals(6, interner.getSharedTokens());                     // rate, t, rate*t, 1.5, + and 1.5 again.
+        assertEquals(17, interner.getTokens());
+    }
+
+    @Test
+    void countTheOverheadOfTheInterner() {
+        final ExpressionInterner interner = new ExpressionInterner();
+        final List<Expression> resident = new ArrayList<>();
+        resident.add(interner.intern(Expression.parse("a*(rate*t+1.5)", MC)));
+        final long overhead = interner.getSavedBytes();
+        assertTrue(overhead < 0);
+        for (int i = 0; i < 100; i++) {
+            resident.add(interner.intern(Expression.parse("a*(rate*t+1.5)", MC)));
+        }
+        assertTrue(interner.getSavedBytes() > -overhead);
+        assertEquals(101, resident.size());
+    }
+
+    @Test
+    void keepSubtreesWithDifferentSlotsOrContextsApart() {
+        final ExpressionInterner interner = new ExpressionInterner();
+        final Expression first = interner.intern(Expression.parse("x*y", MC));
+        final Expression second = interner.intern(Expression.parse("y*x", MC));
+        final Expression third = interner.intern(Expression.parse("x*y", new MathContext(5)));
+        assertNotSame(first.getRoot().left, second.getRoot().right);
+        assertNotSame(first.getRoot(), third.getRoot());
+        assertSame(first.getRoot().left, third.getRoot().left);
+    }
+
+    @Test
+    void evaluateLikeTheOriginals() {
+        final ExpressionInterner interner = new ExpressionInterner();
+        final List<String> equations = List.of("(x*y+1)/3 - -x^2 + (x*y+1)", "-(x*y+1)^2", "x/y - (x*y+1)");
+        for (String equation : equations) {
+            for (Expression original : List.of(Expression.parse(equation, MC), Expression.parse(equation, MC).optimize())) {
+                final Expression interned = interner.intern(original);
+                final Bindings bindings = original.newBindings().set("x", new BigDecimal("2.5")).set("y", new BigDecimal("-3"));
+                assertEquals(original.eval(bindings), interned.eval(bindings));
+                assertEquals(original.getEquation(), interned.getEquation());
+            }
+        }
+        assertTrue(interner.getSharedTokens() > 0);
+    }
+
+    @Test
+    void forgetTokensNoLongerUsed() throws InterruptedException {
+        final ExpressionInterner interner = new ExpressionInterner();
+        List<Expression> resident = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            resident.add(interner.intern(Expression.parse("x*" + i + "+" + (i + 1), MC)));
+        }
+        resident.add(interner.intern(Expression.parse("x" + "+1".repeat(500), MC)));
+        assertTrue(interner.getCanonicalTokens() > 2500);
+        resident = null;
+        for (int attempt = 0; attempt < 50 && interner.getCanonicalTokens() > 0; attempt++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(0, interner.getCanonicalTokens());               // Even the chain, deeper than the attempts.
+    }
+}
@@ -0,0 +1,121 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpressionTest {
+    final Expression expression = Expression.parse("30*x/((3-y)+z)", 10);
+
+    @Test
+    void evalWithBindings() {
+        final Bindings bindings = expression.newBindings()
+                .set("x", new BigDecimal("5.0"))
+                .set("y", new BigDecimal("2.3"))
+                .set(expression.slotOf("z"), new BigDecimal("10.0"));
+        assertEquals(List.of("x", "y", "z"), expression.getVariables());
+        assertEquals(new BigDecimal("14.01869159"), expression.eval(bindings));
+    }
+
+    @Test
+    void evalConcurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<BigDecimal>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                final BigDecimal x = BigDecimal.valueOf(i);
+                results.add(executor.submit(() -> expression.eval(expression.newBindings()
+                        .set("x", x)
+                        .set("y", BigDecimal.ONE)
+                        .set("z", BigDecimal.ONE))));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals(BigDecimal.valueOf(10L * i), results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void evalRejectsForeignBindings() {
+        final Bindings foreign = Expression.parse("x+y+z", 10).newBindings();
+        assertThrows(IllegalArgumentException.class, () -> expression.eval(foreign));
+        assertThrows(IllegalArgumentException.class, () -> expression.eval(expression.newBindings()));
+    }
+
+    @Test
+    void evalDouble() {
+        assertEquals(30.0 * 5 / ((3 - 2.3) + 10), expression.evalDouble(new double[]{5, 2.3, 10}));
+        assertEquals(0.25, Expression.parse("2^-2", 10).evalDouble(new double[0]));
+    }
+
+    @Test
+    void evalDoubleDivisionByZero() {
+        final double[] values = {1, 13, 10};
+        assertEquals(Double.POSITIVE_INFINITY, expression.evalDouble(values));
+        assertThrows(ArithmeticException.class, () -> expression.evalDouble(values, DoublePolicy.STRICT));
+        assertThrows(ArithmeticException.class,
+                () -> Expression.parse("10^400", 10).evalDouble(new double[0], DoublePolicy.STRICT));
+    }
+
+    @Test
+    void evalPreferringDouble() {
+        final Bindings bindings = expression.newBindings()
+                .set("x", new BigDecimal("5.0"))
+                .set("y", new BigDecimal("2.3"))
+                .set("z", new BigDecimal("10.0"));
+        assertEquals(new BigDecimal("14.01869159"), expression.evalPreferringDouble(bindings));
+        final Expression precise = Expression.parse("1/3", 40);
+        assertEquals(precise.eval(), precise.evalPreferringDouble(precise.newBindings()));
+        final Expression huge = Expression.parse("10^400", 10);
+        assertEquals(huge.eval(), huge.evalPreferringDouble(huge.newBindings()));
+        final Expression divisionByZero = Expression.parse("1/0", 10);
+        assertThrows(ArithmeticException.class, () -> divisionByZero.evalPreferringDouble(divisionByZero.newBindings()));
+    }
+
+    @Test
+    void evalBatchDouble() {
+        final Expression expression = Expression.parse("30*x/((3-y)+z) - -x^2 + 1/(y-2)", 15);
+        final int rows = 2 * ColumnEvaluator.CHUNK_SIZE + 13;
+        final double[][] columns = new double[3][rows];
+        for (int row = 0; row < rows; row++) {
+            columns[0][row] = row * 0.25 - 100;
+            columns[1][row] = row % 7 - 3;
+            columns[2][row] = row * 1.5;
+        }
+        final double[] vectorResults = new double[rows];
+        final double[] scalarResults = new double[rows];
+        expression.evalBatch(columns, vectorResults);
+        ColumnEvaluator.evaluate(new ColumnKernels(), expression.getRoot(), columns, scalarResults);
+        for (int row = 0; row < rows; row++) {
+            final double expected = expression.evalDouble(new double[]{columns[0][row], columns[1][row], columns[2][row]});
+            assertEquals(expected, vectorResults[row]);
+            assertEquals(expected, scalarResults[row]);
+        }
+    }
+
+    @Test
+    void evalBatchBigDecimal() {
+        final Expression expression = Expression.parse("x*y-x", 10);
+        final BigDecimal[][] columns = {
+                {BigDecimal.ONE, new BigDecimal("2.5"), BigDecimal.TEN},
+                {BigDecimal.TEN, new BigDecimal("-4"), BigDecimal.ZERO}
+        };
+        final BigDecimal[] results = new BigDecimal[3];
+        expression.evalBatch(columns, results);
+        assertEquals(new BigDecimal("9"), results[0]);
+        assertEquals(new BigDecimal("-12.5"), results[1]);
+        assertEquals(new BigDecimal("-10"), results[2]);
+        assertThrows(IllegalArgumentException.class, () -> expression.evalBatch(columns, new BigDecimal[4]));
+        assertThrows(IllegalArgumentException.class, () -> expression.evalBatch(new double[1][3], new double[3]));
+    }
+}
@@ -0,0 +1,104 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FormulaGraphTest {
+    final FormulaGraph graph = new FormulaGraph(new MathContext(10));
+
+    @Test
+    void formulasFollowTheirInputs() {
+        graph.define("ratio", "margin / price");
+        graph.define("margin", "price - cost");
+        assertNull(graph.get("ratio"));
+        assertTrue(graph.isFormula("margin"));
+        assertFalse(graph.isFormula("price"));
+
+        assertEquals(List.of("margin", "ratio"), graph.setAll(Map.of("price", new BigDecimal("8"), "cost", new BigDecimal("6"))));
+        assertEquals(new BigDecimal("0.25"), graph.get("ratio"));
+        assertEquals(List.of("margin", "ratio"), graph.set("cost", new BigDecimal("4")));
+        assertEquals(new BigDecimal("0.5"), graph.get("ratio"));
+        assertThrows(IllegalArgumentException.class, () -> graph.set("margin", BigDecimal.ONE));
+        assertThrows(IllegalArgumentException.class, () -> graph.get("nothing"));
+    }
+
+    @Test
+    void onlyAffectedFormulasAreEvaluated() {
+        graph.define("a", "x + 1");
+        graph.define("b", "y * 2");
+        graph.define("c", "a + b");
+        graph.define("d", "c * c - a");
+        graph.setAll(Map.of("x", BigDecimal.ONE, "y", BigDecimal.TEN));
+        assertEquals(new BigDecimal("482"), graph.get("d"));
+
+        long before = graph.getEvaluations();
+        graph.set("y", new BigDecimal("11"));
+        assertEquals(3, graph.getEvaluations() - before);              // b, c and d, but not a.
+        assertEquals(new BigDecimal("574"), graph.get("d"));
+
+        before = graph.getEvaluations();
+        graph.setAll(Map.of("x", new BigDecimal("2"), "y", new BigDecimal("12")));
+        assertEquals(4, graph.getEvaluations() - before);              // Every formula once.
+
+        before = graph.getEvaluations();
+        assertEquals(List.of(), graph.set("y", new BigDecimal("12")));
+        assertEquals(0, graph.getEvaluations() - before);
+    }
+
+    @Test
+    void unchangedValuesStopPropagating() {
+        graph.define("sign", "x / x");
+        graph.define("scaled", "sign * 100");
+        graph.set("x", new BigDecimal("3"));
+        final long before = graph.getEvaluations();
+        assertEquals(List.of(), graph.set("x", new BigDecimal("7")));
+        assertEquals(1, graph.getEvaluations() - before);
+        assertEquals(new BigDecimal("100"), graph.get("scaled"));
+    }
+
+    @Test
+    void redefiningReordersFormulas() {
+        graph.define("total", "base + extra");
+        graph.define("extra", "5");
+        graph.set("base", BigDecimal.ONE);
+        assertEquals(new BigDecimal("6"), graph.get("total"));
+        graph.define("bonus", "base * 3");
+        graph.define("extra", "bonus + 1");
+        assertEquals(new BigDecimal("5"), graph.get("total"));
+        assertEquals(List.of("bonus", "extra", "total"), graph.set("base", new BigDecimal("2")));
+        assertEquals(new BigDecimal("9"), graph.get("total"));
+    }
+
+    @Test
+    void cyclesAreRejected() {
+        graph.define("a", "b + 1");
+        graph.define("b", "c * 2");
+        final IllegalArgumentException cycle = assertThrows(IllegalArgumentException.class,
+                () -> graph.define("c", "a - 1"));
+        assertEquals("Cyclic formula: c -> a -> b -> c.", cycle.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> graph.define("n", "n + 1"));
+        assertFalse(graph.isFormula("c"));
+        graph.set("c", BigDecimal.ONE);
+        assertEquals(new BigDecimal("3"), graph.get("a"));
+    }
+
+    @Test
+    void failingFormulasHaveNoValue() {
+        graph.define("inverse", "1 / x");
+        graph.define("twice", "inverse * 2");
+        graph.set("x", BigDecimal.ZERO);
+        assertNull(graph.get("twice"));
+        graph.set("x", new BigDecimal("4"));
+        assertEquals(new BigDecimal("0.50"), graph.get("twice"));
+    }
+}
@@ -0,0 +1,129 @@
+package edu.lispectre.metaphrase;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FunctionsTest {
+    private static final MathContext MC = new MathContext(30);
+    private static final String EQUATION = "sqrt(x^2+1) * sin(x) - exp(-x)/ln(x+2) + abs(atan(x)) - log2(x)";
+
+    @Test
+    void evalFunctionCalls() {
+        final Expression expression = Expression.parse("sqrt(x)*sin(x) - cos(x)", MC);
+        final BigDecimal x = new BigDecimal("2");
+        final BigDecimal expected = BigDecimalMath.sqrt(x, MC).multiply(BigDecimalMath.sin(x, MC), MC)
+                .subtract(BigDecimalMath.cos(x, MC), MC);
+        assertEquals(expected, expression.eval(expression.newBindings().set("x", x)));
+        assertEquals(0, new BigDecimal("3").compareTo(Expression.parse("log2(8)", MC).eval()));
+        assertEquals(0, new BigDecimal("3").compareTo(Expression.parse("log10(1000)", MC).eval()));
+        assertEquals(0, new BigDecimal("-3").compareTo(Expression.parse("-sqrt(4)-1", MC).eval()));
+        assertEquals(0, new BigDecimal("2").compareTo(Expression.parse("sqrt (sqrt(16))", MC).eval()));
+        assertEquals(0, new BigDecimal("6.5").compareTo(Expression.parse("abs(-2.5)*2 + abs(1.5)", MC).eval()));
+    }
+
+    @Test
+    void tellCallsFromVariables() {
+        final Expression expression = Expression.parse("sin + sin(sin)*e", MC);
+        assertEquals(List.of("sin", "e"), expression.getVariables());
+        final Bindings bindings = expression.newBindings().set("sin", BigDecimal.ONE).set("e", BigDecimal.TEN);
+        final BigDecimal expected = BigDecimal.ONE.add(BigDecimalMath.sin(BigDecimal.ONE, MC).multiply(BigDecimal.TEN, MC), MC);
+        assertEquals(expected, expression.eval(bindings));
+    }
+
+    @Test
+    void evalCachedConstants() {
+        assertEquals(BigDecimalMath.pi(MC), Expression.parse("pi()", MC).eval());
+        assertEquals(BigDecimalMath.e(MC), Expression.parse("e( )", MC).eval());
+        assertSame(Functions.pi(MC), Functions.pi(new MathContext(30)));
+        assertSame(Functions.ln2(MC), Functions.ln2(MC));
+        assertEquals(BigDecimalMath.log(BigDecimal.TEN, MC), Functions.ln10(MC));
+        assertThrows(ArithmeticException.class, () -> Functions.pi(MathContext.UNLIMITED));
+    }
+
+    @Test
+    void rejectMalformedCalls() {
+        final RuntimeException missing = assertThrows(RuntimeException.class, () -> Expression.parse("1 + sqrt()", MC));
+        assertEquals("Missing argument of sqrt().", missing.getMessage());
+        assertThrows(RuntimeException.class, () -> Expression.parse("pi(2)", MC));
+        assertThrows(RuntimeException.class, () -> Expression.parse("sqrt(2", MC));
+        assertThrows(ArithmeticException.class, () -> Expression.parse("sqrt(-1)", MC).eval());
+        assertThrows(ArithmeticException.class, () -> Expression.parse("ln(x)", MathContext.UNLIMITED).eval(
+                new String[]{"x"}, new BigDecimal[]{BigDecimal.ONE}));
+    }
+
+    @Test
+    void rememberResultsInMemo() {
+        final Expression expression = Expression.parse("sin(x) + cos(x)", MC);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("0.5"));
+        final BigDecimal expected = expression.eval(bindings);
+        Functions.enableMemo(100);
+        try {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(expected, expression.eval(bindings));
+            }
+            assertEquals(2, Functions.getMemoMisses());
+            assertEquals(4, Functions.getMemoHits());
+            assertEquals(expected, expression.eval(bindings.set("x", new BigDecimal("0.50"))));
+            assertEquals(4, Functions.getMemoMisses());
+        } finally {
+            Functions.disableMemo();
+        }
+        assertThrows(IllegalArgumentException.class, () -> Functions.enableMemo(0));
+    }
+
+    @Test
+    void evalAlikeEverywhere() throws IOException {
+        final Expression expression = Expression.parse(EQUATION, MC);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("0.75"));
+        final BigDecimal expected = expression.eval(bindings);
+        assertEquals(expected, expression.toPostfix().eval(bindings));
+        assertEquals(expected, expression.compile().eval(bindings));
+        final Expression optimized = expression.optimize();
+        assertEquals(expected, optimized.eval(optimized.newBindings().set("x", new BigDecimal("0.75"))));
+        assertEquals(expected, new ExpressionInterner().intern(expression).eval(bindings));
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ExpressionArchive.write(List.of(expression), output);
+        final Expression copy = ExpressionArchive.read(ByteBuffer.wrap(output.toByteArray())).get(0);
+        assertEquals(expected, copy.eval(copy.newBindings().set("x", new BigDecimal("0.75"))));
+        assertEquals(expected.doubleValue(), expression.evalDouble(new double[]{0.75}), 1e-12);
+        final double[] results = new double[3];
+        expression.evalBatch(new double[][]{{0.75, 0.75, 0.75}}, results);
+        assertEquals(expected.doubleValue(), results[2], 1e-12);
+        assertThrows(ArithmeticException.class, () -> Expression.parse("ln(x)", MC)
+                .evalDouble(new double[]{-1}, DoublePolicy.STRICT));
+    }
+
+    @Test
+    void evalDerivativesOfFunctions() {
+        final Expression expression = Expression.parse("sin(x)*exp(x) + sqrt(y)", MC);
+        final BigDecimal x = new BigDecimal("0.5");
+        final BigDecimal y = new BigDecimal("2.25");
+        final Gradient gradient = new GradientEvaluator(expression).eval(expression.newBindings().set("x", x).set("y", y));
+        final BigDecimal expected = BigDecimalMath.exp(x, MC)
+                .multiply(BigDecimalMath.sin(x, MC).add(BigDecimalMath.cos(x, MC)), MC);
+        assertTrue(expected.subtract(gradient.getDerivative("x")).abs().compareTo(new BigDecimal("1E-28")) < 0);
+        assertEquals(0, BigDecimal.ONE.divide(new BigDecimal("3"), MC).compareTo(gradient.getDerivative("y")));
+    }
+
+    @Test
+    void evalProgressively() {
+        final Expression expression = Expression.parse("sin(x) + sqrt(x) - acos(x/4) + abs(x-3)", 20);
+        final ProgressiveEvaluator evaluator = new ProgressiveEvaluator(expression);
+        final BigDecimal exact = Expression.parse("sin(1.25) + sqrt(1.25) - acos(1.25/4) + abs(1.25-3)", 60).eval()
+                .round(new MathContext(20));
+        assertEquals(exact, evaluator.eval(expression.newBindings().set("x", new BigDecimal("1.25"))));
+        assertEquals(0, evaluator.getFallbacks());
+    }
+}
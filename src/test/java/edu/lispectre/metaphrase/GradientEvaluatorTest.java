@@ -0,0 +1,101 @@
+package edu.lispectre.metaphrase;
+
+import ch.obermuhlner.math.big.BigDecimalMath;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GradientEvaluatorTest {
+    private static final MathContext MC = new MathContext(30);
+
+    @Test
+    void evalPolynomial() {
+        final Expression expression = Expression.parse("x^3 - 2*x*y + y/4 - -x", MC);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("1.5")).set("y", new BigDecimal("-2"));
+        final Gradient gradient = new GradientEvaluator(expression).eval(bindings);
+        assertEquals(expression.eval(bindings), gradient.getValue());
+        assertEquals(0, new BigDecimal("11.75").compareTo(gradient.getDerivative("x")));
+        assertEquals(0, new BigDecimal("-2.75").compareTo(gradient.getDerivative("y")));
+        assertEquals(expression.getVariables(), gradient.getVariables());
+    }
+
+    @Test
+    void evalQuotient() {
+        final Expression expression = Expression.parse("(x+1)/(x*y)", MC);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("2")).set("y", new BigDecimal("4"));
+        final Gradient gradient = new GradientEvaluator(expression).eval(bindings);
+        assertEquals(0, new BigDecimal("-0.0625").compareTo(gradient.getDerivative("x")));
+        assertEquals(0, new BigDecimal("-0.09375").compareTo(gradient.getDerivative("y")));
+    }
+
+    @Test
+    void evalVariableExponent() {
+        final Expression expression = Expression.parse("x^y", MC);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("2")).set("y", new BigDecimal("3"));
+        final Gradient gradient = new GradientEvaluator(expression).eval(bindings);
+        assertEquals(0, new BigDecimal("12").compareTo(gradient.getDerivative("x")));
+        final BigDecimal expected = new BigDecimal(8).multiply(BigDecimalMath.log(BigDecimal.TWO, MC), MC);
+        assertEquals(0, expected.compareTo(gradient.getDerivative("y")));
+    }
+
+    @Test
+    void evalMatchesFiniteDifferences() {
+        final Expression expression = Expression.parse("(a^2 + b)^0.5 / (1 + a*b) - 3^(a/b)", MC);
+        final BigDecimal a = new BigDecimal("0.7");
+        final BigDecimal b = new BigDecimal("1.3");
+        final Gradient gradient = new GradientEvaluator(expression).eval(expression.newBindings().set("a", a).set("b", b));
+        final BigDecimal step = new BigDecimal("1E-12");
+        final BigDecimal estimate = expression.eval(new String[]{"a", "b"}, new BigDecimal[]{a.add(step), b})
+                .subtract(expression.eval(new String[]{"a", "b"}, new BigDecimal[]{a.subtract(step), b}))
+                .divide(step.multiply(BigDecimal.TWO), MC);
+        assertTrue(gradient.getDerivative("a").subtract(estimate).abs().compareTo(new BigDecimal("1E-10")) < 0,
+                gradient + " vs " + estimate);
+    }
+
+    @Test
+    void evalOptimizedExpression() {
+        final Expression expression = Expression.parse("(x*x+1)*(x*x+1) - -x", MC);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("3"));
+        final Gradient plain = new GradientEvaluator(expression).eval(bindings);
+        final Expression optimized = expression.optimize();
+        final Gradient gradient = new GradientEvaluator(optimized).eval(optimized.newBindings().set("x", new BigDecimal("3")));
+        assertEquals(0, new BigDecimal("121").compareTo(gradient.getDerivative("x")));
+        assertEquals(0, plain.getDerivative(0).compareTo(gradient.getDerivative(0)));
+        assertEquals(0, plain.getValue().compareTo(gradient.getValue()));
+    }
+
+    @Test
+    void evalTokenizerTree() {
+        final Tokenizer tokenizer = new Tokenizer();
+        tokenizer.tokenizeEquation("x*y + 5", MC);
+        final Token root = Parser.parseTokens(tokenizer.getTokens(), tokenizer.getMathContext());
+        tokenizer.changeValuesOfVariables(new String[]{"x", "y"}, new BigDecimal[]{BigDecimal.TWO, BigDecimal.TEN});
+        final Gradient gradient = GradientEvaluator.eval(root, tokenizer);
+        assertEquals(0, new BigDecimal("25").compareTo(gradient.getValue()));
+        assertEquals(0, BigDecimal.TEN.compareTo(gradient.getDerivative("x")));
+        assertEquals(0, BigDecimal.TWO.compareTo(gradient.getDerivative("y")));
+    }
+
+    @Test
+    void evalWithoutDerivative() {
+        final Expression negativeBase = Expression.parse("x^y", MC);
+        assertThrows(ArithmeticException.class, () -> new GradientEvaluator(negativeBase)
+                .eval(negativeBase.newBindings().set("x", new BigDecimal("-2")).set("y", BigDecimal.TWO)));
+        final Expression zeroBase = Expression.parse("x^0.5", MC);
+        assertThrows(ArithmeticException.class, () -> new GradientEvaluator(zeroBase)
+                .eval(zeroBase.newBindings().set("x", BigDecimal.ZERO)));
+    }
+
+    @Test
+    void evalZeroToThePowerOfZero() {
+        final Expression expression = Expression.parse("x^0 + x", MC);
+        final Gradient gradient = new GradientEvaluator(expression).eval(expression.newBindings().set("x", BigDecimal.ZERO));
+        assertEquals(0, BigDecimal.ONE.compareTo(gradient.getValue()));
+        assertEquals(0, BigDecimal.ONE.compareTo(gradient.getDerivative("x")));
+    }
+}
@@ -0,0 +1,83 @@
+package edu.lispectre.metaphrase;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsTest {
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void disableMetrics() {
+        Metrics.disable();
+    }
+
+    @Test
+    void registryReceivesEveryPhase() {
+        final DefaultMetricsRegistry registry = new DefaultMetricsRegistry();
+        Metrics.enable(registry);
+        final Expression expression = Expression.parse("2^(3/(4-x))", 10);
+        expression.eval(expression.newBindings().set("x", BigDecimal.ONE));
+        assertEquals(1, registry.getTokenizeLatency().getCount());
+        assertEquals(1, registry.getParseLatency().getCount());
+        assertEquals(1, registry.getEvalLatency().getCount());
+        assertEquals(7, registry.getTokens());
+        assertEquals(7, registry.getNodes());
+        assertEquals(1, registry.getExponents());
+        assertEquals(1, registry.getDivisions());
+        assertEquals(2, registry.getMaxNestingDepth());
+
+        Metrics.disable();
+        expression.eval(expression.newBindings().set("x", BigDecimal.ONE));
+        assertEquals(1, registry.getEvalLatency().getCount());
+    }
+
+    @Test
+    void latencyHistogramPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100);
+        }
+        histogram.record(5_000);
+        assertEquals(127, histogram.getPercentileNanos(50));
+        assertEquals(127, histogram.getPercentileNanos(99));
+        assertEquals(8_191, histogram.getPercentileNanos(100));
+        assertEquals(5_000, histogram.getMaxNanos());
+        assertEquals(14_900, histogram.getTotalNanos());
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    void flightRecorderEvents() throws IOException {
+        final Path file = directory.resolve("metrics.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("metaphrase.Tokenize");
+            recording.enable("metaphrase.Parse");
+            recording.enable("metaphrase.Eval");
+            recording.start();
+            Expression.parse("(1+2)*3/4", 10).eval();
+            recording.stop();
+            recording.dump(file);
+        }
+        final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("metaphrase.Tokenize")
+                && event.getInt("tokens") == 7 && event.getInt("nestingDepth") == 1));
+        assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("metaphrase.Parse")
+                && event.getInt("nodes") == 7 && event.getInt("divisions") == 1));
+        assertTrue(events.stream().anyMatch(event -> event.getEventType().getName().equals("metaphrase.Eval")
+                && event.getString("equation").equals("(1+2)*3/4")));
+    }
+}
@@ -0,0 +1,81 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OptimizerTest {
+    final String[] equations = {
+            "10--2", "2---1", "-2^2", "(3 - 8 / (1 - 10 * 5)) * x", "(x*y+1) / (x*y+1)^2 - (x*y+1)",
+            "30*x/((3-y)+z) - -x^2", "x*-1 + -1*y", "2^(1/2) * x + 2^(1/2) * y", "(x+y)*(x+y)*(x+y)*(x+y)"
+    };
+
+    private Bindings bind(Expression expression) {
+        final Bindings bindings = expression.newBindings();
+        for (String variable : expression.getVariables()) {
+            bindings.set(variable, new BigDecimal(variable.equals("x") ? "2.5" : variable.equals("y") ? "-1.3" : "7"));
+        }
+        return bindings;
+    }
+
+    @Test
+    void optimizeGivesSameResults() {
+        for (String equation : equations) {
+            final Expression expression = Expression.parse(equation, 25);
+            final Expression optimized = expression.optimize();
+            final Bindings bindings = bind(expression);
+            assertEquals(expression.eval(bindings), optimized.eval(bindings), equation);
+            assertEquals(expression.eval(bindings), optimized.compile().eval(bindings), equation);
+            final double[] values = new double[expression.getVariables().size()];
+            for (int slot = 0; slot < values.length; slot++) {
+                values[slot] = bindings.get(expression.getVariables().get(slot)).doubleValue();
+            }
+            assertEquals(expression.evalDouble(values), optimized.evalDouble(values), equation);
+        }
+    }
+
+    @Test
+    void optimizeFoldsValues() {
+        final Expression optimized = Expression.parse("(3 - 8 / (1 - 10 * 5)) * x", 20).optimize();
+        assertEquals(8, optimized.getRemovedTokens());
+        assertEquals(3, Optimizer.countTokens(optimized.getRoot()));
+    }
+
+    @Test
+    void optimizeMergesIdenticalSubtrees() {
+        final Expression optimized = Expression.parse("(x*y+1) / (x*y+1)^2 - (x*y+1)", 20).optimize();
+        assertEquals(1, optimized.getSharedTokens());
+        assertTrue(optimized.getRemovedTokens() > 0);
+        final Bindings bindings = bind(optimized);
+        optimized.eval(bindings);
+        bindings.set("x", BigDecimal.ONE);
+        assertEquals(Expression.parse("(1*y+1) / (1*y+1)^2 - (1*y+1)", 20)
+                        .eval(new String[]{"y"}, new BigDecimal[]{bindings.get("y")}),
+                optimized.eval(bindings));
+    }
+
+    @Test
+    void optimizeKeepsDivisionByZero() {
+        final Expression optimized = Expression.parse("x + 1/(2-2)", 10).optimize();
+        final Bindings bindings = optimized.newBindings().set("x", BigDecimal.ONE);
+        assertThrows(ArithmeticException.class, () -> optimized.eval(bindings));
+        assertThrows(ArithmeticException.class, () -> optimized.compile().eval(bindings));
+    }
+
+    @Test
+    void compileManySharedTokens() {
+        final StringBuilder equation = new StringBuilder("x");
+        for (int i = 1; i <= 1_200; i++) {
+            equation.append("+(x*").append(i).append(")/(x*").append(i).append(")");
+        }
+        final Expression expression = Expression.parse(equation.toString(), 15);
+        final Expression optimized = expression.optimize();
+        assertEquals(1_200, optimized.getSharedTokens());
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("1.25"));
+        assertEquals(expression.eval(bindings), optimized.compile().eval(bindings));
+    }
+}
@@ -4,9 +4,11 @@ import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.util.ArrayList;
 
 import static edu.lispectre.metaphrase.Parser.parseTokens;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 class ParserTest {
     final MathContext mc = new MathContext(10);
@@ -22,6 +24,8 @@ class ParserTest {
     final String aReallyLongAndUnnecessarilyComplicatedJustLikeThisVariableNameEquation = "(((3^2 + 4^2) / 5 * 2 + (6 * 9)^(1/2)) - ((7 * 8) / 2 + (10^2) / 11) * ((12 / 13) + (14^3) / 15) + (16 - (17 * 18) / (19^(1/2))) * ((20 + 21) / 22) - ((23 / 24) - 25) * (26 + ((27 * 28)^(1/2)) / 29))";
     final String oneVariableEquation = "2^(x+3)";
     final String multipleVariablesEquation = "30*x/((3-y)+z)";
+    final String repeatedUnaryMinusEquation = "2---1";
+    final String leftAssociativeExponentEquation = "2^3^2";
 
     final Tokenizer tokenizer = new Tokenizer();
 
@@ -116,4 +120,42 @@ class ParserTest {
         }
         assertEquals(new BigDecimal("14.01869159", mc), parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval());
     }
-}
\ No newline at end of file
+
+    @Test
+    void parseRepeatedUnaryMinus() {
+        tokenizer.tokenizeEquation(repeatedUnaryMinusEquation);
+        assertEquals(new BigDecimal("1.00"), parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval());
+    }
+
+    @Test
+    void parseLeftAssociativeExponent() {
+        tokenizer.tokenizeEquation(leftAssociativeExponentEquation);
+        assertEquals(new BigDecimal("64"), parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval());
+    }
+
+    @Test
+    void parseLongFlatEquation() {
+        final StringBuilder equation = new StringBuilder("0");
+        for (int i = 0; i < 2_000; i++) {
+            equation.append(i % 2 == 0 ? "+3*2" : "-5/5");
+        }
+        tokenizer.tokenizeEquation(equation.toString());
+        assertEquals(0, new BigDecimal("5000").compareTo(parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval()));
+    }
+
+    @Test
+    void parseDoesNotModifyTokens() {
+        tokenizer.tokenizeEquation(differentiatingPrecedencesEquation);
+        final ArrayList<Token> tokens = new ArrayList<>(tokenizer.getTokens());
+        parseTokens(tokenizer.getTokens(), tokenizer.getMathContext());
+        assertEquals(tokens, tokenizer.getTokens());
+    }
+
+    @Test
+    void parseMissingOperands() {
+        tokenizer.tokenizeEquation("2*");
+        assertThrows(RuntimeException.class, () -> parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()));
+        tokenizer.tokenizeEquation("2 3");
+        assertThrows(RuntimeException.class, () -> parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()));
+    }
+}
@@ -0,0 +1,55 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PostfixExpressionTest {
+    final String aReallyLongEquation = "(((3^2 + 4^2) / 5 * 2 + (6 * 9)^(1/2)) - ((7 * 8) / 2 + (10^2) / 11) * ((12 / 13) + (14^3) / 15) + (16 - (17 * 18) / (19^(1/2))) * ((20 + 21) / 22) - ((23 / 24) - 25) * (26 + ((27 * 28)^(1/2)) / 29))";
+
+    @Test
+    void postfixGivesSameResults() {
+        final Expression expression = Expression.parse(aReallyLongEquation, 30);
+        assertEquals(expression.eval(), expression.toPostfix().eval());
+        assertEquals(expression.eval(), expression.optimize().toPostfix().eval());
+    }
+
+    @Test
+    void postfixInstructions() {
+        final PostfixExpression postfix = Expression.parse("x-2*x", 10).optimize().toPostfix();
+        assertArrayEquals(new int[]{PostfixExpression.PUSH_VARIABLE, PostfixExpression.PUSH_CONSTANT,
+                PostfixExpression.PUSH_VARIABLE, PostfixExpression.MULTIPLICATION, PostfixExpression.SUBTRACTION},
+                postfix.getOpcodes());
+        assertEquals(3, postfix.getMaxStack());
+    }
+
+    @Test
+    void postfixWithSharedTokens() {
+        final Expression expression = Expression.parse("(x*y+1) / (x*y+1)^2 - -(x*y+1)", 20);
+        final Expression optimized = expression.optimize();
+        final PostfixExpression postfix = optimized.toPostfix();
+        final Bindings bindings = optimized.newBindings().set("x", new BigDecimal("2.5")).set("y", new BigDecimal("-1.3"));
+        assertEquals(expression.eval(bindings), postfix.eval(bindings));
+        bindings.set("x", BigDecimal.ONE);
+        assertEquals(expression.eval(bindings), postfix.eval(bindings));
+    }
+
+    @Test
+    void postfixDeeplyNestedEquation() {
+        final int depth = 20_000;
+        final String equation = "(".repeat(depth) + "x" + "+1)".repeat(depth);
+        final PostfixExpression postfix = Expression.parse(equation, 10).toPostfix();
+        final Bindings bindings = postfix.getExpression().newBindings().set("x", BigDecimal.ONE);
+        assertEquals(new BigDecimal(depth + 1), postfix.eval(bindings));
+    }
+
+    @Test
+    void postfixDivisionByZero() {
+        final PostfixExpression postfix = Expression.parse("1/(2-2)", 10).toPostfix();
+        assertThrows(ArithmeticException.class, postfix::eval);
+    }
+}
@@ -0,0 +1,60 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProgressiveEvaluatorTest {
+    @Test
+    void evalWithoutEscalating() {
+        final Expression expression = Expression.parse("1/3 + x*2 - 2^(1/2) + (x-1)^3", 20);
+        final ProgressiveEvaluator evaluator = new ProgressiveEvaluator(expression);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("1.25"));
+        final BigDecimal exact = Expression.parse("1/3 + 1.25*2 - 2^(1/2) + (1.25-1)^3", 60).eval()
+                .round(new MathContext(20));
+        assertEquals(exact, evaluator.eval(bindings));
+        assertEquals(0, evaluator.getEscalations());
+        assertEquals(1, evaluator.getEvaluations());
+    }
+
+    @Test
+    void evalEscalatesOnCancellation() {
+        final Expression expression = Expression.parse("(x+1)-1", 10);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("1E-15"));
+        assertEquals(0, expression.eval(bindings).signum());
+        final ProgressiveEvaluator evaluator = new ProgressiveEvaluator(expression);
+        assertEquals(0, new BigDecimal("1E-15").compareTo(evaluator.eval(bindings)));
+        assertEquals(1, evaluator.getEscalations());
+        assertEquals(0, evaluator.getFallbacks());
+    }
+
+    @Test
+    void evalNegativeBaseWithIntegerExponent() {
+        final Expression expression = Expression.parse("(x-3)^2 + (x-3)^3 + -x^-2", 15);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("2.9"));
+        final ProgressiveEvaluator evaluator = new ProgressiveEvaluator(expression);
+        final BigDecimal exact = Expression.parse("(2.9-3)^2 + (2.9-3)^3 + -2.9^-2", 60).eval()
+                .round(new MathContext(15));
+        assertEquals(exact, evaluator.eval(bindings));
+    }
+
+    @Test
+    void evalFallsBackWhenUnbounded() {
+        final Expression expression = Expression.parse("1/(x-1/3*3)", 10);
+        final Bindings bindings = expression.newBindings().set("x", BigDecimal.ONE);
+        final ProgressiveEvaluator evaluator = new ProgressiveEvaluator(expression);
+        assertEquals(expression.eval(bindings), evaluator.eval(bindings));
+        assertEquals(1, evaluator.getFallbacks());
+    }
+
+    @Test
+    void evalDivisionByZero() {
+        final Expression expression = Expression.parse("1/(x-x)", 10);
+        final Bindings bindings = expression.newBindings().set("x", new BigDecimal("0.1"));
+        assertThrows(ArithmeticException.class, () -> new ProgressiveEvaluator(expression).eval(bindings));
+    }
+}
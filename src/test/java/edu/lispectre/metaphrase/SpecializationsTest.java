@@ -0,0 +1,85 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SpecializationsTest {
+    final Random random = new Random(15);
+
+    @Test
+    void parserSpecializesLiterals() {
+        final MathContext mc = new MathContext(20);
+        assertInstanceOf(IntegerPowerToken.class, Expression.parse("x^3", mc).getRoot());
+        assertInstanceOf(ReciprocalDivisionToken.class, Expression.parse("x/0.25", mc).getRoot());
+        assertInstanceOf(IdentityMultiplicationToken.class, Expression.parse("1*x", mc).getRoot());
+        assertInstanceOf(NegationToken.class, Expression.parse("-x", mc).getRoot());
+        assertInstanceOf(ZeroAdditionToken.class, Expression.parse("x-0", mc).getRoot());
+        assertSame(OperatorToken.class, Expression.parse("x/3", mc).getRoot().getClass());
+        assertSame(OperatorToken.class, Expression.parse("x^0.5", mc).getRoot().getClass());
+        assertSame(OperatorToken.class, Expression.parse("x*1.0", mc).getRoot().getClass());
+    }
+
+    @Test
+    void specializedTokensGiveIdenticalResults() {
+        final String[] literals = {"0", "1", "2", "3", "7", "0.5", "8.0", "1.25", "20", "0.008", "0.00", "10"};
+        final Operator[] operators = {Operator.EXPONENT, Operator.MULTIPLICATION, Operator.DIVISION,
+                Operator.ADDITION, Operator.SUBTRACTION};
+        for (int i = 0; i < 50_000; i++) {
+            final MathContext mc = new MathContext(1 + random.nextInt(40), RoundingMode.values()[random.nextInt(7)]);
+            final Operator operator = operators[random.nextInt(operators.length)];
+            BigDecimal value = randomValue();
+            if (operator == Operator.EXPONENT) {
+                value = value.movePointLeft(value.precision() - 1);
+            }
+            final Token literal = new ValueToken(new BigDecimal(literals[random.nextInt(literals.length)]));
+            final boolean literalOnLeft = operator != Operator.EXPONENT && operator != Operator.DIVISION
+                    && random.nextBoolean();
+            final Token left = literalOnLeft ? literal : new ValueToken(value);
+            final Token right = literalOnLeft ? new ValueToken(value) : literal;
+            assertEquals(outcome(new OperatorToken(operator, left, right, mc)),
+                    outcome(Specializations.create(operator, left, right, mc)),
+                    left.val + " " + operator + " " + right.val + " " + mc);
+        }
+    }
+
+    @Test
+    void negationMatchesUnaryMinus() {
+        for (int i = 0; i < 20_000; i++) {
+            final MathContext mc = new MathContext(1 + random.nextInt(40), RoundingMode.values()[random.nextInt(7)]);
+            final Token minusOne = new ValueToken(new BigDecimal("-1.0"));
+            final Token value = new ValueToken(randomValue());
+            assertEquals(outcome(new OperatorToken(Operator.MULTIPLICATION, minusOne, value, mc)),
+                    outcome(Specializations.create(Operator.MULTIPLICATION, minusOne, value, mc)));
+        }
+    }
+
+    private BigDecimal randomValue() {
+        final BigInteger unscaled = switch (random.nextInt(3)) {
+            case 0 -> BigInteger.valueOf(random.nextInt(2001) - 1000);
+            case 1 -> BigInteger.valueOf(random.nextLong());
+            default -> new BigInteger(1 + random.nextInt(150), random).multiply(BigInteger.TEN.pow(random.nextInt(5)));
+        };
+        return new BigDecimal(random.nextBoolean() ? unscaled : unscaled.negate(), random.nextInt(60) - 20);
+    }
+
+    /**
+     * The result along with its scale, or the exception thrown.
+     */
+    private static String outcome(OperatorToken token) {
+        try {
+            final BigDecimal result = token.eval(null);
+            return result + " (scale " + result.scale() + ")";
+        } catch (ArithmeticException ex) {
+            return ex.getMessage();
+        }
+    }
+}
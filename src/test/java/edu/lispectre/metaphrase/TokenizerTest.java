@@ -0,0 +1,157 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static edu.lispectre.metaphrase.Parser.parseTokens;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TokenizerTest {
+    final Tokenizer tokenizer = new Tokenizer();
+
+    @Test
+    void tokenizeParenthesesIntoSingleToken() {
+        tokenizer.tokenizeEquation("2*((3+4)*5)");
+        assertEquals(3, tokenizer.getTokens().size());
+        assertEquals(new BigDecimal("70"), parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval());
+    }
+
+    @Test
+    void tokenizeVariableInsideAndOutsideParentheses() {
+        tokenizer.tokenizeEquation("x*(x+(1-x))");
+        assertEquals(1, tokenizer.getVariables().size());
+        tokenizer.changeValueOfVariable("x", new BigDecimal("3"));
+        assertEquals(new BigDecimal("3"), parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval());
+    }
+
+    @Test
+    void tokenizeUnaryMinusAfterParenthesis() {
+        tokenizer.tokenizeEquation("(-2)-(-3)");
+        assertEquals(new BigDecimal("1.0"), parseTokens(tokenizer.getTokens(), tokenizer.getMathContext()).eval());
+    }
+
+    @Test
+    void tokenizeUnmatchedParentheses() {
+        assertThrows(RuntimeException.class, () -> tokenizer.tokenizeEquation("(1+2"));
+        assertThrows(RuntimeException.class, () -> tokenizer.tokenizeEquation("1+2)"));
+        assertThrows(RuntimeException.class, () -> tokenizer.tokenizeEquation("((1+2)"));
+    }
+
+    @Test
+    void evalRecalculatesOnlyChangedBranches() {
+        tokenizer.tokenizeEquation("(x+1)*(y+2)-x");
+        tokenizer.changeValuesOfVariables(new String[]{"x", "y"}, new BigDecimal[]{new BigDecimal("3"), new BigDecimal("4")});
+        final Token root = parseTokens(tokenizer.getTokens(), tokenizer.getMathContext());
+        assertEquals(new BigDecimal("21"), root.eval());
+        final BigDecimal xBranch = root.left.left.eval();
+        final BigDecimal yBranch = root.left.right.eval();
+
+        tokenizer.changeValueOfVariable("y", new BigDecimal("8"));
+        assertEquals(new BigDecimal("37"), root.eval());
+        assertSame(xBranch, root.left.left.eval());
+        assertNotSame(yBranch, root.left.right.eval());
+
+        tokenizer.changeValueOfVariable("x", new BigDecimal("-1"));
+        assertEquals(new BigDecimal("1"), root.eval());
+    }
+
+    @Test
+    void evalRecalculatesEveryTreeOfAVariable() {
+        final StringBuilder equation = new StringBuilder(variableName(0));
+        for (int i = 1; i < 2000; i++) {
+            equation.append('+').append(variableName(i));
+        }
+        tokenizer.tokenizeEquation(equation.toString());
+        for (int i = 0; i < 2000; i++) {
+            tokenizer.changeValueOfVariable(variableName(i), BigDecimal.ONE);
+        }
+        final Token first = parseTokens(tokenizer.getTokens(), tokenizer.getMathContext());
+        final Token second = parseTokens(tokenizer.getTokens(), tokenizer.getMathContext());
+        assertEquals(new BigDecimal("2000"), first.eval());
+        assertEquals(new BigDecimal("2000"), second.eval());
+        tokenizer.changeValueOfVariable(variableName(1000), BigDecimal.TEN);
+        assertEquals(new BigDecimal("2009"), first.eval());
+        assertEquals(new BigDecimal("2009"), second.eval());
+    }
+
+    @Test
+    void evalTreesDeeperThanTheStack() {
+        tokenizer.tokenizeEquation("(".repeat(50_000) + "x" + "+1)".repeat(50_000));
+        tokenizer.changeValueOfVariable("x", BigDecimal.ONE);
+        final Token root = parseTokens(tokenizer.getTokens(), tokenizer.getMathContext());
+        assertEquals(new BigDecimal("50001"), root.eval());
+        tokenizer.changeValueOfVariable("x", BigDecimal.TEN);
+        assertEquals(new BigDecimal("50010"), root.eval());
+    }
+
+    private static String variableName(int index) {
+        return "v" + (char) ('a' + index / 26 / 26) + (char) ('a' + index / 26 % 26) + (char) ('a' + index % 26);
+    }
+
+    @Test
+    void tokenizeSlicesOfCharactersAndBytes() {
+        final String equation = "alpha*2.50 - (beta+ alpha)/0.000 + 12345678901234567890.123456789^x";
+        final MathContext mc = new MathContext(12, RoundingMode.HALF_DOWN);
+        tokenizer.tokenizeEquation(equation, mc);
+        final String expected = describe(tokenizer);
+
+        tokenizer.tokenizeEquation(new StringBuilder("[[").append(equation).append("]]"), 2, equation.length() + 2, mc);
+        assertEquals(expected, describe(tokenizer));
+        final CharBuffer chars = CharBuffer.wrap("##" + equation);
+        chars.position(2);
+        tokenizer.tokenizeEquation(chars, mc);
+        assertEquals(expected, describe(tokenizer));
+        assertEquals(2, chars.position());
+        final byte[] payload = ("{\"f\":\"" + equation + "\"}").getBytes(StandardCharsets.US_ASCII);
+        tokenizer.tokenizeEquation(ByteBuffer.wrap(payload), 6, equation.length(), mc);
+        assertEquals(expected, describe(tokenizer));
+        final ByteBuffer direct = ByteBuffer.allocateDirect(payload.length).put(payload);
+        tokenizer.tokenizeEquation(direct, 6, equation.length(), mc);
+        assertEquals(expected, describe(tokenizer));
+        assertThrows(IndexOutOfBoundsException.class, () -> tokenizer.tokenizeEquation(direct.flip(), 6, payload.length, mc));
+    }
+
+    @Test
+    void tokenizeLiteralsLikeBigDecimal() {
+        final Random random = new Random(18);
+        for (int i = 0; i < 10_000; i++) {
+            final StringBuilder literal = new StringBuilder();
+            final int digits = 1 + random.nextInt(22);
+            for (int digit = 0; digit < digits; digit++) {
+                literal.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextBoolean()) {
+                literal.insert(1 + random.nextInt(digits), '.');
+                if (literal.charAt(literal.length() - 1) == '.') {
+                    literal.append('0');
+                }
+            }
+            final MathContext mc = new MathContext(random.nextInt(25), RoundingMode.values()[random.nextInt(7)]);
+            tokenizer.tokenizeEquation(literal, 0, literal.length(), mc);
+            final BigDecimal expected = new BigDecimal(literal.toString(), mc);
+            final BigDecimal actual = tokenizer.getTokens().get(0).val;
+            assertEquals(expected, actual, literal + " " + mc);
+        }
+    }
+
+    private static String describe(Tokenizer tokenizer) {
+        final StringBuilder description = new StringBuilder();
+        for (Token token : tokenizer.getTokens()) {
+            description.append(token.getType()).append(' ').append(token).append(' ');
+            if (token.val != null) {
+                description.append(token.val.scale()).append(' ');
+            }
+        }
+        return description.append(tokenizer.getVariables().keySet()).toString();
+    }
+}
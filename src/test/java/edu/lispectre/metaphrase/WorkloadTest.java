@@ -0,0 +1,22 @@
+package edu.lispectre.metaphrase;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WorkloadTest {
+    @Test
+    void sameSeedGivesSameEquations() {
+        for (Workload workload : Workload.values()) {
+            final Random first = new Random(7);
+            final Random second = new Random(7);
+            for (int i = 0; i < 20; i++) {
+                final String equation = workload.equation(first, 10);
+                assertEquals(equation, workload.equation(second, 10));
+                Expression.parse(equation, 10);
+            }
+        }
+    }
+}